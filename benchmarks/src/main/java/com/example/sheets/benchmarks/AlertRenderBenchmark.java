@@ -0,0 +1,39 @@
+package com.example.sheets.benchmarks;
+
+import com.example.sheets.dtos.EmailTableRow;
+import com.example.sheets.utils.OccupancyAlertTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Rendering the occupancy alert email for the given number of hospitals over the threshold.
+public class AlertRenderBenchmark extends SyncBenchmark
+{
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private List<EmailTableRow> hospitals;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(rows);
+        hospitals = new ArrayList<>(rows);
+        for(int row = 0; row < rows; row++)
+        {
+            int generalBeds = 50 + random.nextInt(450);
+            int icuBeds = 5 + random.nextInt(45);
+            hospitals.add(new EmailTableRow(SyntheticSheet.hospitalId(row), SyntheticSheet.hospitalName(row), generalBeds, generalBeds, icuBeds, icuBeds - random.nextInt(3)));
+        }
+    }
+
+    @Benchmark
+    public String render()
+    {
+        return OccupancyAlertTemplate.render("2024-01-01", hospitals);
+    }
+}
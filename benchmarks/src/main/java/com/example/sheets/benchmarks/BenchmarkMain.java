@@ -0,0 +1,33 @@
+package com.example.sheets.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+// Runs the benchmarks selected on the command line (all by default, same options as JMH's own main) with the GC
+// profiler on, and writes the results as JSON to results/jmh-<timestamp>.json unless -rff says otherwise, so
+// runs on different commits can be compared.
+public class BenchmarkMain
+{
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON);
+        if(!commandLine.getResult().hasValue())
+        {
+            new File("results").mkdirs();
+            options.result("results/jmh-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+        }
+        new Runner(options.build()).run();
+    }
+}
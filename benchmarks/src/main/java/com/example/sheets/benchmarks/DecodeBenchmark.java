@@ -0,0 +1,42 @@
+package com.example.sheets.benchmarks;
+
+import com.example.sheets.utils.RowBuffer;
+import com.example.sheets.utils.SheetResponseDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+// Streaming a batchGet response into the row buffers: JSON parsing, typed cell conversion and row hashing.
+public class DecodeBenchmark extends SyncBenchmark
+{
+    @Param({"Hospital", "Patient"})
+    public SyntheticSheet.Tab tab;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private byte[] response;
+    private List<RowBuffer> buffers;
+
+    @Setup
+    public void setUp()
+    {
+        response = SyntheticSheet.response(tab, rows);
+        buffers = SyntheticSheet.buffers(SyntheticSheet.mapping(tab), rows);
+    }
+
+    @Benchmark
+    public List<RowBuffer> decode() throws IOException
+    {
+        for(RowBuffer buffer: buffers)
+        {
+            buffer.clear();
+        }
+        SheetResponseDecoder.decode(new ByteArrayInputStream(response), buffers);
+        return buffers;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.sheets.benchmarks;
+
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.utils.RowBuffer;
+import com.example.sheets.utils.RowDiff;
+import com.example.sheets.utils.RowHash;
+import com.example.sheets.utils.SheetResponseDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The two ways a sync decides what to write, against a tab where every CHANGED_EVERY-th row changed:
+//  - rowHashes: the COPY path, comparing each decoded row's hash with the stored hashes (RowDiff).
+//  - entities: the JPA path, binding every row to an entity and copying changed columns onto the stored entity.
+// The entities benchmark alternates between two revisions of the tab, so that every call finds the same rows
+// changed although copyChanged updates the stored entities.
+public class DiffBenchmark extends SyncBenchmark
+{
+    @Param({"Hospital", "Patient"})
+    public SyntheticSheet.Tab tab;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private CompiledTabMapping<Object> mapping;
+    private List<List<RowBuffer>> revisions;
+    private final List<int[]> decodedRows = new ArrayList<>();
+    private final List<List<String>> ids = new ArrayList<>();
+    private final List<long[]> rowHashes = new ArrayList<>();
+    private final Map<String, Long> storedHashes = new HashMap<>();
+    private final List<String[][]> resolvedKeys = new ArrayList<>();
+    private final List<Object> storedEntities = new ArrayList<>();
+    private int invocation;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException
+    {
+        mapping = (CompiledTabMapping<Object>) SyntheticSheet.mapping(tab);
+        revisions = new ArrayList<>();
+        for(int revision = 0; revision < 2; revision++)
+        {
+            List<RowBuffer> buffers = SyntheticSheet.buffers(mapping, rows);
+            SheetResponseDecoder.decode(new ByteArrayInputStream(SyntheticSheet.response(tab, rows, revision)), buffers);
+            revisions.add(buffers);
+        }
+
+        // Lookups resolve to the hospital name itself; resolution is not what is measured here.
+        for(RowBuffer buffer: revisions.get(1))
+        {
+            int[] windowRows = new int[buffer.size()];
+            List<String> windowIds = new ArrayList<>(buffer.size());
+            long[] windowHashes = new long[buffer.size()];
+            String[][] windowKeys = new String[mapping.getLookupColumns().length][buffer.size()];
+            for(int row = 0; row < buffer.size(); row++)
+            {
+                windowRows[row] = row;
+                windowIds.add(buffer.getText(row, 0));
+                windowHashes[row] = RowHash.finish(buffer.getHash(row));
+                for(int lookup = 0; lookup < windowKeys.length; lookup++)
+                {
+                    windowKeys[lookup][row] = buffer.getText(row, mapping.getLookupColumns()[lookup]);
+                }
+            }
+            decodedRows.add(windowRows);
+            ids.add(windowIds);
+            rowHashes.add(windowHashes);
+            resolvedKeys.add(windowKeys);
+        }
+
+        int window = 0;
+        for(RowBuffer buffer: revisions.get(0))
+        {
+            for(int row = 0; row < buffer.size(); row++)
+            {
+                long rowHash = RowHash.finish(buffer.getHash(row));
+                storedHashes.put(buffer.getText(row, 0), rowHash);
+                storedEntities.add(mapping.bind(buffer, row, resolvedKeys.get(window), rowHash));
+            }
+            window++;
+        }
+    }
+
+    @Benchmark
+    public void rowHashes(Blackhole blackhole)
+    {
+        for(int window = 0; window < decodedRows.size(); window++)
+        {
+            blackhole.consume(RowDiff.of(decodedRows.get(window), ids.get(window), rowHashes.get(window), storedHashes));
+        }
+    }
+
+    @Benchmark
+    public int entities()
+    {
+        List<RowBuffer> buffers = revisions.get(1 - invocation++ % 2);
+        int changed = 0;
+        int entity = 0;
+        for(int window = 0; window < buffers.size(); window++)
+        {
+            RowBuffer buffer = buffers.get(window);
+            for(int row = 0; row < buffer.size(); row++)
+            {
+                Object incoming = mapping.bind(buffer, row, resolvedKeys.get(window), RowHash.finish(buffer.getHash(row)));
+                if(mapping.copyChanged(incoming, storedEntities.get(entity++)))
+                {
+                    changed++;
+                }
+            }
+        }
+        return changed;
+    }
+}
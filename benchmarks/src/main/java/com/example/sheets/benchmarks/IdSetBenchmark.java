@@ -0,0 +1,47 @@
+package com.example.sheets.benchmarks;
+
+import com.example.sheets.utils.PackedIdSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Collecting a tab's IDs for the delete of missing rows, into the PackedIdSet the sync uses and, for reference,
+// into a HashSet.
+public class IdSetBenchmark extends SyncBenchmark
+{
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private List<String> ids;
+
+    @Setup
+    public void setUp()
+    {
+        ids = new ArrayList<>(rows);
+        for(int row = 0; row < rows; row++)
+        {
+            ids.add(SyntheticSheet.id(SyntheticSheet.Tab.Patient, row));
+        }
+    }
+
+    @Benchmark
+    public Set<String> packedIdSet()
+    {
+        Set<String> set = new PackedIdSet();
+        set.addAll(ids);
+        return set;
+    }
+
+    @Benchmark
+    public Set<String> hashSet()
+    {
+        Set<String> set = new HashSet<>();
+        set.addAll(ids);
+        return set;
+    }
+}
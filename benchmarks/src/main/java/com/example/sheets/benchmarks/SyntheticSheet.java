@@ -0,0 +1,111 @@
+package com.example.sheets.benchmarks;
+
+import com.example.sheets.configs.TabMappingConfig;
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.models.db.Hospital;
+import com.example.sheets.models.db.Patient;
+import com.example.sheets.services.OccupancyService;
+import com.example.sheets.utils.RowBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Generates the Hospital and Patient tabs as the Sheets batchGet response for them, split into windows the size
+// of the sync's largest fetch window. Rows are deterministic for a given tab, row count and revision.
+public class SyntheticSheet
+{
+    public static final int WINDOW_ROWS = 1000;
+    public static final int HOSPITALS = 2000;
+    public static final int CHANGED_EVERY = 10;
+
+    public enum Tab
+    {
+        Hospital,
+        Patient
+    }
+
+    private static final String[] DISEASES = {"Influenza", "Pneumonia", "Dengue", "Malaria", "Covid-19", "Typhoid", "Fracture", "Appendicitis"};
+    private static final String[] LOCATIONS = {"Bengaluru", "Mumbai", "Chennai", "Delhi", "Hyderabad", "Pune", "Kolkata"};
+
+    private SyntheticSheet()
+    {
+    }
+
+    public static CompiledTabMapping<Hospital> hospitalMapping()
+    {
+        return new TabMappingConfig().hospitalMapping(null);
+    }
+
+    public static CompiledTabMapping<Patient> patientMapping()
+    {
+        return new TabMappingConfig().patientMapping(null, new OccupancyService());
+    }
+
+    public static CompiledTabMapping<?> mapping(Tab tab)
+    {
+        return (tab == Tab.Hospital) ? hospitalMapping() : patientMapping();
+    }
+
+    public static String hospitalId(int index)
+    {
+        return String.format("H%05d", index);
+    }
+
+    public static String hospitalName(int index)
+    {
+        return "Hospital " + index;
+    }
+
+    public static String id(Tab tab, int row)
+    {
+        return (tab == Tab.Hospital) ? hospitalId(row) : String.format("P%07d", row);
+    }
+
+    public static byte[] response(Tab tab, int rows)
+    {
+        return response(tab, rows, 0);
+    }
+
+    // Revisions of the same tab differ in the name of every CHANGED_EVERY-th row.
+    public static byte[] response(Tab tab, int rows, int revision)
+    {
+        Random random = new Random(rows);
+        StringBuilder json = new StringBuilder(rows * 96 + 64).append("{\"valueRanges\":[");
+        for(int window = 0; window * WINDOW_ROWS < rows; window++)
+        {
+            json.append(window == 0 ? "" : ",").append("{\"values\":[");
+            for(int row = window * WINDOW_ROWS; row < Math.min(rows, (window + 1) * WINDOW_ROWS); row++)
+            {
+                json.append(row % WINDOW_ROWS == 0 ? "" : ",");
+                String suffix = (revision > 0 && row % CHANGED_EVERY == 0) ? " (rev " + revision + ")" : "";
+                if(tab == Tab.Hospital)
+                {
+                    json.append("[\"").append(hospitalId(row)).append("\",\"").append(hospitalName(row)).append(suffix).append("\",\"").append(LOCATIONS[random.nextInt(LOCATIONS.length)])
+                            .append("\",").append(50 + random.nextInt(450)).append(',').append(5 + random.nextInt(45)).append(']');
+                }
+                else
+                {
+                    json.append("[\"").append(id(tab, row)).append("\",\"Patient ").append(row).append(suffix).append("\",\"")
+                            .append(String.format("19%02d-%02d-%02d", random.nextInt(100), 1 + random.nextInt(12), 1 + random.nextInt(28))).append("\",\"")
+                            .append(DISEASES[random.nextInt(DISEASES.length)]).append("\",\"").append(random.nextInt(5) == 0 ? "ICU" : "General").append("\",\"")
+                            .append(hospitalName(random.nextInt(HOSPITALS))).append("\"]");
+                }
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // One empty buffer per window of the response, starting at sheet row 2 like the real tabs.
+    public static List<RowBuffer> buffers(CompiledTabMapping<?> mapping, int rows)
+    {
+        List<RowBuffer> buffers = new ArrayList<>();
+        for(int startingRow = 0; startingRow < rows; startingRow += WINDOW_ROWS)
+        {
+            buffers.add(new RowBuffer(startingRow + 2, Math.min(WINDOW_ROWS, rows - startingRow), mapping.getColumnTypes()));
+        }
+        return buffers;
+    }
+}
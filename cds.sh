@@ -0,0 +1,9 @@
+# Records the AppCDS archive target/app/application.jsa that deploy.sh starts from. Run it after compile.sh, with the
+# same environment variables as start.sh: the application is started once against the configured Postgres, with its
+# JobRunr server disabled, and stops as soon as it has started.
+NAME=demo
+VERSION=0.0.1-SNAPSHOT
+CLASSPATH="target/$NAME-$VERSION.jar:target/app/dependencies/BOOT-INF/lib/*:target/app/snapshot-dependencies/BOOT-INF/lib/*"
+rm -rf target/app
+java -Djarmode=layertools -jar "target/$NAME-$VERSION-exec.jar" extract --destination target/app || exit 1
+java -XX:ArchiveClassesAtExit=target/app/application.jsa -cp "$CLASSPATH" com.example.sheets.Application --startup.training-run=true --server.port=0 --org.jobrunr.background-job-server.enabled=false --org.jobrunr.dashboard.enabled=false
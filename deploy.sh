@@ -2,5 +2,10 @@ if ! lsof -i :$PORT > /dev/null; then
     echo "Starting"
     NAME=demo
 	VERSION=0.0.1-SNAPSHOT
-    java -jar "target/$NAME-$VERSION.jar" > server.log 2>&1 &
+    if [ -f target/app/application.jsa ]; then
+        # recorded by cds.sh; the class path must match the one the archive was recorded with
+        java -XX:SharedArchiveFile=target/app/application.jsa -cp "target/$NAME-$VERSION.jar:target/app/dependencies/BOOT-INF/lib/*:target/app/snapshot-dependencies/BOOT-INF/lib/*" com.example.sheets.Application > server.log 2>&1 &
+    else
+        java -jar "target/$NAME-$VERSION-exec.jar" > server.log 2>&1 &
+    fi
 fi
\ No newline at end of file
@@ -0,0 +1,200 @@
+package com.example.sheets.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+// A local stand-in for the two Sheets endpoints the sync can use, spreadsheets.values.batchGet and
+// spreadsheets.values.get, serving a SyntheticSpreadsheet whatever the spreadsheet id. Every request waits for
+// latencyMillis (+/- 50%) and a throttlePercent share of them is answered with 429 instead, like an exhausted
+// read quota.
+public class FakeSheetsServer
+{
+    private static final String THROTTLED = "{\"error\":{\"code\":429,\"message\":\"Quota exceeded for quota metric 'Read requests'\",\"status\":\"RESOURCE_EXHAUSTED\"}}";
+
+    private final SyntheticSpreadsheet spreadsheet;
+    private final long latencyMillis;
+    private final double throttlePercent;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+
+    public FakeSheetsServer(SyntheticSpreadsheet spreadsheet, long latencyMillis, double throttlePercent, int threads) throws IOException
+    {
+        this.spreadsheet = spreadsheet;
+        this.latencyMillis = latencyMillis;
+        this.throttlePercent = throttlePercent;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.createContext("/v4/spreadsheets/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // For google.sheets.root-url.
+    public String getRootUrl()
+    {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    public long drainRequests()
+    {
+        return requests.getAndSet(0);
+    }
+
+    public long drainThrottled()
+    {
+        return throttled.getAndSet(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            requests.incrementAndGet();
+            delay();
+
+            String path = exchange.getRequestURI().getPath();
+            List<String> ranges;
+            boolean batch = path.endsWith("/values:batchGet");
+            if(batch)
+            {
+                ranges = queryParameters(exchange.getRequestURI().getRawQuery(), "ranges");
+            }
+            else if(path.contains("/values/"))
+            {
+                ranges = Collections.singletonList(path.substring(path.indexOf("/values/") + "/values/".length()));
+            }
+            else
+            {
+                send(exchange, 404, "{}");
+                return;
+            }
+
+            for(String range: ranges)
+            {
+                spreadsheet.checkRange(range);
+            }
+
+            if(ThreadLocalRandom.current().nextDouble() * 100 < throttlePercent)
+            {
+                throttled.incrementAndGet();
+                send(exchange, 429, THROTTLED);
+                return;
+            }
+
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            if(gzip)
+            {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, 0);
+
+            OutputStream body = gzip ? new GZIPOutputStream(exchange.getResponseBody(), 1 << 16) : exchange.getResponseBody();
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8), 1 << 16))
+            {
+                if(batch)
+                {
+                    out.write("{\"valueRanges\":[");
+                    for(int i = 0; i < ranges.size(); i++)
+                    {
+                        out.write(i == 0 ? "" : ",");
+                        spreadsheet.writeValueRange(out, ranges.get(i));
+                    }
+                    out.write("]}");
+                }
+                else
+                {
+                    spreadsheet.writeValueRange(out, ranges.get(0));
+                }
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            send(exchange, 400, "{\"error\":{\"code\":400,\"message\":\"" + e.getMessage() + "\"}}");
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void delay()
+    {
+        if(latencyMillis <= 0)
+        {
+            return;
+        }
+
+        try
+        {
+            TimeUnit.MILLISECONDS.sleep(latencyMillis / 2 + ThreadLocalRandom.current().nextLong(latencyMillis + 1));
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, String json) throws IOException
+    {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    private static List<String> queryParameters(String query, String name) throws UnsupportedEncodingException
+    {
+        List<String> values = new ArrayList<>();
+        if(query == null)
+        {
+            return values;
+        }
+
+        for(String parameter: query.split("&"))
+        {
+            int separator = parameter.indexOf('=');
+            if(separator > 0 && parameter.substring(0, separator).equals(name))
+            {
+                values.add(URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return values;
+    }
+}
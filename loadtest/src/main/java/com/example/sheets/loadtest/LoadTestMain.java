@@ -0,0 +1,299 @@
+package com.example.sheets.loadtest;
+
+import com.example.sheets.Application;
+import com.example.sheets.services.JobService;
+import com.example.sheets.services.OccupancySnapshotService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.jobrunr.jobs.Job;
+import org.jobrunr.jobs.JobId;
+import org.jobrunr.jobs.context.JobContext;
+import org.jobrunr.jobs.states.StateName;
+import org.jobrunr.scheduling.JobScheduler;
+import org.jobrunr.storage.JobStats;
+import org.jobrunr.storage.StorageProvider;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs the real sync-job and alert-job against an embedded Postgres and a FakeSheetsServer, in three scenarios on
+// the same database: a cold first sync, an hourly run after churn, and a run after a mass delete of patients. Each
+// scenario starts the application afresh, so that its meters and counters cover that scenario only, and reports
+// throughput, per-window stage latencies, peak heap and database round trips. After the first sync, the occupancy
+// API is compared with querying Postgres directly (see OccupancyReadLoad).
+//
+// Options (all --name=value): hospitals (2000), patients (100000), churn-percent (1), delete-percent (15, keep it
+// below sync.delete.max-shrink-percent), latency-ms (200), throttle-percent (0.5), requests-per-minute (6000),
+// server-threads (16), seed (1), read-threads (16), read-seconds (10; 0 skips the read comparison). Any other --option is passed on to the application, e.g.
+// --sync.write.mode=JPA or --sheets.fetch.max-window-rows=500.
+public class LoadTestMain
+{
+    private static final String[] ROW_OUTCOMES = {"read", "rejected", "skipped", "inserted", "updated", "deleted"};
+    private static final String[] STAGES = {"fetch", "decode", "diff", "write"};
+    private static final long JOB_TIMEOUT_MINUTES = 60;
+
+    private interface Change
+    {
+        void apply(SyntheticSpreadsheet spreadsheet);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        List<String> applicationArgs = new ArrayList<>();
+        for(String arg: args)
+        {
+            int separator = arg.indexOf('=');
+            if(!arg.startsWith("--") || separator < 0)
+            {
+                throw new IllegalArgumentException("expected --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            applicationArgs.add(arg);
+        }
+
+        int hospitals = Integer.parseInt(options.getOrDefault("hospitals", "2000"));
+        int patients = Integer.parseInt(options.getOrDefault("patients", "100000"));
+        double churnPercent = Double.parseDouble(options.getOrDefault("churn-percent", "1"));
+        double deletePercent = Double.parseDouble(options.getOrDefault("delete-percent", "15"));
+        long readSeconds = Long.parseLong(options.getOrDefault("read-seconds", "10"));
+        OccupancyReadLoad readLoad = (readSeconds > 0) ? new OccupancyReadLoad(Integer.parseInt(options.getOrDefault("read-threads", "16")), readSeconds, hospitals) : null;
+        SyntheticSpreadsheet spreadsheet = new SyntheticSpreadsheet(hospitals, patients, Long.parseLong(options.getOrDefault("seed", "1")));
+        FakeSheetsServer sheetsServer = new FakeSheetsServer(spreadsheet, Long.parseLong(options.getOrDefault("latency-ms", "200")),
+                Double.parseDouble(options.getOrDefault("throttle-percent", "0.5")), Integer.parseInt(options.getOrDefault("server-threads", "16")));
+
+        try (EmbeddedPostgres postgres = EmbeddedPostgres.builder().start())
+        {
+            sheetsServer.start();
+            applicationArgs.add("--spring.datasource.url=" + postgres.getJdbcUrl("postgres", "postgres"));
+            applicationArgs.add("--google.sheets.root-url=" + sheetsServer.getRootUrl());
+            applicationArgs.add("--sheets.rate-limit.requests-per-minute=" + options.getOrDefault("requests-per-minute", "6000"));
+
+            List<String> reports = new ArrayList<>();
+            reports.add(run("cold first sync", s -> { }, readLoad, spreadsheet, sheetsServer, applicationArgs));
+            reports.add(run(String.format("hourly run, %.1f%% churn", churnPercent), s -> s.churn(churnPercent), null, spreadsheet, sheetsServer, applicationArgs));
+            reports.add(run(String.format("mass delete of %.1f%% of patients", deletePercent), s -> s.deletePatients(deletePercent), null, spreadsheet, sheetsServer, applicationArgs));
+
+            System.out.println();
+            for(String report: reports)
+            {
+                System.out.println(report);
+            }
+        }
+        finally
+        {
+            sheetsServer.stop();
+        }
+    }
+
+    private static String run(String scenario, Change change, OccupancyReadLoad readLoad, SyntheticSpreadsheet spreadsheet, FakeSheetsServer sheetsServer, List<String> applicationArgs) throws Exception
+    {
+        change.apply(spreadsheet);
+
+        RoundTripCounter roundTrips = new RoundTripCounter();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                .initializers(applicationContext -> applicationContext.getBeanFactory().addBeanPostProcessor(roundTrips))
+                .run(applicationProperties(applicationArgs)))
+        {
+            JobScheduler jobScheduler = context.getBean(JobScheduler.class);
+            StorageProvider storageProvider = context.getBean(StorageProvider.class);
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+
+            System.gc();
+            sheetsServer.drainRequests();
+            sheetsServer.drainThrottled();
+            roundTrips.drainStatements();
+            roundTrips.drainTransactions();
+            HeapSampler heap = new HeapSampler();
+            heap.start();
+
+            long syncStart = System.nanoTime();
+            await(storageProvider, jobScheduler.<JobService>enqueue(jobService -> jobService.syncJob(JobContext.Null)));
+            awaitRun(context.getBean(JdbcTemplate.class), storageProvider);
+            long syncMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - syncStart);
+            long syncStatements = roundTrips.drainStatements();
+            long syncTransactions = roundTrips.drainTransactions();
+
+            long alertStart = System.nanoTime();
+            await(storageProvider, jobScheduler.<JobService>enqueue(jobService -> jobService.alertJob(JobContext.Null)));
+            long alertMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - alertStart);
+            heap.interrupt();
+
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("== %s: %d hospitals, %d patients in the sheet%n", scenario,
+                    spreadsheet.getRowCount(SyntheticSpreadsheet.HOSPITAL), spreadsheet.getRowCount(SyntheticSpreadsheet.PATIENT)));
+            double rowsRead = count(registry, "read");
+            report.append(String.format("sync-job %d ms, %.0f rows read/s; alert-job %d ms%n", syncMillis, rowsRead * 1000 / Math.max(1, syncMillis), alertMillis));
+            report.append("rows:");
+            for(String outcome: ROW_OUTCOMES)
+            {
+                report.append(String.format(" %s %.0f", outcome, count(registry, outcome)));
+            }
+            report.append(String.format("%nsheets: %d requests, %d answered 429%n", sheetsServer.drainRequests(), sheetsServer.drainThrottled()));
+            report.append(String.format("postgres round trips during sync-job: %d statements, %d commits/rollbacks%n", syncStatements, syncTransactions));
+            report.append(String.format("peak heap %d MB%n", heap.getPeakBytes() >> 20));
+            for(String tab: new String[] {SyntheticSpreadsheet.HOSPITAL, SyntheticSpreadsheet.PATIENT})
+            {
+                report.append(tab).append(" per window (p50/p99):");
+                for(String stage: STAGES)
+                {
+                    report.append(' ').append(stage).append(' ').append(percentiles(registry, tab, stage));
+                }
+                report.append(String.format("%n"));
+            }
+            if(readLoad != null)
+            {
+                String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+                report.append(readLoad.compare(context.getBean(OccupancySnapshotService.class), baseUrl, context.getEnvironment().getProperty("spring.datasource.url"), roundTrips::drainStatements));
+            }
+            return report.toString();
+        }
+    }
+
+    private static String[] applicationProperties(List<String> applicationArgs)
+    {
+        List<String> properties = new ArrayList<>();
+        properties.add("--spring.datasource.username=postgres");
+        properties.add("--spring.datasource.password=postgres");
+        properties.add("--spring.main.banner-mode=off");
+        properties.add("--logging.level.root=WARN");
+        properties.add("--PORT=0");
+        properties.add("--JOB_RUNNER_PORT=0");
+        properties.add("--org.jobrunr.dashboard.enabled=false");
+        properties.add("--org.jobrunr.background-job-server.poll-interval-in-seconds=5");
+        properties.add("--GOOGLE_SHEET_ID=load-test");
+        properties.add("--google.service.account.key.path=");
+        properties.add("--ALERT_EMAIL_TO=load-test@example.com");
+        properties.add("--ALERT_EMAIL_FROM=load-test@example.com");
+        properties.add("--MAIL_APP_PASSWORD=");
+        properties.add("--spring.mail.host=localhost");
+        properties.add("--alert.outbox.poll-interval-ms=86400000");
+        properties.add("--management.metrics.distribution.percentiles.sync.stage=0.5,0.99");
+        properties.add("--management.metrics.distribution.expiry.sync.stage=1d");
+        properties.add("--management.metrics.distribution.buffer-length.sync.stage=1");
+        // Later arguments win, so the command line overrides the defaults above.
+        properties.addAll(applicationArgs);
+        return properties.toArray(new String[0]);
+    }
+
+    // A retried job goes back to SCHEDULED, which is treated as a failure here.
+    private static void await(StorageProvider storageProvider, JobId jobId) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(JOB_TIMEOUT_MINUTES);
+        while(true)
+        {
+            Job job = storageProvider.getJobById(jobId);
+            StateName state = job.getState();
+            if(state == StateName.SUCCEEDED)
+            {
+                return;
+            }
+            if(state == StateName.FAILED || state == StateName.SCHEDULED || state == StateName.DELETED)
+            {
+                throw new IllegalStateException(job.getJobName() + " ended in state " + state + ", see the application log");
+            }
+            if(System.currentTimeMillis() > deadline)
+            {
+                throw new IllegalStateException(job.getJobName() + " did not finish within " + JOB_TIMEOUT_MINUTES + " minutes");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    // sync-job only starts the run; it ends with the Sync finalize job of its last tab.
+    private static void awaitRun(JdbcTemplate jdbcTemplate, StorageProvider storageProvider) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(JOB_TIMEOUT_MINUTES);
+        while(true)
+        {
+            Map<String, Object> run = jdbcTemplate.queryForMap("SELECT status, error FROM sync_runs ORDER BY started_at DESC LIMIT 1");
+            JobStats jobStats = storageProvider.getJobStats();
+            if("SUCCEEDED".equals(run.get("status")) && jobStats.getEnqueued() == 0 && jobStats.getProcessing() == 0)
+            {
+                return;
+            }
+            if(!"RUNNING".equals(run.get("status")) && !"SUCCEEDED".equals(run.get("status")))
+            {
+                throw new IllegalStateException("sync run ended " + run.get("status") + ": " + run.get("error") + ", see the application log");
+            }
+            if(System.currentTimeMillis() > deadline)
+            {
+                throw new IllegalStateException("sync run did not finish within " + JOB_TIMEOUT_MINUTES + " minutes");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private static double count(MeterRegistry registry, String outcome)
+    {
+        double count = 0;
+        for(Counter counter: registry.find("sync.rows").tag("outcome", outcome).counters())
+        {
+            count += counter.count();
+        }
+        return count;
+    }
+
+    private static String percentiles(MeterRegistry registry, String tab, String stage)
+    {
+        Timer timer = registry.find("sync.stage").tag("tab", tab).tag("stage", stage).timer();
+        if(timer == null || timer.count() == 0)
+        {
+            return "-";
+        }
+
+        StringBuilder percentiles = new StringBuilder();
+        for(ValueAtPercentile value: timer.takeSnapshot().percentileValues())
+        {
+            percentiles.append(percentiles.length() == 0 ? "" : "/").append(String.format("%.1f", value.value(TimeUnit.MILLISECONDS)));
+        }
+        return percentiles.append(" ms").toString();
+    }
+
+    // Samples the used heap every few milliseconds; the pools' own peaks are per pool and would overstate it.
+    private static class HeapSampler extends Thread
+    {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final AtomicLong peakBytes = new AtomicLong();
+
+        private HeapSampler()
+        {
+            super("heap-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            while(!isInterrupted())
+            {
+                peakBytes.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try
+                {
+                    Thread.sleep(5);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+            }
+        }
+
+        private long getPeakBytes()
+        {
+            return peakBytes.get();
+        }
+    }
+}
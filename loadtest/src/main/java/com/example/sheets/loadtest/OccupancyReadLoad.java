@@ -0,0 +1,201 @@
+package com.example.sheets.loadtest;
+
+import com.example.sheets.dtos.OccupancySnapshot;
+import com.example.sheets.dtos.SyncTarget;
+import com.example.sheets.services.OccupancySnapshotService;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Compares the occupancy API, served from the in-memory snapshot, with what dashboards did before it: their own
+// GROUP BY over patients straight against Postgres. Both sides get the same mix of reads (a page of hospitals after
+// a random id, the first page of hospitals over the threshold, the bed-type totals) from the same number of threads
+// for the same time, after a warm-up, and report reads per second and p50/p99 latency. The same reads straight from
+// OccupancySnapshotService show how much of the API's time is HTTP and JSON. The direct queries hold one connection
+// per thread of their own, like a dashboard would; the API side counts the statements the application sent to
+// Postgres meanwhile (JobRunr's polling included).
+public class OccupancyReadLoad
+{
+    private static final int PAGE_SIZE = 100;
+    private static final long WARM_UP_MILLIS = 5000;
+    private static final String HOSPITAL_OCCUPANCY = "SELECT h.id, h.name, h.location, h.general_bed_count, h.icu_bed_count, " +
+            "COUNT(p.id) FILTER (WHERE p.bed_type = 'General') AS general_occupied, COUNT(p.id) FILTER (WHERE p.bed_type = 'ICU') AS icu_occupied " +
+            "FROM hospitals h LEFT JOIN patients p ON p.hospital_id = h.id ";
+    private static final String HOSPITALS_PAGE = HOSPITAL_OCCUPANCY + "WHERE h.id > ? GROUP BY h.id ORDER BY h.id LIMIT " + PAGE_SIZE;
+    private static final String OVER_THRESHOLD_PAGE = HOSPITAL_OCCUPANCY + "GROUP BY h.id " +
+            "HAVING COUNT(p.id) FILTER (WHERE p.bed_type = 'General') > 0.9 * h.general_bed_count OR COUNT(p.id) FILTER (WHERE p.bed_type = 'ICU') > 0.9 * h.icu_bed_count " +
+            "ORDER BY h.id LIMIT " + PAGE_SIZE;
+    private static final String BED_TYPES = "SELECT (SELECT SUM(general_bed_count) FROM hospitals) AS general_beds, (SELECT SUM(icu_bed_count) FROM hospitals) AS icu_beds, " +
+            "COUNT(*) FILTER (WHERE bed_type = 'General') AS general_occupied, COUNT(*) FILTER (WHERE bed_type = 'ICU') AS icu_occupied FROM patients";
+
+    private interface Read
+    {
+        void run(int thread, int kind, String after) throws Exception;
+    }
+
+    private final int threads;
+    private final long millis;
+    private final int hospitals;
+
+    public OccupancyReadLoad(int threads, long seconds, int hospitals)
+    {
+        this.threads = threads;
+        this.millis = TimeUnit.SECONDS.toMillis(seconds);
+        this.hospitals = hospitals;
+    }
+
+    public String compare(OccupancySnapshotService snapshotService, String baseUrl, String jdbcUrl, LongSupplier statements) throws Exception
+    {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("occupancy reads, %d threads for %d s each:%n", threads, TimeUnit.MILLISECONDS.toSeconds(millis)));
+
+        Read snapshot = (thread, kind, after) -> {
+            OccupancySnapshot current = snapshotService.current(SyncTarget.DEFAULT_TENANT);
+            Object result = (kind == 0) ? current.page(after, PAGE_SIZE) : (kind == 1) ? current.overThresholdPage(null, PAGE_SIZE) : current.getBedTypes();
+            if(result == null)
+            {
+                throw new IllegalStateException("no occupancy snapshot");
+            }
+        };
+        measure(snapshot, WARM_UP_MILLIS);
+        report.append(String.format("  snapshot in process: %s%n", summary(measure(snapshot, millis))));
+
+        // Each response is read to the end, so that the connection goes back to the keep-alive cache for the next read.
+        String[] paths = {"/occupancy/hospitals?limit=" + PAGE_SIZE + "&after=", "/occupancy/hospitals/over-threshold?limit=" + PAGE_SIZE, "/occupancy/bed-types"};
+        Read api = (thread, kind, after) -> {
+            URL url = new URL(baseUrl + paths[kind] + ((kind == 0) ? after : ""));
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            if(connection.getResponseCode() != 200)
+            {
+                throw new IllegalStateException(url + " answered " + connection.getResponseCode());
+            }
+            byte[] buffer = new byte[8192];
+            try (InputStream body = connection.getInputStream())
+            {
+                while(body.read(buffer) != -1)
+                {
+                }
+            }
+        };
+        measure(api, WARM_UP_MILLIS);
+        statements.getAsLong();
+        long[] apiLatencies = measure(api, millis);
+        report.append(String.format("  snapshot API over HTTP: %s, %d postgres statements%n", summary(apiLatencies), statements.getAsLong()));
+
+        Connection[] connections = new Connection[threads];
+        try
+        {
+            PreparedStatement[][] queries = new PreparedStatement[threads][];
+            for(int thread = 0; thread < threads; thread++)
+            {
+                connections[thread] = DriverManager.getConnection(jdbcUrl);
+                queries[thread] = new PreparedStatement[] {connections[thread].prepareStatement(HOSPITALS_PAGE),
+                        connections[thread].prepareStatement(OVER_THRESHOLD_PAGE), connections[thread].prepareStatement(BED_TYPES)};
+            }
+            Read direct = (thread, kind, after) -> {
+                PreparedStatement query = queries[thread][kind];
+                if(kind == 0)
+                {
+                    query.setString(1, after);
+                }
+                try (ResultSet rs = query.executeQuery())
+                {
+                    int columns = rs.getMetaData().getColumnCount();
+                    while(rs.next())
+                    {
+                        for(int column = 1; column <= columns; column++)
+                        {
+                            rs.getObject(column);
+                        }
+                    }
+                }
+            };
+            measure(direct, WARM_UP_MILLIS);
+            long[] directLatencies = measure(direct, millis);
+            report.append(String.format("  direct GROUP BY in postgres: %s%n", summary(directLatencies)));
+            report.append(String.format("  the snapshot API served %.0fx the reads%n", (double) apiLatencies.length / Math.max(1, directLatencies.length)));
+        }
+        finally
+        {
+            for(Connection connection: connections)
+            {
+                if(connection != null)
+                {
+                    connection.close();
+                }
+            }
+        }
+        return report.toString();
+    }
+
+    // Returns the latency of every read, in nanoseconds, sorted.
+    private long[] measure(Read read, long durationMillis) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+            List<Future<long[]>> workers = new ArrayList<>();
+            for(int thread = 0; thread < threads; thread++)
+            {
+                int worker = thread;
+                workers.add(executor.submit(() -> {
+                    Random random = new Random(worker);
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    for(long start = System.nanoTime(); start < deadline; )
+                    {
+                        read.run(worker, count % 3, String.format("H%05d", random.nextInt(hospitals)));
+                        long end = System.nanoTime();
+                        if(count == latencies.length)
+                        {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = end - start;
+                        start = end;
+                    }
+                    return Arrays.copyOf(latencies, count);
+                }));
+            }
+
+            long[] all = new long[0];
+            for(Future<long[]> worker: workers)
+            {
+                long[] latencies = worker.get();
+                int from = all.length;
+                all = Arrays.copyOf(all, from + latencies.length);
+                System.arraycopy(latencies, 0, all, from, latencies.length);
+            }
+            Arrays.sort(all);
+            return all;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private String summary(long[] latencies)
+    {
+        if(latencies.length == 0)
+        {
+            return "no reads";
+        }
+        return String.format("%.0f reads/s, p50/p99 %.3f/%.3f ms", latencies.length * 1000.0 / millis,
+                latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6);
+    }
+}
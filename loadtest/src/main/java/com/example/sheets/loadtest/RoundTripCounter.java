@@ -0,0 +1,90 @@
+package com.example.sheets.loadtest;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Wraps the application's DataSource to count the round trips it makes to Postgres: statement executions
+// (a JDBC batch counts once) and commits/rollbacks. COPY streams go through the unwrapped driver connection and
+// are not counted, and neither are the BEGINs the driver sends along with the first statement of a transaction.
+// JobRunr's own polling uses the same DataSource and is included.
+public class RoundTripCounter implements BeanPostProcessor
+{
+    private final AtomicLong statements = new AtomicLong();
+    private final AtomicLong transactions = new AtomicLong();
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName)
+    {
+        return (bean instanceof DataSource) ? proxy(DataSource.class, bean) : bean;
+    }
+
+    public long drainStatements()
+    {
+        return statements.getAndSet(0);
+    }
+
+    public long drainTransactions()
+    {
+        return transactions.getAndSet(0);
+    }
+
+    private Object proxy(Class<?> type, Object target)
+    {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            String name = method.getName();
+            if(name.equals("equals"))
+            {
+                return proxy == args[0];
+            }
+            if(name.equals("hashCode"))
+            {
+                return System.identityHashCode(proxy);
+            }
+            if(name.startsWith("execute") && target instanceof Statement)
+            {
+                statements.incrementAndGet();
+            }
+            else if((name.equals("commit") || name.equals("rollback")) && target instanceof Connection)
+            {
+                transactions.incrementAndGet();
+            }
+
+            Object result;
+            try
+            {
+                result = method.invoke(target, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+
+            if(result instanceof Connection && target instanceof DataSource)
+            {
+                return proxy(Connection.class, result);
+            }
+            if(result instanceof Statement && target instanceof Connection)
+            {
+                return proxy(statementType((Statement) result), result);
+            }
+            return result;
+        });
+    }
+
+    private static Class<?> statementType(Statement statement)
+    {
+        if(statement instanceof CallableStatement)
+        {
+            return CallableStatement.class;
+        }
+        return (statement instanceof PreparedStatement) ? PreparedStatement.class : Statement.class;
+    }
+}
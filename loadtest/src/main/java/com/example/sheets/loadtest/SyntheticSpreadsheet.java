@@ -0,0 +1,213 @@
+package com.example.sheets.loadtest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// The Hospital and Patient tabs served by FakeSheetsServer, laid out like the real ones: a header in row 1 and one
+// record per row from row 2. A row is generated from its id and revision, so a tab costs two int arrays whatever
+// its size. Churn bumps the revision of random rows and deletes drop random rows; both replace the arrays, so
+// requests in flight keep reading the tab as it was.
+public class SyntheticSpreadsheet
+{
+    public static final String HOSPITAL = "Hospital";
+    public static final String PATIENT = "Patient";
+
+    private static final Pattern RANGE = Pattern.compile("([^!]+)!([A-Z])(\\d*):([A-Z])(\\d*)");
+    private static final String[] HOSPITAL_HEADER = {"id", "name", "location", "general_bed_count", "icu_bed_count"};
+    private static final String[] PATIENT_HEADER = {"id", "name", "date_of_birth", "disease", "bed_type", "hospital"};
+    private static final String[] DISEASES = {"Influenza", "Pneumonia", "Dengue", "Malaria", "Covid-19", "Typhoid", "Fracture", "Appendicitis"};
+    private static final String[] LOCATIONS = {"Bengaluru", "Mumbai", "Chennai", "Delhi", "Hyderabad", "Pune", "Kolkata"};
+
+    private static class Tab
+    {
+        private final int[] ids;
+        private final int[] revisions;
+
+        private Tab(int[] ids, int[] revisions)
+        {
+            this.ids = ids;
+            this.revisions = revisions;
+        }
+    }
+
+    private final int hospitals;
+    private final Random random;
+    private volatile Tab hospitalTab;
+    private volatile Tab patientTab;
+
+    public SyntheticSpreadsheet(int hospitals, int patients, long seed)
+    {
+        this.hospitals = hospitals;
+        this.random = new Random(seed);
+        this.hospitalTab = new Tab(sequence(hospitals), new int[hospitals]);
+        this.patientTab = new Tab(sequence(patients), new int[patients]);
+    }
+
+    public int getRowCount(String tabName)
+    {
+        return tab(tabName).ids.length;
+    }
+
+    // Changes the given share of the rows of both tabs. Hospital names are never changed, since patients refer to
+    // hospitals by name.
+    public synchronized void churn(double percent)
+    {
+        hospitalTab = churn(hospitalTab, percent);
+        patientTab = churn(patientTab, percent);
+    }
+
+    // Removes the given share of patients, scattered over the whole tab.
+    public synchronized void deletePatients(double percent)
+    {
+        Tab tab = patientTab;
+        int[] ids = new int[tab.ids.length];
+        int[] revisions = new int[tab.ids.length];
+        int count = 0;
+        for(int row = 0; row < tab.ids.length; row++)
+        {
+            if(random.nextDouble() * 100 >= percent)
+            {
+                ids[count] = tab.ids[row];
+                revisions[count] = tab.revisions[row];
+                count++;
+            }
+        }
+        patientTab = new Tab(Arrays.copyOf(ids, count), Arrays.copyOf(revisions, count));
+    }
+
+    // Writes the cells of an A1 range such as "Patient!A2:F1001" or "Patient!A:A" as a ValueRange with only its
+    // values, leaving out rows past the end of the tab like the API does.
+    public void writeValueRange(Writer out, String range) throws IOException
+    {
+        Matcher matcher = parse(range);
+        String tabName = matcher.group(1);
+        Tab tab = tab(tabName);
+        int firstColumn = matcher.group(2).charAt(0) - 'A';
+        int lastColumn = matcher.group(4).charAt(0) - 'A';
+        int firstRow = matcher.group(3).isEmpty() ? 1 : Integer.parseInt(matcher.group(3));
+        int lastRow = Math.min(matcher.group(5).isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(matcher.group(5)), tab.ids.length + 1);
+
+        out.write('{');
+        if(firstRow <= lastRow)
+        {
+            out.write("\"values\":[");
+            Object[] cells = new Object[header(tabName).length];
+            for(int row = firstRow; row <= lastRow; row++)
+            {
+                if(row == 1)
+                {
+                    System.arraycopy(header(tabName), 0, cells, 0, cells.length);
+                }
+                else if(HOSPITAL.equals(tabName))
+                {
+                    hospital(tab.ids[row - 2], tab.revisions[row - 2], cells);
+                }
+                else
+                {
+                    patient(tab.ids[row - 2], tab.revisions[row - 2], cells);
+                }
+
+                out.write(row == firstRow ? "[" : ",[");
+                for(int column = firstColumn; column <= Math.min(lastColumn, cells.length - 1); column++)
+                {
+                    out.write(column == firstColumn ? "" : ",");
+                    if(cells[column] instanceof Integer)
+                    {
+                        out.write(cells[column].toString());
+                    }
+                    else
+                    {
+                        out.write('"');
+                        out.write((String) cells[column]);
+                        out.write('"');
+                    }
+                }
+                out.write(']');
+            }
+            out.write(']');
+        }
+        out.write('}');
+    }
+
+    // Throws IllegalArgumentException for a range writeValueRange cannot serve.
+    public void checkRange(String range)
+    {
+        tab(parse(range).group(1));
+    }
+
+    private static Matcher parse(String range)
+    {
+        Matcher matcher = RANGE.matcher(range);
+        if(!matcher.matches())
+        {
+            throw new IllegalArgumentException("unsupported range " + range);
+        }
+        return matcher;
+    }
+
+    private void hospital(int id, int revision, Object[] cells)
+    {
+        Random row = new Random(id * 31L + revision);
+        cells[0] = String.format("H%05d", id);
+        cells[1] = "Hospital " + id;
+        cells[2] = LOCATIONS[row.nextInt(LOCATIONS.length)];
+        cells[3] = 50 + row.nextInt(450);
+        cells[4] = 5 + row.nextInt(45);
+    }
+
+    private void patient(int id, int revision, Object[] cells)
+    {
+        Random row = new Random(id * 31L + revision);
+        cells[0] = String.format("P%07d", id);
+        cells[1] = (revision == 0) ? "Patient " + id : "Patient " + id + " (rev " + revision + ")";
+        cells[2] = String.format("19%02d-%02d-%02d", row.nextInt(100), 1 + row.nextInt(12), 1 + row.nextInt(28));
+        cells[3] = DISEASES[row.nextInt(DISEASES.length)];
+        cells[4] = (row.nextInt(5) == 0) ? "ICU" : "General";
+        cells[5] = "Hospital " + row.nextInt(hospitals);
+    }
+
+    private Tab churn(Tab tab, double percent)
+    {
+        int[] revisions = tab.revisions.clone();
+        for(int row = 0; row < revisions.length; row++)
+        {
+            if(random.nextDouble() * 100 < percent)
+            {
+                revisions[row]++;
+            }
+        }
+        return new Tab(tab.ids, revisions);
+    }
+
+    private Tab tab(String tabName)
+    {
+        if(HOSPITAL.equals(tabName))
+        {
+            return hospitalTab;
+        }
+        if(PATIENT.equals(tabName))
+        {
+            return patientTab;
+        }
+        throw new IllegalArgumentException("unknown tab " + tabName);
+    }
+
+    private static String[] header(String tabName)
+    {
+        return HOSPITAL.equals(tabName) ? HOSPITAL_HEADER : PATIENT_HEADER;
+    }
+
+    private static int[] sequence(int count)
+    {
+        int[] ids = new int[count];
+        for(int i = 0; i < count; i++)
+        {
+            ids[i] = i;
+        }
+        return ids;
+    }
+}
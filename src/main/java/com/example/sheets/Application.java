@@ -2,13 +2,21 @@ package com.example.sheets;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
 @SpringBootApplication
+@EnableScheduling
 public class Application
 {
 	public static void main(String[] args)
 	{
-		SpringApplication.run(Application.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(Application.class, args);
+		// cds.sh starts the application once to record the classes it loads, and stops it once it is up.
+		if(context.getEnvironment().getProperty("startup.training-run", Boolean.class, false))
+		{
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 }
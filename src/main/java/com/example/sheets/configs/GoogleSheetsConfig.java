@@ -1,49 +1,93 @@
 package com.example.sheets.configs;
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.googleapis.GoogleUtils;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
 import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.SslUtils;
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.SheetsScopes;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.core.io.Resource;
 
-import java.io.FileInputStream;
+import javax.net.ssl.SSLContext;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.security.GeneralSecurityException;
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class GoogleSheetsConfig {
 
     private static final String APPLICATION_NAME = "YourAppName";
     private static final JacksonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
-    private static com.google.api.client.http.HttpTransport HTTP_TRANSPORT;
 
     @Value("${google.service.account.key.path}")
     private String serviceAccountKeyPath;
 
-    static {
-        try {
-            HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
-        } catch (GeneralSecurityException | IOException e) {
-            e.printStackTrace();
-            System.exit(1);
-        }
+    @Value("${google.sheets.root-url}")
+    private String rootUrl;
+
+    @Value("${sheets.http.max-connections}")
+    private int maxConnections;
+
+    @Value("${sheets.http.keep-alive-ms}")
+    private long keepAliveMillis;
+
+    @Value("${sheets.http.connect-timeout-ms}")
+    private int connectTimeoutMillis;
+
+    @Value("${sheets.http.read-timeout-ms}")
+    private int readTimeoutMillis;
+
+    // Pooled Apache client trusting the same certificates as GoogleNetHttpTransport.newTrustedTransport(), so the
+    // fetch threads reuse kept-alive TLS connections instead of handshaking per request. Idle connections are
+    // dropped before the server is likely to close them. Like the Sheets client, it is only built on the first request,
+    // which keeps loading the trust store and the key off the startup path of instances.
+    @Lazy
+    @Bean(destroyMethod = "shutdown")
+    public HttpTransport sheetsHttpTransport() throws GeneralSecurityException, IOException {
+        SSLContext sslContext = SslUtils.initSslContext(SslUtils.getTlsSslContext(), GoogleUtils.getCertificateTrustStore(), SslUtils.getPkixTrustManagerFactory());
+        return new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClientBuilder()
+                .setSSLSocketFactory(new SSLConnectionSocketFactory(sslContext))
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setKeepAliveStrategy((response, context) -> keepAliveMillis)
+                .evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS)
+                .build());
     }
 
+    // Without a service account key, requests are sent unauthenticated, which only a stand-in for the Sheets API
+    // (see google.sheets.root-url) accepts.
+    @Lazy
     @Bean
-    public Sheets sheetsService() throws IOException {
-        InputStream inputStream = new ClassPathResource(serviceAccountKeyPath).getInputStream();
-        Credential credential = GoogleCredential.fromStream(inputStream)
-                .createScoped(Collections.singletonList(SheetsScopes.SPREADSHEETS));
-        return new Sheets.Builder(HTTP_TRANSPORT, JSON_FACTORY, credential)
+    public Sheets sheetsService(HttpTransport sheetsHttpTransport) throws IOException {
+        Credential credential = serviceAccountKeyPath.isEmpty() ? null : serviceAccountCredential(sheetsHttpTransport);
+        HttpRequestInitializer initializer = request -> {
+            if(credential != null)
+            {
+                credential.initialize(request);
+            }
+            request.setConnectTimeout(connectTimeoutMillis);
+            request.setReadTimeout(readTimeoutMillis);
+            request.getHeaders().setAcceptEncoding("gzip");
+        };
+        return new Sheets.Builder(sheetsHttpTransport, JSON_FACTORY, initializer)
                 .setApplicationName(APPLICATION_NAME)
+                .setRootUrl(rootUrl)
                 .build();
     }
-}
\ No newline at end of file
+
+    private Credential serviceAccountCredential(HttpTransport sheetsHttpTransport) throws IOException {
+        InputStream inputStream = new ClassPathResource(serviceAccountKeyPath).getInputStream();
+        return GoogleCredential.fromStream(inputStream, sheetsHttpTransport, JSON_FACTORY)
+                .createScoped(Collections.singletonList(SheetsScopes.SPREADSHEETS));
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.sheets.configs;
+
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.stereotype.Component;
+
+// Makes the auto-configured JavaMailSender lazy, so that it is created when the first alert is sent rather than at
+// startup. EmailService injects it with @Lazy; the mail health indicator, which would create it, is disabled.
+@Component
+public class LazyMailSenderPostProcessor implements BeanFactoryPostProcessor {
+
+    private static final String MAIL_SENDER = "mailSender";
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory)
+    {
+        if(beanFactory.containsBeanDefinition(MAIL_SENDER))
+        {
+            beanFactory.getBeanDefinition(MAIL_SENDER).setLazyInit(true);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.sheets.configs;
+
+import com.example.sheets.utils.SyncTargetDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+// Wraps the application DataSource so that JDBC, JPA and JobRunr all see the current sync target's schema.
+@Component
+public class SyncTargetDataSourcePostProcessor implements BeanPostProcessor {
+
+    public static final String DEFAULT_SCHEMA = "public";
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName)
+    {
+        if(bean instanceof DataSource && !(bean instanceof SyncTargetDataSource))
+        {
+            return new SyncTargetDataSource((DataSource) bean, DEFAULT_SCHEMA);
+        }
+        return bean;
+    }
+}
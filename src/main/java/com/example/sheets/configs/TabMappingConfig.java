@@ -0,0 +1,53 @@
+package com.example.sheets.configs;
+
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.mappings.TabMapping;
+import com.example.sheets.models.db.Hospital;
+import com.example.sheets.models.db.Patient;
+import com.example.sheets.repositories.HospitalRepository;
+import com.example.sheets.repositories.PatientRepository;
+import com.example.sheets.services.OccupancyService;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+
+// One bean per synced tab, in sync order; a tab may only look up tabs declared before it.
+@Configuration
+public class TabMappingConfig {
+
+    @Bean
+    @Order(1)
+    public CompiledTabMapping<Hospital> hospitalMapping(HospitalRepository hospitalRepository)
+    {
+        return TabMapping.of("Hospital", "hospitals", Hospital::new, hospitalRepository)
+                .key("id", Hospital::getId, Hospital::setId)
+                .text("name", Hospital::getName, Hospital::setName)
+                .text("location", Hospital::getLocation, Hospital::setLocation)
+                .integer("general_bed_count", Hospital::getGeneralBedCount, Hospital::setGeneralBedCount)
+                .integer("icu_bed_count", Hospital::getIcuBedCount, Hospital::setIcuBedCount)
+                .rowHash(Hospital::getRowHash, Hospital::setRowHash)
+                .probe("general_bed_count", "icu_bed_count")
+                .indexedBy("name")
+                .onUpserted(OccupancyService.MARK_UPSERTED_HOSPITALS_DIRTY)
+                .compile();
+    }
+
+    @Bean
+    @Order(2)
+    public CompiledTabMapping<Patient> patientMapping(PatientRepository patientRepository, OccupancyService occupancyService)
+    {
+        return TabMapping.of("Patient", "patients", Patient::new, patientRepository)
+                .key("id", Patient::getId, Patient::setId)
+                .text("name", Patient::getName, Patient::setName)
+                .date("date_of_birth", Patient::getDateOfBirth, Patient::setDateOfBirth)
+                .text("disease", Patient::getDisease, Patient::setDisease)
+                .text("bed_type", Patient::getBedType, Patient::setBedType)
+                .lookup("hospital_id", "Hospital", Patient::getHospitalId, Patient::setHospitalId)
+                .rowHash(Patient::getRowHash, Patient::setRowHash)
+                .probe("bed_type", "hospital_id")
+                .beforeUpsert(occupancyService::applyStagedPatientDeltas)
+                .beforeDelete(occupancyService::lockForDeltas)
+                .onDeleted(OccupancyService.SUBTRACT_DELETED_PATIENTS)
+                .compile();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.sheets.controllers;
+
+import com.example.sheets.dtos.BedTypeOccupancy;
+import com.example.sheets.dtos.OccupancyPage;
+import com.example.sheets.dtos.OccupancyRow;
+import com.example.sheets.dtos.OccupancySnapshot;
+import com.example.sheets.dtos.SyncTarget;
+import com.example.sheets.services.OccupancySnapshotService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.List;
+
+// Read-only occupancy API served from the in-memory snapshot. Every response carries the snapshot's ETag, and a
+// request whose If-None-Match still matches gets 304 without a body. Lists are paged by id: pass the previous
+// page's next as ?after=. ?tenant= selects a sync target other than the default one.
+@RestController
+@RequestMapping("/occupancy")
+public class OccupancyController {
+
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    @Autowired
+    private OccupancySnapshotService occupancySnapshotService;
+
+    @GetMapping("/hospitals")
+    public ResponseEntity<OccupancyPage> hospitals(@RequestParam(defaultValue = SyncTarget.DEFAULT_TENANT) String tenant, @RequestParam(required = false) String after,
+                                                   @RequestParam(defaultValue = "100") int limit, WebRequest request) throws Exception
+    {
+        OccupancySnapshot snapshot = snapshot(tenant);
+        if(snapshot == null)
+        {
+            return ResponseEntity.notFound().build();
+        }
+        return request.checkNotModified(snapshot.getEtag()) ? null : ResponseEntity.ok(snapshot.page(after, clampLimit(limit)));
+    }
+
+    @GetMapping("/hospitals/over-threshold")
+    public ResponseEntity<OccupancyPage> overThreshold(@RequestParam(defaultValue = SyncTarget.DEFAULT_TENANT) String tenant, @RequestParam(required = false) String after,
+                                                       @RequestParam(defaultValue = "100") int limit, WebRequest request) throws Exception
+    {
+        OccupancySnapshot snapshot = snapshot(tenant);
+        if(snapshot == null)
+        {
+            return ResponseEntity.notFound().build();
+        }
+        return request.checkNotModified(snapshot.getEtag()) ? null : ResponseEntity.ok(snapshot.overThresholdPage(after, clampLimit(limit)));
+    }
+
+    @GetMapping("/hospitals/{id}")
+    public ResponseEntity<OccupancyRow> hospital(@RequestParam(defaultValue = SyncTarget.DEFAULT_TENANT) String tenant, @PathVariable String id, WebRequest request) throws Exception
+    {
+        OccupancySnapshot snapshot = snapshot(tenant);
+        if(snapshot == null)
+        {
+            return ResponseEntity.notFound().build();
+        }
+        if(request.checkNotModified(snapshot.getEtag()))
+        {
+            return null;
+        }
+        OccupancyRow hospital = snapshot.get(id);
+        return (hospital == null) ? ResponseEntity.notFound().build() : ResponseEntity.ok(hospital);
+    }
+
+    @GetMapping("/bed-types")
+    public ResponseEntity<List<BedTypeOccupancy>> bedTypes(@RequestParam(defaultValue = SyncTarget.DEFAULT_TENANT) String tenant, WebRequest request) throws Exception
+    {
+        OccupancySnapshot snapshot = snapshot(tenant);
+        if(snapshot == null)
+        {
+            return ResponseEntity.notFound().build();
+        }
+        return request.checkNotModified(snapshot.getEtag()) ? null : ResponseEntity.ok(snapshot.getBedTypes());
+    }
+
+    private OccupancySnapshot snapshot(String tenant) throws Exception
+    {
+        try
+        {
+            return occupancySnapshotService.current(tenant);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    private static int clampLimit(int limit)
+    {
+        return Math.max(1, Math.min(MAX_PAGE_SIZE, limit));
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.sheets.controllers;
+
+import com.example.sheets.dtos.OccupancyStreak;
+import com.example.sheets.dtos.SyncTarget;
+import com.example.sheets.services.OccupancyHistoryService;
+import com.example.sheets.services.SyncTargetService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// Occupancy trends read from the daily rollups of the occupancy history (see OccupancyHistoryService). Days are
+// complete days only, so today is not included until the day is rolled up.
+@RestController
+@RequestMapping("/occupancy/trends")
+public class OccupancyTrendController {
+
+    private static final int DEFAULT_PERIOD_DAYS = 365;
+
+    @Autowired
+    private OccupancyHistoryService occupancyHistoryService;
+
+    @Autowired
+    private SyncTargetService syncTargetService;
+
+    // Runs of at least ?days= consecutive days on which a hospital was over the threshold at some point, between
+    // ?from= and ?to= (ISO dates, the last year by default).
+    @GetMapping("/over-threshold")
+    public ResponseEntity<List<OccupancyStreak>> overThreshold(@RequestParam(defaultValue = SyncTarget.DEFAULT_TENANT) String tenant, @RequestParam(defaultValue = "3") int days,
+                                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) throws Exception
+    {
+        if(!syncTargetService.exists(tenant))
+        {
+            return ResponseEntity.notFound().build();
+        }
+        LocalDate until = (to == null) ? LocalDate.now() : to;
+        LocalDate since = (from == null) ? until.minusDays(DEFAULT_PERIOD_DAYS) : from;
+        return ResponseEntity.ok(syncTargetService.runAs(tenant, () -> occupancyHistoryService.getStreaks(Math.max(1, days), since, until)));
+    }
+}
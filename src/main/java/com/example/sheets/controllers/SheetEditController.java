@@ -0,0 +1,80 @@
+package com.example.sheets.controllers;
+
+import com.example.sheets.dtos.SheetEdit;
+import com.example.sheets.services.SheetEditService;
+import com.example.sheets.services.SyncTargetService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+// Receives row-level edit notifications (e.g. from an installable Apps Script edit trigger). Edits are only
+// queued here; SheetEditService applies them in micro-batches.
+@RestController
+@RequestMapping("/sync")
+public class SheetEditController {
+
+    // A spreadsheet holds at most 10 million cells, so no tab has more rows than that.
+    private static final int MAX_SHEET_ROW = 10_000_000;
+
+    @Autowired
+    private SheetEditService sheetEditService;
+
+    @Autowired
+    private SyncTargetService syncTargetService;
+
+    @Value("${sync.push.token}")
+    private String pushToken;
+
+    @PostMapping("/edits")
+    public ResponseEntity<String> edits(@RequestHeader(value = "X-Sync-Token", required = false) String token, @RequestBody List<SheetEdit> edits)
+    {
+        if(pushToken.isEmpty())
+        {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        if(token == null || !MessageDigest.isEqual(pushToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8)))
+        {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        for(SheetEdit edit: edits)
+        {
+            if(edit.getTenant() == null || !syncTargetService.exists(edit.getTenant()))
+            {
+                return ResponseEntity.badRequest().body("unknown sync target '" + edit.getTenant() + "'");
+            }
+            if(!sheetEditService.isSynced(edit.getSheet()))
+            {
+                return ResponseEntity.badRequest().body("unknown sheet '" + edit.getSheet() + "'");
+            }
+            if(edit.getStartRow() < 1 || edit.getLastRow() < edit.getStartRow() || edit.getLastRow() > MAX_SHEET_ROW)
+            {
+                return ResponseEntity.badRequest().body("invalid rows " + edit.getStartRow() + "-" + edit.getLastRow());
+            }
+        }
+
+        int dropped = 0;
+        for(SheetEdit edit: edits)
+        {
+            if(!sheetEditService.record(edit))
+            {
+                dropped++;
+            }
+        }
+        if(dropped > 0)
+        {
+            return ResponseEntity.accepted().body(dropped + " of " + edits.size() + " edits left to the hourly sync");
+        }
+        return ResponseEntity.accepted().build();
+    }
+}
@@ -1,6 +0,0 @@
-package com.example.sheets.dtos;
-
-public interface BedTypeCount {
-    String getBedType();
-    Long getCount();
-}
@@ -0,0 +1,12 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+@Data
+public class BedTypeOccupancy
+{
+    private final String bedType;
+    private final long bedCount;
+    private final long occupied;
+    private final int hospitalsOverThreshold;
+}
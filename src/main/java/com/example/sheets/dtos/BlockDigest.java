@@ -0,0 +1,14 @@
+package com.example.sheets.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class BlockDigest
+{
+    private int blockIndex;
+    private int rowCount;
+    private long signalDigest;
+    private long contentDigest;
+}
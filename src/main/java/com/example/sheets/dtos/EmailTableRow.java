@@ -0,0 +1,16 @@
+package com.example.sheets.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class EmailTableRow
+{
+    private String id;
+    private String name;
+    private int generalBedCount;
+    private long generalBedOccupiedCount;
+    private int icuBedCount;
+    private long icuBedOccupiedCount;
+}
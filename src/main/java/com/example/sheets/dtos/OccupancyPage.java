@@ -0,0 +1,13 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+import java.util.List;
+
+// One page of hospitals ordered by id; pass next as ?after= to get the following page (null on the last page).
+@Data
+public class OccupancyPage
+{
+    private final List<OccupancyRow> items;
+    private final String next;
+}
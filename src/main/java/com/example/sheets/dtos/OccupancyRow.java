@@ -0,0 +1,16 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+@Data
+public class OccupancyRow
+{
+    private final String id;
+    private final String name;
+    private final String location;
+    private final int generalBedCount;
+    private final int generalOccupied;
+    private final int icuBedCount;
+    private final int icuOccupied;
+    private final boolean overThreshold;
+}
@@ -0,0 +1,49 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Immutable view of every hospital's occupancy, sorted by id, as of the occupancy_version it was built at. The ETag is
+// derived from the content, so it only changes when the data does and is the same on every instance.
+@Data
+public class OccupancySnapshot
+{
+    private final String etag;
+    private final long version;
+    private final long builtAt;
+    private final String[] ids;
+    private final List<OccupancyRow> hospitals;
+    private final String[] overThresholdIds;
+    private final List<OccupancyRow> overThreshold;
+    private final List<BedTypeOccupancy> bedTypes;
+
+    public OccupancyRow get(String id)
+    {
+        int index = Arrays.binarySearch(ids, id);
+        return (index < 0) ? null : hospitals.get(index);
+    }
+
+    public OccupancyPage page(String after, int limit)
+    {
+        return page(ids, hospitals, after, limit);
+    }
+
+    public OccupancyPage overThresholdPage(String after, int limit)
+    {
+        return page(overThresholdIds, overThreshold, after, limit);
+    }
+
+    private static OccupancyPage page(String[] ids, List<OccupancyRow> rows, String after, int limit)
+    {
+        int from = 0;
+        if(after != null)
+        {
+            int index = Arrays.binarySearch(ids, after);
+            from = (index >= 0) ? index + 1 : -index - 1;
+        }
+        int to = Math.min(rows.size(), from + limit);
+        return new OccupancyPage(rows.subList(from, to), (to < rows.size()) ? ids[to - 1] : null);
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+@Data
+public class OccupancyStreak
+{
+    private final String hospitalId;
+    private final String name;
+    private final LocalDate firstDay;
+    private final LocalDate lastDay;
+    private final int days;
+}
@@ -0,0 +1,13 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+@Data
+public class OutboxAlert
+{
+    private final long id;
+    private final String recipients;
+    private final String subject;
+    private final String body;
+    private final int attempts;
+}
@@ -0,0 +1,17 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+@Data
+public class ShardProgress
+{
+    private final int total;
+    private final int succeeded;
+    private final int failed;
+    private final String error;
+
+    public boolean isDone()
+    {
+        return succeeded == total;
+    }
+}
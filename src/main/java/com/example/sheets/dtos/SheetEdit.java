@@ -0,0 +1,17 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+@Data
+public class SheetEdit
+{
+    private String tenant = SyncTarget.DEFAULT_TENANT;
+    private String sheet;
+    private int startRow;
+    private Integer endRow;
+
+    public int getLastRow()
+    {
+        return (endRow == null) ? startRow : endRow;
+    }
+}
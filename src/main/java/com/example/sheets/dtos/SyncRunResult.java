@@ -0,0 +1,13 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class SyncRunResult
+{
+    private final String runId;
+    private final long elapsedMillis;
+    private final List<TabSyncResult> tabs;
+}
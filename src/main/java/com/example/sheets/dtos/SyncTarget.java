@@ -0,0 +1,17 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+// A spreadsheet synced into its own Postgres schema. The spreadsheet configured by google.sheets.id is synced into
+// the default schema by sync-job and is addressed as the DEFAULT_TENANT.
+@Data
+public class SyncTarget
+{
+    public static final String DEFAULT_TENANT = "default";
+
+    private final String tenantKey;
+    private final String sheetId;
+    private final String schemaName;
+    private final String cron;
+    private final String alertEmailTo;
+}
@@ -0,0 +1,21 @@
+package com.example.sheets.dtos;
+
+import com.example.sheets.utils.RowBuffer;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class SyncWindow
+{
+    private final int startingRow;
+    private final RowBuffer rows;
+    private final WindowCheckpoint checkpoint;
+    private int[] decodedRows;
+    private List<String> ids;
+    private long[] rowHashes;
+    private int[] changedRows;
+    private Map<String, Long> changedHashes;
+    private String[][] resolvedKeys;
+}
@@ -0,0 +1,93 @@
+package com.example.sheets.dtos;
+
+import com.example.sheets.utils.PackedIdSet;
+import lombok.Data;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Pipeline stages of several windows add to the counters concurrently, hence the LongAdders. The other fields are
+// set by one thread at a time, before or after the pipeline runs.
+@Data
+public class TabSyncResult
+{
+    private static final int MAX_REPORTED_REJECTIONS = 100;
+
+    private final String sheetName;
+    private final Set<String> ids = new PackedIdSet();
+    private volatile int shards;
+    private final LongAdder httpRequests = new LongAdder();
+    private final LongAdder windows = new LongAdder();
+    private final LongAdder windowsResumed = new LongAdder();
+    private final LongAdder rowsResumed = new LongAdder();
+    private final LongAdder blocksFetched = new LongAdder();
+    private final LongAdder blocksSkipped = new LongAdder();
+    private final LongAdder blocksChanged = new LongAdder();
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder rowsSkipped = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder rowsRejected = new LongAdder();
+    private final List<String> rejectedRows = new CopyOnWriteArrayList<>();
+    private volatile long rowsDeleted;
+    private volatile boolean deleteAborted;
+    private final LongAdder fetchNanos = new LongAdder();
+    private volatile long elapsedMillis;
+
+    public void addRejectedRow(int rowNumber, String reason)
+    {
+        rowsRejected.increment();
+        synchronized(rejectedRows)
+        {
+            if(rejectedRows.size() < MAX_REPORTED_REJECTIONS)
+            {
+                rejectedRows.add(String.format("%s row %d: %s", sheetName, rowNumber, reason));
+            }
+        }
+    }
+
+    // Time the fetch stage spent in Sheets requests, summed over its threads.
+    public long getFetchMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(fetchNanos.sum());
+    }
+
+    public double getRowsPerRequest()
+    {
+        long requests = httpRequests.sum();
+        return (requests == 0) ? 0 : rowsRead.sum() * 1.0 / requests;
+    }
+
+    // The counters in a form JobRunr can keep as job metadata.
+    public Map<String, Object> getSummary()
+    {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("shards", shards);
+        summary.put("httpRequests", httpRequests.sum());
+        summary.put("windows", windows.sum());
+        summary.put("blocksFetched", blocksFetched.sum());
+        summary.put("blocksSkipped", blocksSkipped.sum());
+        summary.put("rowsRead", rowsRead.sum());
+        summary.put("rowsResumed", rowsResumed.sum());
+        summary.put("rowsSkipped", rowsSkipped.sum());
+        summary.put("rowsWritten", rowsWritten.sum());
+        summary.put("rowsRejected", rowsRejected.sum());
+        summary.put("rowsDeleted", rowsDeleted);
+        summary.put("deleteAborted", deleteAborted);
+        summary.put("fetchMillis", getFetchMillis());
+        summary.put("elapsedMillis", elapsedMillis);
+        return summary;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s: %d shards, blocks %d fetched (%d changed) / %d skipped, %d rows in %d windows over %d requests (%.1f rows/request), %d rows in %d windows resumed from checkpoint, %d unchanged, %d written, %d rejected, %d deleted%s, fetching %d ms, total %d ms",
+                sheetName, shards, blocksFetched.sum(), blocksChanged.sum(), blocksSkipped.sum(), rowsRead.sum(), windows.sum(), httpRequests.sum(), getRowsPerRequest(), rowsResumed.sum(), windowsResumed.sum(),
+                rowsSkipped.sum(), rowsWritten.sum(), rowsRejected.sum(), rowsDeleted, deleteAborted ? " (delete aborted)" : "", getFetchMillis(), elapsedMillis);
+    }
+}
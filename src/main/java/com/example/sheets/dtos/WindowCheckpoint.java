@@ -0,0 +1,21 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+public class WindowCheckpoint
+{
+    private final int startingRow;
+    private final int endingRow;
+    private final long signalDigest;
+    private final Map<Integer, Long> contentDigests = new HashMap<>();
+
+    public boolean isCommittedIn(Map<Integer, WindowCheckpoint> checkpoints)
+    {
+        WindowCheckpoint checkpoint = checkpoints.get(startingRow);
+        return checkpoint != null && checkpoint.getEndingRow() == endingRow && checkpoint.getSignalDigest() == signalDigest;
+    }
+}
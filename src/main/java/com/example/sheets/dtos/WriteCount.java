@@ -0,0 +1,15 @@
+package com.example.sheets.dtos;
+
+import lombok.Data;
+
+@Data
+public class WriteCount
+{
+    private final long inserted;
+    private final long updated;
+
+    public long getTotal()
+    {
+        return inserted + updated;
+    }
+}
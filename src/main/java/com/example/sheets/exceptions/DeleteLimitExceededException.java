@@ -0,0 +1,18 @@
+package com.example.sheets.exceptions;
+
+import lombok.Getter;
+
+@Getter
+public class DeleteLimitExceededException extends RuntimeException {
+    private final String table;
+    private final long deleteCount;
+    private final long remainingCount;
+
+    public DeleteLimitExceededException(String table, long deleteCount, long remainingCount, int maxShrinkPercent)
+    {
+        super(String.format("Refusing to delete %d of %d rows from %s: more than %d%% of the table", deleteCount, deleteCount + remainingCount, table, maxShrinkPercent));
+        this.table = table;
+        this.deleteCount = deleteCount;
+        this.remainingCount = remainingCount;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.sheets.exceptions;
+
+import lombok.Getter;
+
+// Thrown by the job whose failure ended its sync run.
+@Getter
+public class SyncRunFailedException extends Exception {
+    private final String runId;
+    private final long elapsedMillis;
+
+    public SyncRunFailedException(String runId, long elapsedMillis, Exception cause)
+    {
+        super(String.format("Sync run %s failed after %d ms: %s", runId, elapsedMillis, cause), cause);
+        this.runId = runId;
+        this.elapsedMillis = elapsedMillis;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.sheets.exceptions;
+
+import lombok.Getter;
+
+@Getter
+public class SyncRunSupersededException extends RuntimeException {
+    private final String runId;
+
+    public SyncRunSupersededException(String runId)
+    {
+        super(String.format("Sync run %s was superseded by a newer run", runId));
+        this.runId = runId;
+    }
+}
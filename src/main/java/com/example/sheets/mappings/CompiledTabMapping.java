@@ -0,0 +1,277 @@
+package com.example.sheets.mappings;
+
+import com.example.sheets.utils.Csv;
+import com.example.sheets.utils.RowBuffer;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+// A TabMapping flattened into per-column arrays of typed accessors, plus the SQL the bulk writer and the sync engine
+// need for the table. Built once at startup and shared by all sync runs. Binding, diffing and CSV writing switch on
+// the column type and call the entity accessor directly, with no per-cell wrapper lambda.
+@Getter
+public class CompiledTabMapping<E> {
+
+    private final String sheetName;
+    private final String table;
+    private final String keyColumn;
+    private final char startingColumn;
+    private final RowBuffer.ColumnType[] columnTypes;
+    private final char probeStartingColumn;
+    private final char probeEndingColumn;
+    private final String[] lookupTabs;
+    private final int[] lookupColumns;
+    private final int indexColumn;
+    private final JpaRepository<E, String> repository;
+    private final Runnable beforeUpsert;
+    private final Runnable beforeDelete;
+
+    private final String createStageSql;
+    private final String copyStageSql;
+    private final String upsertSql;
+    private final String countMissingSql;
+    private final String deleteMissingSql;
+    private final String rowHashesSql;
+    private final String indexSql;
+
+    @Getter(AccessLevel.NONE)
+    private final Supplier<E> factory;
+    @Getter(AccessLevel.NONE)
+    private final Function<E, String>[] textGetters;
+    @Getter(AccessLevel.NONE)
+    private final BiConsumer<E, String>[] textSetters;
+    @Getter(AccessLevel.NONE)
+    private final ToIntFunction<E>[] intGetters;
+    @Getter(AccessLevel.NONE)
+    private final ObjIntConsumer<E>[] intSetters;
+    @Getter(AccessLevel.NONE)
+    private final Function<E, Date>[] dateGetters;
+    @Getter(AccessLevel.NONE)
+    private final BiConsumer<E, Date>[] dateSetters;
+    @Getter(AccessLevel.NONE)
+    private final int[] lookupOrdinals;
+    @Getter(AccessLevel.NONE)
+    private final Function<E, Long> rowHashGetter;
+    @Getter(AccessLevel.NONE)
+    private final BiConsumer<E, Long> rowHashSetter;
+
+    @SuppressWarnings("unchecked")
+    CompiledTabMapping(TabMapping<E> mapping)
+    {
+        List<TabMapping.Column<E>> columns = mapping.columns;
+        if(columns.isEmpty() || mapping.rowHashGetter == null)
+        {
+            throw new IllegalStateException(mapping.sheetName + ": a mapping needs a key and a row hash");
+        }
+
+        this.sheetName = mapping.sheetName;
+        this.table = mapping.table;
+        this.keyColumn = columns.get(0).name;
+        this.startingColumn = mapping.startingColumn;
+        this.repository = mapping.repository;
+        this.factory = mapping.factory;
+        this.beforeUpsert = mapping.beforeUpsert;
+        this.beforeDelete = mapping.beforeDelete;
+        this.rowHashGetter = mapping.rowHashGetter;
+        this.rowHashSetter = mapping.rowHashSetter;
+
+        int columnCount = columns.size();
+        this.columnTypes = new RowBuffer.ColumnType[columnCount];
+        this.textGetters = new Function[columnCount];
+        this.textSetters = new BiConsumer[columnCount];
+        this.intGetters = new ToIntFunction[columnCount];
+        this.intSetters = new ObjIntConsumer[columnCount];
+        this.dateGetters = new Function[columnCount];
+        this.dateSetters = new BiConsumer[columnCount];
+        this.lookupOrdinals = new int[columnCount];
+        List<String> lookupTabs = new ArrayList<>();
+        List<Integer> lookupColumns = new ArrayList<>();
+        for(int column = 0; column < columnCount; column++)
+        {
+            TabMapping.Column<E> definition = columns.get(column);
+            columnTypes[column] = definition.type;
+            textGetters[column] = definition.textGetter;
+            textSetters[column] = definition.textSetter;
+            intGetters[column] = definition.intGetter;
+            intSetters[column] = definition.intSetter;
+            dateGetters[column] = definition.dateGetter;
+            dateSetters[column] = definition.dateSetter;
+            lookupOrdinals[column] = -1;
+            if(definition.lookupTab != null)
+            {
+                lookupOrdinals[column] = lookupTabs.size();
+                lookupTabs.add(definition.lookupTab);
+                lookupColumns.add(column);
+            }
+        }
+        this.lookupTabs = lookupTabs.toArray(new String[0]);
+        this.lookupColumns = lookupColumns.stream().mapToInt(Integer::intValue).toArray();
+
+        int probeStart = columnIndex(columns, mapping.probeColumns.isEmpty() ? keyColumn : mapping.probeColumns.get(0));
+        for(int i = 1; i < mapping.probeColumns.size(); i++)
+        {
+            if(columnIndex(columns, mapping.probeColumns.get(i)) != probeStart + i)
+            {
+                throw new IllegalStateException(sheetName + ": probe columns must be contiguous and in sheet order");
+            }
+        }
+        this.probeStartingColumn = (char) (startingColumn + probeStart);
+        this.probeEndingColumn = (char) (probeStartingColumn + Math.max(1, mapping.probeColumns.size()) - 1);
+
+        this.indexColumn = (mapping.indexColumn == null) ? -1 : columnIndex(columns, mapping.indexColumn);
+        if(indexColumn >= 0 && columnTypes[indexColumn] != RowBuffer.ColumnType.TEXT)
+        {
+            throw new IllegalStateException(sheetName + ": the indexed column must be text");
+        }
+
+        List<String> names = columns.stream().map(column -> column.name).collect(Collectors.toList());
+        names.add("row_hash");
+        List<String> values = names.subList(1, names.size());
+        String columnList = String.join(", ", names);
+        String stage = table + "_stage";
+
+        this.createStageSql = "CREATE TEMP TABLE IF NOT EXISTS " + stage + " (LIKE " + table + " INCLUDING DEFAULTS) ON COMMIT DELETE ROWS";
+        this.copyStageSql = "COPY " + stage + " (" + columnList + ") FROM STDIN WITH (FORMAT csv)";
+        this.upsertSql = "WITH upserted AS (" +
+                "INSERT INTO " + table + " (" + columnList + ") " +
+                "SELECT DISTINCT ON (" + keyColumn + ") " + columnList + " FROM " + stage + " ORDER BY " + keyColumn + " " +
+                "ON CONFLICT (" + keyColumn + ") DO UPDATE SET " + values.stream().map(name -> name + " = EXCLUDED." + name).collect(Collectors.joining(", ")) + " " +
+                "WHERE (" + values.stream().map(name -> table + "." + name).collect(Collectors.joining(", ")) + ") " +
+                "IS DISTINCT FROM (" + values.stream().map(name -> "EXCLUDED." + name).collect(Collectors.joining(", ")) + ") " +
+                "RETURNING " + keyColumn + ", (xmax = 0) AS inserted" +
+                ")" + ((mapping.onUpserted == null) ? " " : ", " + mapping.onUpserted + " ") +
+                "SELECT COUNT(*) FILTER (WHERE inserted), COUNT(*) FILTER (WHERE NOT inserted) FROM upserted";
+        this.countMissingSql = "SELECT COUNT(*) FROM " + table + " t WHERE NOT EXISTS (SELECT 1 FROM sheet_ids s WHERE s.id = t." + keyColumn + ")";
+        this.deleteMissingSql = "WITH deleted AS (" +
+                "DELETE FROM " + table + " t WHERE NOT EXISTS (SELECT 1 FROM sheet_ids s WHERE s.id = t." + keyColumn + ") RETURNING t.*" +
+                ")" + ((mapping.onDeleted == null) ? " " : ", " + mapping.onDeleted + " ") +
+                "SELECT COUNT(*) FROM deleted";
+        this.rowHashesSql = "SELECT " + keyColumn + ", row_hash FROM " + table + " WHERE " + keyColumn + " IN (:ids)";
+        this.indexSql = (indexColumn < 0) ? null : "SELECT " + keyColumn + ", " + columns.get(indexColumn).name + " FROM " + table;
+    }
+
+    public int getColumnCount()
+    {
+        return columnTypes.length;
+    }
+
+    public boolean isIndexed()
+    {
+        return indexColumn >= 0;
+    }
+
+    public String getKey(E entity)
+    {
+        return textGetters[0].apply(entity);
+    }
+
+    public E bind(RowBuffer rows, int row, String[][] resolvedKeys, long rowHash)
+    {
+        E entity = factory.get();
+        for(int column = 0; column < columnTypes.length; column++)
+        {
+            switch(columnTypes[column])
+            {
+                case TEXT:
+                    textSetters[column].accept(entity, (lookupOrdinals[column] < 0) ? rows.getText(row, column) : resolvedKeys[lookupOrdinals[column]][row]);
+                    break;
+                case INT:
+                    intSetters[column].accept(entity, rows.getInt(row, column));
+                    break;
+                case DATE:
+                    dateSetters[column].accept(entity, rows.getDate(row, column));
+                    break;
+            }
+        }
+        rowHashSetter.accept(entity, rowHash);
+        return entity;
+    }
+
+    // Copies every changed column, including the row hash, from incoming onto existing; returns whether any did.
+    public boolean copyChanged(E incoming, E existing)
+    {
+        boolean changed = false;
+        for(int column = 0; column < columnTypes.length; column++)
+        {
+            switch(columnTypes[column])
+            {
+                case TEXT:
+                    String text = textGetters[column].apply(incoming);
+                    if(!Objects.equals(text, textGetters[column].apply(existing)))
+                    {
+                        textSetters[column].accept(existing, text);
+                        changed = true;
+                    }
+                    break;
+                case INT:
+                    int number = intGetters[column].applyAsInt(incoming);
+                    if(number != intGetters[column].applyAsInt(existing))
+                    {
+                        intSetters[column].accept(existing, number);
+                        changed = true;
+                    }
+                    break;
+                case DATE:
+                    Date date = dateGetters[column].apply(incoming);
+                    if(!Objects.equals(date, dateGetters[column].apply(existing)))
+                    {
+                        dateSetters[column].accept(existing, date);
+                        changed = true;
+                    }
+                    break;
+            }
+        }
+
+        Long rowHash = rowHashGetter.apply(incoming);
+        if(!Objects.equals(rowHash, rowHashGetter.apply(existing)))
+        {
+            rowHashSetter.accept(existing, rowHash);
+            changed = true;
+        }
+        return changed;
+    }
+
+    public void appendCsv(StringBuilder csv, E entity)
+    {
+        for(int column = 0; column < columnTypes.length; column++)
+        {
+            switch(columnTypes[column])
+            {
+                case TEXT:
+                    Csv.appendQuoted(csv, textGetters[column].apply(entity));
+                    break;
+                case INT:
+                    csv.append(intGetters[column].applyAsInt(entity));
+                    break;
+                case DATE:
+                    Csv.appendNullable(csv, dateGetters[column].apply(entity));
+                    break;
+            }
+            csv.append(',');
+        }
+        Csv.appendNullable(csv, rowHashGetter.apply(entity)).append('\n');
+    }
+
+    private int columnIndex(List<TabMapping.Column<E>> columns, String name)
+    {
+        for(int column = 0; column < columns.size(); column++)
+        {
+            if(columns.get(column).name.equals(name))
+            {
+                return column;
+            }
+        }
+        throw new IllegalStateException(sheetName + ": unknown column " + name);
+    }
+}
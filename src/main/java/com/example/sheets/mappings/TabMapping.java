@@ -0,0 +1,178 @@
+package com.example.sheets.mappings;
+
+import com.example.sheets.utils.RowBuffer;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+// Describes how one sheet tab maps onto one table: the columns in sheet order starting at startingColumn, their
+// types and entity accessors, the key, lookups into other tabs, and optional SQL hooks for the bulk write.
+// compile() turns the description into a CompiledTabMapping of per-column accessor arrays and generated SQL.
+public class TabMapping<E> {
+
+    // Typed accessors of one column; only the pair matching the column type is set.
+    static class Column<E>
+    {
+        final String name;
+        final RowBuffer.ColumnType type;
+        final String lookupTab;
+        Function<E, String> textGetter;
+        BiConsumer<E, String> textSetter;
+        ToIntFunction<E> intGetter;
+        ObjIntConsumer<E> intSetter;
+        Function<E, Date> dateGetter;
+        BiConsumer<E, Date> dateSetter;
+
+        Column(String name, RowBuffer.ColumnType type, String lookupTab)
+        {
+            this.name = name;
+            this.type = type;
+            this.lookupTab = lookupTab;
+        }
+    }
+
+    final String sheetName;
+    final String table;
+    final Supplier<E> factory;
+    final JpaRepository<E, String> repository;
+    final List<Column<E>> columns = new ArrayList<>();
+    char startingColumn = 'A';
+    List<String> probeColumns = new ArrayList<>();
+    String indexColumn;
+    Function<E, Long> rowHashGetter;
+    BiConsumer<E, Long> rowHashSetter;
+    Runnable beforeUpsert;
+    String onUpserted;
+    Runnable beforeDelete;
+    String onDeleted;
+
+    private TabMapping(String sheetName, String table, Supplier<E> factory, JpaRepository<E, String> repository)
+    {
+        this.sheetName = sheetName;
+        this.table = table;
+        this.factory = factory;
+        this.repository = repository;
+    }
+
+    public static <E> TabMapping<E> of(String sheetName, String table, Supplier<E> factory, JpaRepository<E, String> repository)
+    {
+        return new TabMapping<>(sheetName, table, factory, repository);
+    }
+
+    public TabMapping<E> startingColumn(char startingColumn)
+    {
+        this.startingColumn = startingColumn;
+        return this;
+    }
+
+    // The key is always the first column.
+    public TabMapping<E> key(String name, Function<E, String> getter, BiConsumer<E, String> setter)
+    {
+        if(!columns.isEmpty())
+        {
+            throw new IllegalStateException(sheetName + ": the key must be the first column");
+        }
+        return text(name, getter, setter);
+    }
+
+    public TabMapping<E> text(String name, Function<E, String> getter, BiConsumer<E, String> setter)
+    {
+        Column<E> column = new Column<>(name, RowBuffer.ColumnType.TEXT, null);
+        column.textGetter = getter;
+        column.textSetter = setter;
+        columns.add(column);
+        return this;
+    }
+
+    public TabMapping<E> integer(String name, ToIntFunction<E> getter, ObjIntConsumer<E> setter)
+    {
+        Column<E> column = new Column<>(name, RowBuffer.ColumnType.INT, null);
+        column.intGetter = getter;
+        column.intSetter = setter;
+        columns.add(column);
+        return this;
+    }
+
+    public TabMapping<E> date(String name, Function<E, Date> getter, BiConsumer<E, Date> setter)
+    {
+        Column<E> column = new Column<>(name, RowBuffer.ColumnType.DATE, null);
+        column.dateGetter = getter;
+        column.dateSetter = setter;
+        columns.add(column);
+        return this;
+    }
+
+    // The cell holds the indexed value of a row in another, earlier tab (e.g. a hospital name); the column stores
+    // that row's key. Rows whose value does not resolve are rejected.
+    public TabMapping<E> lookup(String name, String tab, Function<E, String> getter, BiConsumer<E, String> setter)
+    {
+        Column<E> column = new Column<>(name, RowBuffer.ColumnType.TEXT, tab);
+        column.textGetter = getter;
+        column.textSetter = setter;
+        columns.add(column);
+        return this;
+    }
+
+    public TabMapping<E> rowHash(Function<E, Long> getter, BiConsumer<E, Long> setter)
+    {
+        this.rowHashGetter = getter;
+        this.rowHashSetter = setter;
+        return this;
+    }
+
+    // Contiguous columns whose values, together with the key, decide whether a block has to be downloaded when
+    // block skipping is enabled (sheets.blocks.full-verify-every above 1).
+    public TabMapping<E> probe(String... names)
+    {
+        this.probeColumns = Arrays.asList(names);
+        return this;
+    }
+
+    // Publishes a value -> key index over this text column that later tabs can use in lookup().
+    public TabMapping<E> indexedBy(String name)
+    {
+        this.indexColumn = name;
+        return this;
+    }
+
+    // Runs inside the upsert transaction after the rows are staged in <table>_stage.
+    public TabMapping<E> beforeUpsert(Runnable beforeUpsert)
+    {
+        this.beforeUpsert = beforeUpsert;
+        return this;
+    }
+
+    // An extra CTE appended to the upsert; it can read the keys of changed rows from "upserted".
+    public TabMapping<E> onUpserted(String cte)
+    {
+        this.onUpserted = cte;
+        return this;
+    }
+
+    // Runs inside the delete transaction before rows missing from the sheet are deleted.
+    public TabMapping<E> beforeDelete(Runnable beforeDelete)
+    {
+        this.beforeDelete = beforeDelete;
+        return this;
+    }
+
+    // An extra CTE appended to the delete; it can read the deleted rows from "deleted".
+    public TabMapping<E> onDeleted(String cte)
+    {
+        this.onDeleted = cte;
+        return this;
+    }
+
+    public CompiledTabMapping<E> compile()
+    {
+        return new CompiledTabMapping<>(this);
+    }
+}
@@ -20,4 +20,5 @@ public class Hospital {
     private String location;
     private int generalBedCount;
     private int icuBedCount;
+    private Long rowHash;
 }
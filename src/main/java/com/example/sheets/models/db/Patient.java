@@ -22,4 +22,5 @@ public class Patient {
     private String disease;
     private String bedType;
     private String hospitalId;
+    private Long rowHash;
 }
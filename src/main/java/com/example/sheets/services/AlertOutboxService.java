@@ -0,0 +1,172 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.OutboxAlert;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Alerts are written here in the transaction that decided to send them, and delivered by a scheduled sender on
+// whichever instance claims them first, so a slow or failing SMTP server never holds up a job. Every sync target
+// has its own outbox table, and the sender goes through all of them.
+//
+// Claiming an alert counts the attempt and pushes next_attempt_at out by the retry backoff, which doubles as a
+// lease: an alert whose sender died mid-send is picked up again once the backoff elapses. Delivery is therefore
+// at-least-once.
+@Slf4j
+@Service
+public class AlertOutboxService {
+
+    private static final String INSERT_ALERT = "INSERT INTO alert_outbox (recipients, subject, body) VALUES (?, ?, ?)";
+    private static final String CLAIM_ALERTS = "UPDATE alert_outbox SET attempts = attempts + 1, " +
+            "next_attempt_at = now() + LEAST(? * power(2, attempts), ?) * interval '1 millisecond' " +
+            "WHERE id IN (SELECT id FROM alert_outbox WHERE status = 'PENDING' AND next_attempt_at <= now() ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+            "RETURNING id, recipients, subject, body, attempts";
+    private static final String MARK_SENT = "UPDATE alert_outbox SET status = 'SENT', sent_at = now(), error = NULL WHERE id = ?";
+    private static final String MARK_FAILED = "UPDATE alert_outbox SET status = CASE WHEN attempts >= ? THEN 'FAILED' ELSE status END, error = ? WHERE id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EmailService emailService;
+
+    @Autowired
+    private SyncTargetService syncTargetService;
+
+    @Autowired
+    private SyncMetrics syncMetrics;
+
+    @Value("${alert.outbox.batch-size}")
+    private int batchSize;
+
+    @Value("${alert.outbox.max-attempts}")
+    private int maxAttempts;
+
+    @Value("${alert.outbox.retry-base-delay-ms}")
+    private long retryBaseDelayMillis;
+
+    @Value("${alert.outbox.retry-max-delay-ms}")
+    private long retryMaxDelayMillis;
+
+    // Joins the caller's transaction, so the alert exists exactly when the state change that raised it commits.
+    @Transactional
+    public void enqueue(String recipients, String subject, String body)
+    {
+        jdbcTemplate.update(INSERT_ALERT, recipients, subject, body);
+    }
+
+    @Scheduled(fixedDelayString = "${alert.outbox.poll-interval-ms}")
+    public void deliverPending()
+    {
+        for(String tenantKey: syncTargetService.getTenantKeys())
+        {
+            try
+            {
+                syncTargetService.runAs(tenantKey, () -> {
+                    deliverPendingOfTarget();
+                    return null;
+                });
+            }
+            catch (Exception e)
+            {
+                log.warn("{}: failed to deliver alerts", tenantKey, e);
+            }
+        }
+    }
+
+    private void deliverPendingOfTarget()
+    {
+        List<OutboxAlert> alerts;
+        do
+        {
+            alerts = jdbcTemplate.query(CLAIM_ALERTS, (rs, rowNum) -> new OutboxAlert(rs.getLong("id"), rs.getString("recipients"), rs.getString("subject"),
+                    rs.getString("body"), rs.getInt("attempts")), retryBaseDelayMillis, retryMaxDelayMillis, batchSize);
+            if(!alerts.isEmpty())
+            {
+                deliver(alerts);
+            }
+        }
+        while(alerts.size() == batchSize);
+    }
+
+    private void deliver(List<OutboxAlert> alerts)
+    {
+        Map<MimeMessage, OutboxAlert> messages = new LinkedHashMap<>();
+        for(OutboxAlert alert: alerts)
+        {
+            try
+            {
+                messages.put(emailService.createEmail(alert.getRecipients(), alert.getSubject(), alert.getBody()), alert);
+            }
+            catch (MessagingException e)
+            {
+                fail(alert, e);
+            }
+        }
+        if(messages.isEmpty())
+        {
+            return;
+        }
+
+        SyncMetrics.TargetMeters meters = syncMetrics.target();
+        Map<Object, Exception> failedMessages = Collections.emptyMap();
+        long sendStart = System.nanoTime();
+        try
+        {
+            emailService.sendAll(messages.keySet().toArray(new MimeMessage[0]));
+        }
+        catch (MailSendException e)
+        {
+            failedMessages = e.getFailedMessages().isEmpty() ? failAll(messages, e) : e.getFailedMessages();
+        }
+        catch (MailException e)
+        {
+            failedMessages = failAll(messages, e);
+        }
+        SyncMetrics.recordSince(failedMessages.isEmpty() ? meters.getEmailSend() : meters.getEmailSendFailed(), sendStart);
+        meters.getEmailsSent().increment(messages.size() - failedMessages.size());
+        meters.getEmailsFailed().increment(failedMessages.size());
+
+        for(Map.Entry<MimeMessage, OutboxAlert> message: messages.entrySet())
+        {
+            Exception e = failedMessages.get(message.getKey());
+            if(e == null)
+            {
+                jdbcTemplate.update(MARK_SENT, message.getValue().getId());
+            }
+            else
+            {
+                fail(message.getValue(), e);
+            }
+        }
+    }
+
+    private static Map<Object, Exception> failAll(Map<MimeMessage, OutboxAlert> messages, Exception e)
+    {
+        Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        for(MimeMessage message: messages.keySet())
+        {
+            failedMessages.put(message, e);
+        }
+        return failedMessages;
+    }
+
+    private void fail(OutboxAlert alert, Exception e)
+    {
+        log.warn("alert {} ({}): attempt {} of {} failed", alert.getId(), alert.getSubject(), alert.getAttempts(), maxAttempts, e);
+        jdbcTemplate.update(MARK_FAILED, maxAttempts, String.valueOf(e), alert.getId());
+    }
+}
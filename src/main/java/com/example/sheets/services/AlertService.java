@@ -0,0 +1,81 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.EmailTableRow;
+import com.example.sheets.dtos.SyncTarget;
+import com.example.sheets.utils.OccupancyAlertTemplate;
+import com.example.sheets.utils.SyncTargetContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+// Decides which occupancy alerts to send and queues them in the outbox; AlertOutboxService delivers them.
+@Service
+public class AlertService {
+
+    @Autowired
+    private OccupancyService occupancyService;
+
+    @Autowired
+    private AlertOutboxService alertOutboxService;
+
+    @Autowired
+    private OccupancyHistoryService occupancyHistoryService;
+
+    @Value("${alert.email.to}")
+    private String alertEmailAddress;
+
+    @Value("${alert.realtime.enabled}")
+    private boolean realtimeAlertEnabled;
+
+    @Value("${alert.daily.min-consecutive-days}")
+    private int dailyAlertMinConsecutiveDays;
+
+    // Clearing the dirty flags and queueing the alert commit together, so a crossing is never acknowledged without
+    // its alert (or alerted twice).
+    @Transactional
+    public List<EmailTableRow> queueCrossedHospitals()
+    {
+        List<EmailTableRow> crossedHospitals = occupancyService.checkChangedHospitals(OccupancyService.OCCUPANCY_THRESHOLD);
+        if(realtimeAlertEnabled && !crossedHospitals.isEmpty())
+        {
+            Date now = new Date();
+            String subject = String.format("%sOccupancy Alert: Hospitals Crossed 90%% Capacity – %s", subjectPrefix(), new SimpleDateFormat("yyyy-MM-dd HH:mm").format(now));
+            alertOutboxService.enqueue(recipients(), subject, OccupancyAlertTemplate.render(new SimpleDateFormat("yyyy-MM-dd").format(now), crossedHospitals));
+        }
+        return crossedHospitals;
+    }
+
+    // Alerts hospitals over the threshold now and, per occupancy_daily, on each of the alert.daily.min-consecutive-days - 1
+    // days before.
+    public List<EmailTableRow> queueDailyAlert()
+    {
+        occupancyHistoryService.record();
+        List<EmailTableRow> eligibleHospitals = occupancyHistoryService.getHospitalsOverThreshold(OccupancyService.OCCUPANCY_THRESHOLD, dailyAlertMinConsecutiveDays);
+
+        if(!eligibleHospitals.isEmpty())
+        {
+            String date = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+            String subject = String.format("%sDaily Occupancy Alert: Hospitals Exceeding 90%% Capacity – %s", subjectPrefix(), date);
+            alertOutboxService.enqueue(recipients(), subject, OccupancyAlertTemplate.render(date, eligibleHospitals));
+        }
+        return eligibleHospitals;
+    }
+
+    // A sync target without recipients of its own alerts alert.email.to.
+    private String recipients()
+    {
+        SyncTarget target = SyncTargetContext.get();
+        return (target == null || target.getAlertEmailTo() == null) ? alertEmailAddress : target.getAlertEmailTo();
+    }
+
+    private static String subjectPrefix()
+    {
+        SyncTarget target = SyncTargetContext.get();
+        return (target == null) ? "" : "[" + target.getTenantKey() + "] ";
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.BlockDigest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class BlockDigestService {
+
+    private static final String SELECT_RUN_COUNT = "SELECT run_count FROM sheet_digests WHERE sheet_name = ?";
+    private static final String SELECT_BLOCKS = "SELECT block_index, row_count, signal_digest, content_digest FROM sheet_block_digests WHERE sheet_name = ?";
+    private static final String UPSERT_BLOCK = "INSERT INTO sheet_block_digests (sheet_name, block_index, row_count, signal_digest, content_digest) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (sheet_name, block_index) DO UPDATE SET row_count = EXCLUDED.row_count, signal_digest = EXCLUDED.signal_digest, content_digest = EXCLUDED.content_digest";
+    private static final String DELETE_TRAILING_BLOCKS = "DELETE FROM sheet_block_digests WHERE sheet_name = ? AND block_index >= ?";
+    private static final String UPSERT_ROOT = "INSERT INTO sheet_digests (sheet_name, row_count, root_digest, run_count) VALUES (?, ?, ?, 1) " +
+            "ON CONFLICT (sheet_name) DO UPDATE SET row_count = EXCLUDED.row_count, root_digest = EXCLUDED.root_digest, run_count = sheet_digests.run_count + 1";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public long getRunCount(String sheetName)
+    {
+        List<Long> runCounts = jdbcTemplate.queryForList(SELECT_RUN_COUNT, Long.class, sheetName);
+        return runCounts.isEmpty() ? 0 : runCounts.get(0);
+    }
+
+    public Map<Integer, BlockDigest> getBlocks(String sheetName)
+    {
+        Map<Integer, BlockDigest> blocks = new HashMap<>();
+        jdbcTemplate.query(SELECT_BLOCKS, rs -> {
+            BlockDigest block = new BlockDigest(rs.getInt("block_index"), rs.getInt("row_count"), rs.getLong("signal_digest"), rs.getLong("content_digest"));
+            blocks.put(block.getBlockIndex(), block);
+        }, sheetName);
+        return blocks;
+    }
+
+    @Transactional
+    public void save(String sheetName, int rowCount, long rootDigest, int blockCount, Collection<BlockDigest> updatedBlocks)
+    {
+        jdbcTemplate.batchUpdate(UPSERT_BLOCK, updatedBlocks, updatedBlocks.size(), (ps, block) -> {
+            ps.setString(1, sheetName);
+            ps.setInt(2, block.getBlockIndex());
+            ps.setInt(3, block.getRowCount());
+            ps.setLong(4, block.getSignalDigest());
+            ps.setLong(5, block.getContentDigest());
+        });
+        jdbcTemplate.update(DELETE_TRAILING_BLOCKS, sheetName, blockCount);
+        jdbcTemplate.update(UPSERT_ROOT, sheetName, rowCount, rootDigest);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.WriteCount;
+import com.example.sheets.exceptions.DeleteLimitExceededException;
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.utils.Csv;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+
+@Service
+public class BulkWriteService {
+
+    public enum WriteMode
+    {
+        COPY,
+        JPA
+    }
+
+    private static final String CREATE_SHEET_IDS = "CREATE TEMP TABLE IF NOT EXISTS sheet_ids (id text NOT NULL) ON COMMIT DELETE ROWS";
+    private static final String COPY_SHEET_IDS = "COPY sheet_ids (id) FROM STDIN WITH (FORMAT csv)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${sync.delete.max-shrink-percent}")
+    private int maxShrinkPercent;
+
+    // Rows the upsert created have no previous version (xmax = 0); all others were updated.
+    @Transactional
+    public <E> WriteCount upsert(CompiledTabMapping<E> mapping, List<E> entities)
+    {
+        StringBuilder csv = new StringBuilder(entities.size() * 16 * mapping.getColumnCount());
+        for(E entity: entities)
+        {
+            mapping.appendCsv(csv, entity);
+        }
+
+        copyIntoStage(mapping.getCreateStageSql(), mapping.getCopyStageSql(), csv);
+        if(mapping.getBeforeUpsert() != null)
+        {
+            mapping.getBeforeUpsert().run();
+        }
+        return jdbcTemplate.queryForObject(mapping.getUpsertSql(), (rs, rowNum) -> new WriteCount(rs.getLong(1), rs.getLong(2)));
+    }
+
+    @Transactional
+    public <E> long deleteMissing(CompiledTabMapping<E> mapping, Collection<String> ids)
+    {
+        if(mapping.getBeforeDelete() != null)
+        {
+            mapping.getBeforeDelete().run();
+        }
+
+        StringBuilder csv = new StringBuilder(ids.size() * 12);
+        for(String id: ids)
+        {
+            Csv.appendQuoted(csv, id).append('\n');
+        }
+
+        copyIntoStage(CREATE_SHEET_IDS, COPY_SHEET_IDS, csv);
+        jdbcTemplate.execute("ANALYZE sheet_ids");
+        // Counted before deleting, so that a refused delete costs a scan rather than deleting and rolling back.
+        long deleteCount = queryForCount(mapping.getCountMissingSql());
+        if(deleteCount * 100 > (long) maxShrinkPercent * (deleteCount + ids.size()))
+        {
+            throw new DeleteLimitExceededException(mapping.getTable(), deleteCount, ids.size(), maxShrinkPercent);
+        }
+
+        return (deleteCount == 0) ? 0 : queryForCount(mapping.getDeleteMissingSql());
+    }
+
+    private void copyIntoStage(String createStage, String copyStage, CharSequence csv)
+    {
+        jdbcTemplate.execute(createStage);
+        jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            try
+            {
+                return copyManager.copyIn(copyStage, new StringReader(csv.toString()));
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private long queryForCount(String sql)
+    {
+        Long count = jdbcTemplate.queryForObject(sql, Long.class);
+        return (count == null) ? 0 : count;
+    }
+}
@@ -2,31 +2,40 @@ package com.example.sheets.services;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.SimpleMailMessage;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
 
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 
 @Service
 public class EmailService {
 
+    // Created on the first alert rather than at startup (see LazyMailSenderPostProcessor).
+    @Lazy
     @Autowired
     private JavaMailSender mailSender;
 
     @Value("${spring.mail.username}")
     private String fromAddress;
 
-    public void sendEmail(String to, String subject, String text) throws MessagingException {
+    // One message to all recipients; `to` is a comma-separated address list.
+    public MimeMessage createEmail(String to, String subject, String text) throws MessagingException {
         MimeMessage mimeMessage = mailSender.createMimeMessage();
         MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, true);
         helper.setFrom(fromAddress);
-        helper.setTo(to);
+        helper.setTo(InternetAddress.parse(to));
         helper.setSubject(subject);
         helper.setText(text, true);
+        return mimeMessage;
+    }
 
-        mailSender.send(mimeMessage);
+    // Sends all messages over a single SMTP connection. A MailSendException lists the messages that failed; the
+    // others were sent.
+    public void sendAll(MimeMessage... mimeMessages) {
+        mailSender.send(mimeMessages);
     }
 }
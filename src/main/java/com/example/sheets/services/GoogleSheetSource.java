@@ -0,0 +1,76 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.SyncTarget;
+import com.example.sheets.utils.RowBuffer;
+import com.example.sheets.utils.SheetResponseDecoder;
+import com.example.sheets.utils.SyncTargetContext;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.common.io.CountingInputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+
+@Component
+public class GoogleSheetSource implements SheetSource {
+
+    // Only the cell values are decoded, so the rest of the response envelope is not requested.
+    private static final String FIELDS = "valueRanges(values)";
+
+    // Created on the first request rather than at startup (see GoogleSheetsConfig).
+    @Lazy
+    @Autowired
+    private Sheets sheetsService;
+
+    @Autowired
+    private SyncMetrics syncMetrics;
+
+    @Value("${google.sheets.id}")
+    private String sheetId;
+
+    public GoogleSheetSource()
+    {
+    }
+
+    public GoogleSheetSource(Sheets sheetsService, SyncMetrics syncMetrics, String sheetId)
+    {
+        this.sheetsService = sheetsService;
+        this.syncMetrics = syncMetrics;
+        this.sheetId = sheetId;
+    }
+
+    // The spreadsheet of the current sync target.
+    public String getSheetId()
+    {
+        SyncTarget target = SyncTargetContext.get();
+        return (target == null) ? sheetId : target.getSheetId();
+    }
+
+    @Override
+    public void batchGet(List<String> ranges, List<RowBuffer> buffers) throws IOException
+    {
+        HttpResponse response = sheetsService.spreadsheets().values()
+                .batchGet(getSheetId())
+                .setRanges(ranges)
+                .setMajorDimension("ROWS")
+                .setValueRenderOption("UNFORMATTED_VALUE")
+                .setDateTimeRenderOption("FORMATTED_STRING")
+                .setFields(FIELDS)
+                .executeUnparsed();
+
+        // Counts the bytes decoded, i.e. after the transport has unzipped the response.
+        try (CountingInputStream content = new CountingInputStream(response.getContent()))
+        {
+            SheetResponseDecoder.decode(content, buffers);
+            syncMetrics.target().getSheetsResponseBytes().increment(content.getCount());
+        }
+        finally
+        {
+            response.disconnect();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.sheets.services;
+
+import lombok.Data;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+// Keeps value -> key resolution for one indexed tab (e.g. hospital name -> hospital id) in memory, so tabs that
+// look rows up in it never query the table per window. Every load publishes a new immutable snapshot with a
+// higher version; readers keep whichever snapshot they took.
+public class LookupIndex {
+
+    private final Supplier<Map<String, String>> loader;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final AtomicLong versions = new AtomicLong();
+
+    @Data
+    public static class Snapshot
+    {
+        private final long version;
+        private final Map<String, String> valuesByKey;
+        private final Map<String, String> keysByValue;
+
+        public String resolve(String value)
+        {
+            return keysByValue.get(value);
+        }
+    }
+
+    // The loader returns key -> value for every row of the table.
+    public LookupIndex(Supplier<Map<String, String>> loader)
+    {
+        this.loader = loader;
+    }
+
+    public Snapshot current()
+    {
+        Snapshot current = snapshot.get();
+        return (current != null) ? current : load();
+    }
+
+    public synchronized Snapshot load()
+    {
+        return publish(new TreeMap<>(loader.get()));
+    }
+
+    // Indexed values are not unique in the sheet; the lowest key wins so resolution does not depend on row order.
+    private Snapshot publish(Map<String, String> valuesByKey)
+    {
+        Map<String, String> keysByValue = new HashMap<>();
+        for(Map.Entry<String, String> entry: valuesByKey.entrySet())
+        {
+            keysByValue.putIfAbsent(entry.getValue(), entry.getKey());
+        }
+
+        Snapshot next = new Snapshot(versions.incrementAndGet(), Collections.unmodifiableMap(valuesByKey), Collections.unmodifiableMap(keysByValue));
+        snapshot.set(next);
+        return next;
+    }
+}
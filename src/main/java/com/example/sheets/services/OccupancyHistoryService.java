@@ -0,0 +1,226 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.EmailTableRow;
+import com.example.sheets.dtos.OccupancyStreak;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Keeps the occupancy history of every hospital. record() stores a row in occupancy_changes only for hospitals
+// whose bed counts or occupancy differ from occupancy_latest, so an unchanged hour costs one indexed comparison and
+// no writes. rollUp() folds complete hours into occupancy_hourly and complete days into occupancy_daily, and drops
+// raw and hourly partitions past their retention; trend queries only read occupancy_daily.
+@Service
+public class OccupancyHistoryService {
+
+    private static final long HISTORY_LOCK_KEY = 0x6f63636869737479L;
+
+    private static final String HOURLY = "hourly";
+    private static final String DAILY = "daily";
+
+    private static final String LOCK = "SELECT pg_advisory_xact_lock(" + HISTORY_LOCK_KEY + ")";
+    private static final String CREATE_PARTITION = "SELECT create_occupancy_partition(?, ?, ?)";
+    private static final String DROP_PARTITIONS = "SELECT drop_occupancy_partitions(?, ?)";
+    private static final String SELECT_NOW = "SELECT LOCALTIMESTAMP";
+    private static final String SELECT_FIRST_CHANGE_HOUR = "SELECT date_trunc('hour', MIN(recorded_at)) FROM occupancy_changes";
+    private static final String SELECT_ROLLED_UP_TO = "SELECT rolled_up_to FROM occupancy_rollups WHERE name = ?";
+    private static final String UPSERT_ROLLED_UP_TO = "INSERT INTO occupancy_rollups (name, rolled_up_to) VALUES (?, ?) " +
+            "ON CONFLICT (name) DO UPDATE SET rolled_up_to = EXCLUDED.rolled_up_to";
+
+    // Hospitals removed from the sheet are dropped from occupancy_latest and recorded as a change with NULL counts.
+    private static final String RECORD = "WITH observed AS (" +
+            "SELECT h.id AS hospital_id, h.general_bed_count, COALESCE(o.general_occupied, 0) AS general_occupied, " +
+            "h.icu_bed_count, COALESCE(o.icu_occupied, 0) AS icu_occupied " +
+            "FROM hospitals h LEFT JOIN hospital_occupancy o ON o.hospital_id = h.id" +
+            "), changed AS (" +
+            "SELECT c.* FROM observed c LEFT JOIN occupancy_latest l ON l.hospital_id = c.hospital_id " +
+            "WHERE (c.general_bed_count, c.general_occupied, c.icu_bed_count, c.icu_occupied) " +
+            "IS DISTINCT FROM (l.general_bed_count, l.general_occupied, l.icu_bed_count, l.icu_occupied)" +
+            "), removed AS (" +
+            "DELETE FROM occupancy_latest l WHERE NOT EXISTS (SELECT 1 FROM hospitals h WHERE h.id = l.hospital_id) RETURNING l.hospital_id" +
+            "), latest AS (" +
+            "INSERT INTO occupancy_latest (hospital_id, general_bed_count, general_occupied, icu_bed_count, icu_occupied, recorded_at) " +
+            "SELECT hospital_id, general_bed_count, general_occupied, icu_bed_count, icu_occupied, LOCALTIMESTAMP FROM changed " +
+            "ON CONFLICT (hospital_id) DO UPDATE SET general_bed_count = EXCLUDED.general_bed_count, general_occupied = EXCLUDED.general_occupied, " +
+            "icu_bed_count = EXCLUDED.icu_bed_count, icu_occupied = EXCLUDED.icu_occupied, recorded_at = EXCLUDED.recorded_at" +
+            ") " +
+            "INSERT INTO occupancy_changes (hospital_id, recorded_at, general_bed_count, general_occupied, icu_bed_count, icu_occupied) " +
+            "SELECT hospital_id, LOCALTIMESTAMP, general_bed_count, general_occupied, icu_bed_count, icu_occupied FROM changed " +
+            "UNION ALL " +
+            "SELECT hospital_id, LOCALTIMESTAMP, NULL, NULL, NULL, NULL FROM removed";
+
+    // An hour starts from where the previous hour ended (its occupancy_hourly row) and goes through the changes
+    // recorded in it; a hospital whose last change in the hour removed it gets no row.
+    private static final String ROLL_UP_HOUR = "WITH points AS (" +
+            "SELECT hospital_id, CAST(:hour AS timestamp) AS recorded_at, 0 AS seq, general_bed_count, general_occupied, icu_bed_count, icu_occupied " +
+            "FROM occupancy_hourly WHERE hour = CAST(:hour AS timestamp) - interval '1 hour' " +
+            "UNION ALL " +
+            "SELECT hospital_id, recorded_at, 1, general_bed_count, general_occupied, icu_bed_count, icu_occupied " +
+            "FROM occupancy_changes WHERE recorded_at >= :hour AND recorded_at < CAST(:hour AS timestamp) + interval '1 hour'" +
+            "), ranked AS (" +
+            "SELECT *, row_number() OVER (PARTITION BY hospital_id ORDER BY recorded_at DESC, seq DESC) AS recency FROM points" +
+            ") " +
+            "INSERT INTO occupancy_hourly (hour, hospital_id, general_bed_count, general_occupied, general_occupied_max, " +
+            "icu_bed_count, icu_occupied, icu_occupied_max, over_threshold) " +
+            "SELECT :hour, hospital_id, MAX(general_bed_count) FILTER (WHERE recency = 1), MAX(general_occupied) FILTER (WHERE recency = 1), MAX(general_occupied), " +
+            "MAX(icu_bed_count) FILTER (WHERE recency = 1), MAX(icu_occupied) FILTER (WHERE recency = 1), MAX(icu_occupied), " +
+            "COALESCE(bool_or(general_occupied > :threshold * general_bed_count OR icu_occupied > :threshold * icu_bed_count), false) " +
+            "FROM ranked GROUP BY hospital_id HAVING MAX(general_bed_count) FILTER (WHERE recency = 1) IS NOT NULL " +
+            "ON CONFLICT (hour, hospital_id) DO NOTHING";
+
+    private static final String ROLL_UP_DAYS = "INSERT INTO occupancy_daily (day, hospital_id, general_bed_count, general_occupied_max, " +
+            "icu_bed_count, icu_occupied_max, hours_over_threshold, over_threshold) " +
+            "SELECT CAST(hour AS date), hospital_id, MAX(general_bed_count), MAX(general_occupied_max), MAX(icu_bed_count), MAX(icu_occupied_max), " +
+            "COUNT(*) FILTER (WHERE over_threshold), bool_or(over_threshold) " +
+            "FROM occupancy_hourly WHERE hour >= ? AND hour < ? GROUP BY CAST(hour AS date), hospital_id " +
+            "ON CONFLICT (hospital_id, day) DO NOTHING";
+
+    // Runs of consecutive days over the threshold ("gaps and islands": day minus its rank is constant within a run),
+    // read from the partial index on occupancy_daily.
+    private static final String OVER_THRESHOLD_DAYS = "SELECT hospital_id, day, day - CAST(row_number() OVER (PARTITION BY hospital_id ORDER BY day) AS integer) AS streak " +
+            "FROM occupancy_daily WHERE over_threshold AND day >= ? AND day <= ?";
+    private static final String SELECT_STREAKS = "SELECT s.hospital_id, h.name, MIN(s.day) AS first_day, MAX(s.day) AS last_day, COUNT(*) AS days " +
+            "FROM (" + OVER_THRESHOLD_DAYS + ") s LEFT JOIN hospitals h ON h.id = s.hospital_id " +
+            "GROUP BY s.hospital_id, h.name, s.streak HAVING COUNT(*) >= ? ORDER BY s.hospital_id, first_day";
+
+    // Hospitals over the threshold now whose run, counting today, is at least the given number of days long.
+    private static final String SELECT_OVER_THRESHOLD_FOR_DAYS = "WITH streaks AS (" +
+            "SELECT hospital_id, MAX(day) AS last_day, COUNT(*) AS days FROM (" + OVER_THRESHOLD_DAYS + ") d GROUP BY hospital_id, streak" +
+            ") " +
+            "SELECT l.hospital_id, h.name, l.general_bed_count, l.general_occupied, l.icu_bed_count, l.icu_occupied " +
+            "FROM occupancy_latest l JOIN hospitals h ON h.id = l.hospital_id " +
+            "LEFT JOIN streaks s ON s.hospital_id = l.hospital_id AND s.last_day = ? " +
+            "WHERE (l.general_occupied > ? * l.general_bed_count OR l.icu_occupied > ? * l.icu_bed_count) AND 1 + COALESCE(s.days, 0) >= ? " +
+            "ORDER BY l.hospital_id";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${occupancy.history.raw-retention-days}")
+    private int rawRetentionDays;
+
+    @Value("${occupancy.history.hourly-retention-days}")
+    private int hourlyRetentionDays;
+
+    // Records the current occupancy of the current sync target's hospitals; returns the number of changed hospitals.
+    @Transactional
+    public int record()
+    {
+        jdbcTemplate.execute(LOCK);
+        jdbcTemplate.queryForObject(CREATE_PARTITION, Object.class, "occupancy_changes", "day", now());
+        return jdbcTemplate.update(RECORD);
+    }
+
+    // Rolls up every complete hour and day not rolled up yet, oldest first (an hour starts from the one before), each
+    // hour in its own transaction so an interrupted run resumes where it stopped. Returns a summary for the job log.
+    public String rollUp()
+    {
+        LocalDateTime now = now();
+        LocalDateTime currentHour = now.withMinute(0).withSecond(0).withNano(0);
+        LocalDateTime hour = rolledUpTo(HOURLY);
+        if(hour == null)
+        {
+            hour = queryForTimestamp(SELECT_FIRST_CHANGE_HOUR);
+        }
+
+        int hours = 0;
+        for(; hour != null && hour.isBefore(currentHour); hour = hour.plusHours(1), hours++)
+        {
+            LocalDateTime rolledHour = hour;
+            LocalDateTime nextHour = hour.plusHours(1);
+            transactionTemplate.execute(status -> {
+                // record() stamps changes with its transaction's start, so one still in flight may add to this hour.
+                jdbcTemplate.execute(LOCK);
+                jdbcTemplate.queryForObject(CREATE_PARTITION, Object.class, "occupancy_hourly", "month", rolledHour);
+                namedParameterJdbcTemplate.update(ROLL_UP_HOUR, new MapSqlParameterSource("hour", rolledHour).addValue("threshold", OccupancyService.OCCUPANCY_THRESHOLD));
+                jdbcTemplate.update(UPSERT_ROLLED_UP_TO, HOURLY, nextHour);
+                return null;
+            });
+        }
+
+        int days = 0;
+        LocalDateTime hourlyRolledUpTo = rolledUpTo(HOURLY);
+        if(hourlyRolledUpTo != null)
+        {
+            LocalDateTime day = rolledUpTo(DAILY);
+            LocalDateTime dailyRolledUpTo = hourlyRolledUpTo.toLocalDate().atStartOfDay();
+            if(day == null)
+            {
+                day = queryForTimestamp(SELECT_FIRST_CHANGE_HOUR);
+                day = (day == null) ? dailyRolledUpTo : day.toLocalDate().atStartOfDay();
+            }
+            if(day.isBefore(dailyRolledUpTo))
+            {
+                LocalDateTime from = day;
+                days = transactionTemplate.execute(status -> {
+                    int rows = jdbcTemplate.update(ROLL_UP_DAYS, from, dailyRolledUpTo);
+                    jdbcTemplate.update(UPSERT_ROLLED_UP_TO, DAILY, dailyRolledUpTo);
+                    return rows;
+                });
+            }
+        }
+
+        // Raw changes are kept until their hours are rolled up, and hourly rows until their days are.
+        int droppedRaw = dropPartitions("occupancy_changes", now.minusDays(rawRetentionDays), hourlyRolledUpTo);
+        int droppedHourly = dropPartitions("occupancy_hourly", now.minusDays(hourlyRetentionDays), rolledUpTo(DAILY));
+        return String.format("rolled up %d hours and %d hospital-days, dropped %d raw and %d hourly partitions", hours, days, droppedRaw, droppedHourly);
+    }
+
+    // Runs of at least minDays consecutive days over the threshold between from and to (inclusive).
+    public List<OccupancyStreak> getStreaks(int minDays, LocalDate from, LocalDate to)
+    {
+        return jdbcTemplate.query(SELECT_STREAKS, (rs, rowNum) -> new OccupancyStreak(rs.getString("hospital_id"), rs.getString("name"),
+                rs.getObject("first_day", LocalDate.class), rs.getObject("last_day", LocalDate.class), rs.getInt("days")), from, to, minDays);
+    }
+
+    // Hospitals over the threshold now and on each of the minDays - 1 days before today.
+    public List<EmailTableRow> getHospitalsOverThreshold(double threshold, int minDays)
+    {
+        // Today as Postgres sees it, like the days of occupancy_daily.
+        LocalDate today = now().toLocalDate();
+        return jdbcTemplate.query(SELECT_OVER_THRESHOLD_FOR_DAYS, (rs, rowNum) -> new EmailTableRow(rs.getString("hospital_id"), rs.getString("name"),
+                rs.getInt("general_bed_count"), rs.getLong("general_occupied"), rs.getInt("icu_bed_count"), rs.getLong("icu_occupied")),
+                today.minusDays(minDays), today, today.minusDays(1), threshold, threshold, minDays);
+    }
+
+    private LocalDateTime rolledUpTo(String name)
+    {
+        List<LocalDateTime> rolledUpTo = jdbcTemplate.query(SELECT_ROLLED_UP_TO, (rs, rowNum) -> rs.getObject(1, LocalDateTime.class), name);
+        return rolledUpTo.isEmpty() ? null : rolledUpTo.get(0);
+    }
+
+    // Drops the partitions of parent that are past the retention and already rolled up.
+    private int dropPartitions(String parent, LocalDateTime retention, LocalDateTime rolledUpTo)
+    {
+        if(rolledUpTo == null)
+        {
+            return 0;
+        }
+        return jdbcTemplate.queryForObject(DROP_PARTITIONS, Integer.class, parent, retention.isBefore(rolledUpTo) ? retention : rolledUpTo);
+    }
+
+    private LocalDateTime now()
+    {
+        return queryForTimestamp(SELECT_NOW);
+    }
+
+    private LocalDateTime queryForTimestamp(String sql)
+    {
+        return jdbcTemplate.query(sql, rs -> rs.next() ? rs.getObject(1, LocalDateTime.class) : null);
+    }
+}
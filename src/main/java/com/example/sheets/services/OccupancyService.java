@@ -0,0 +1,126 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.EmailTableRow;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Service
+public class OccupancyService {
+
+    // Sync writes hold this advisory lock in shared mode while they apply counter deltas; a recount takes it
+    // exclusively so it never overwrites deltas committed between its read of patients and its write.
+    public static final long OCCUPANCY_LOCK_KEY = 0x6f63637570616e63L;
+
+    public static final double OCCUPANCY_THRESHOLD = 0.9;
+
+    private static final String LOCK_SHARED = "SELECT pg_advisory_xact_lock_shared(" + OCCUPANCY_LOCK_KEY + ")";
+    private static final String LOCK_EXCLUSIVE = "SELECT pg_advisory_xact_lock(" + OCCUPANCY_LOCK_KEY + ")";
+
+    private static final String CHECK_CHANGED_HOSPITALS = "WITH checked AS (" +
+            "UPDATE hospital_occupancy o SET dirty = false, " +
+            "over_threshold = COALESCE(o.general_occupied > ? * h.general_bed_count OR o.icu_occupied > ? * h.icu_bed_count, false) " +
+            "FROM hospital_occupancy previous LEFT JOIN hospitals h ON h.id = previous.hospital_id " +
+            "WHERE previous.hospital_id = o.hospital_id AND o.dirty " +
+            "RETURNING o.hospital_id, h.name, h.general_bed_count, o.general_occupied, h.icu_bed_count, o.icu_occupied, " +
+            "o.over_threshold, previous.over_threshold AS was_over_threshold" +
+            ") " +
+            "SELECT hospital_id, name, general_bed_count, general_occupied, icu_bed_count, icu_occupied FROM checked " +
+            "WHERE over_threshold AND NOT was_over_threshold ORDER BY hospital_id";
+
+    private static final String RECOUNT = "WITH actual AS (" +
+            "SELECT hospital_id, COUNT(*) FILTER (WHERE bed_type = 'General') AS general_occupied, COUNT(*) FILTER (WHERE bed_type = 'ICU') AS icu_occupied " +
+            "FROM patients GROUP BY hospital_id" +
+            "), drifted AS (" +
+            "SELECT COALESCE(a.hospital_id, o.hospital_id) AS hospital_id, COALESCE(a.general_occupied, 0) AS general_occupied, COALESCE(a.icu_occupied, 0) AS icu_occupied " +
+            "FROM actual a FULL JOIN hospital_occupancy o ON o.hospital_id = a.hospital_id " +
+            "WHERE o.hospital_id IS NULL OR (COALESCE(a.general_occupied, 0), COALESCE(a.icu_occupied, 0)) <> (o.general_occupied, o.icu_occupied)" +
+            ") " +
+            "INSERT INTO hospital_occupancy (hospital_id, general_occupied, icu_occupied, dirty) " +
+            "SELECT hospital_id, general_occupied, icu_occupied, true FROM drifted " +
+            "ON CONFLICT (hospital_id) DO UPDATE SET general_occupied = EXCLUDED.general_occupied, icu_occupied = EXCLUDED.icu_occupied, dirty = true";
+
+    private static final String OCCUPANCY_ADD_ON_CONFLICT = "ON CONFLICT (hospital_id) DO UPDATE SET " +
+            "general_occupied = hospital_occupancy.general_occupied + EXCLUDED.general_occupied, " +
+            "icu_occupied = hospital_occupancy.icu_occupied + EXCLUDED.icu_occupied, dirty = true";
+
+    // CTEs appended to the hospital upsert and the patient delete of the sync (see TabMapping.onUpserted/onDeleted).
+    public static final String MARK_UPSERTED_HOSPITALS_DIRTY = "marked AS (" +
+            "INSERT INTO hospital_occupancy (hospital_id, dirty) SELECT id, true FROM upserted " +
+            "ON CONFLICT (hospital_id) DO UPDATE SET dirty = true" +
+            ")";
+    public static final String SUBTRACT_DELETED_PATIENTS = "applied AS (" +
+            "INSERT INTO hospital_occupancy (hospital_id, general_occupied, icu_occupied, dirty) " +
+            "SELECT hospital_id, -COUNT(*) FILTER (WHERE bed_type = 'General'), -COUNT(*) FILTER (WHERE bed_type = 'ICU'), true " +
+            "FROM deleted GROUP BY hospital_id ORDER BY hospital_id " +
+            OCCUPANCY_ADD_ON_CONFLICT +
+            ")";
+
+    // The deltas are computed from the current patients rows, so concurrent upserts of the same patient (pushed edits
+    // next to the hourly run, shards of a retried run) are serialized per id first. The advisory locks cover ids that
+    // are not in patients yet; the row locks make the deletes of the hourly run wait as well.
+    private static final String LOCK_STAGED_PATIENT_IDS = "SELECT pg_advisory_xact_lock(hashtext('patients'), hashtext(id)) " +
+            "FROM (SELECT DISTINCT id FROM patients_stage ORDER BY id) staged";
+    private static final String LOCK_STAGED_PATIENT_ROWS = "SELECT id FROM patients WHERE id IN (SELECT id FROM patients_stage) ORDER BY id FOR UPDATE";
+
+    private static final String APPLY_STAGED_PATIENT_DELTAS = "WITH staged AS (" +
+            "SELECT DISTINCT ON (id) id, bed_type, hospital_id FROM patients_stage ORDER BY id" +
+            "), deltas AS (" +
+            "SELECT p.hospital_id, p.bed_type, -1 AS delta FROM staged s JOIN patients p ON p.id = s.id " +
+            "WHERE (p.bed_type, p.hospital_id) IS DISTINCT FROM (s.bed_type, s.hospital_id) " +
+            "UNION ALL " +
+            "SELECT s.hospital_id, s.bed_type, 1 AS delta FROM staged s LEFT JOIN patients p ON p.id = s.id " +
+            "WHERE p.id IS NULL OR (p.bed_type, p.hospital_id) IS DISTINCT FROM (s.bed_type, s.hospital_id)" +
+            ") " +
+            "INSERT INTO hospital_occupancy (hospital_id, general_occupied, icu_occupied, dirty) " +
+            "SELECT hospital_id, COALESCE(SUM(delta) FILTER (WHERE bed_type = 'General'), 0), COALESCE(SUM(delta) FILTER (WHERE bed_type = 'ICU'), 0), true " +
+            "FROM deltas GROUP BY hospital_id ORDER BY hospital_id " +
+            OCCUPANCY_ADD_ON_CONFLICT;
+
+    private static final String MARK_ALL_DIRTY = "UPDATE hospital_occupancy SET dirty = true WHERE NOT dirty";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public void lockForDeltas()
+    {
+        jdbcTemplate.execute(LOCK_SHARED);
+    }
+
+    // Must run in the upsert transaction, after patients_stage is filled and before it is applied to patients.
+    public void applyStagedPatientDeltas()
+    {
+        lockForDeltas();
+        jdbcTemplate.execute(LOCK_STAGED_PATIENT_IDS);
+        jdbcTemplate.execute(LOCK_STAGED_PATIENT_ROWS);
+        jdbcTemplate.update(APPLY_STAGED_PATIENT_DELTAS);
+    }
+
+    @Transactional
+    public List<EmailTableRow> checkChangedHospitals(double occupancyThreshold)
+    {
+        return jdbcTemplate.query(CHECK_CHANGED_HOSPITALS, (rs, rowNum) -> new EmailTableRow(
+                rs.getString("hospital_id"),
+                rs.getString("name"),
+                rs.getInt("general_bed_count"),
+                rs.getLong("general_occupied"),
+                rs.getInt("icu_bed_count"),
+                rs.getLong("icu_occupied")
+        ), occupancyThreshold, occupancyThreshold);
+    }
+
+    @Transactional
+    public int recount(boolean markAllDirty)
+    {
+        jdbcTemplate.execute(LOCK_EXCLUSIVE);
+        int driftedHospitals = jdbcTemplate.update(RECOUNT);
+        if(markAllDirty)
+        {
+            jdbcTemplate.update(MARK_ALL_DIRTY);
+        }
+        return driftedHospitals;
+    }
+}
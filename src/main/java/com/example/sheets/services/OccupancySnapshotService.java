@@ -0,0 +1,145 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.BedTypeOccupancy;
+import com.example.sheets.dtos.OccupancyRow;
+import com.example.sheets.dtos.OccupancySnapshot;
+import com.example.sheets.utils.RowHash;
+import com.example.sheets.utils.SyncTargetContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Serves occupancy reads from memory. The snapshot is rebuilt from the maintained counters in hospital_occupancy
+// (one query, no GROUP BY over patients) after every sync, recount or applied batch of pushed edits, and swapped in
+// atomically; readers never touch the database in between. Every sync target has its own snapshot.
+//
+// The instance that made the change also moves occupancy_version. Every instance reads it every
+// occupancy.snapshot.check-interval-ms and rebuilds the snapshots that were built at an older version, so changes
+// made by a sync that ran on another instance are served within that interval.
+@Slf4j
+@Service
+public class OccupancySnapshotService {
+
+    private static final String SELECT_OCCUPANCY = "SELECT h.id, h.name, h.location, h.general_bed_count, h.icu_bed_count, " +
+            "COALESCE(o.general_occupied, 0) AS general_occupied, COALESCE(o.icu_occupied, 0) AS icu_occupied " +
+            "FROM hospitals h LEFT JOIN hospital_occupancy o ON o.hospital_id = h.id";
+    private static final String SELECT_VERSION = "SELECT version FROM occupancy_version";
+    private static final String NEXT_VERSION = "UPDATE occupancy_version SET version = version + 1 RETURNING version";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SyncTargetService syncTargetService;
+
+    private final Map<String, OccupancySnapshot> snapshots = new ConcurrentHashMap<>();
+
+    // Throws IllegalArgumentException for an unknown sync target.
+    public OccupancySnapshot current(String tenantKey) throws Exception
+    {
+        OccupancySnapshot current = snapshots.get(tenantKey);
+        return (current != null) ? current : syncTargetService.runAs(tenantKey, () -> rebuild(jdbcTemplate.queryForObject(SELECT_VERSION, Long.class)));
+    }
+
+    // Rebuilds the current sync target's snapshot after a change to occupancy has been committed, and tells the other
+    // instances to do the same.
+    public OccupancySnapshot refresh()
+    {
+        return rebuild(jdbcTemplate.queryForObject(NEXT_VERSION, Long.class));
+    }
+
+    @Scheduled(fixedDelayString = "${occupancy.snapshot.check-interval-ms}")
+    public void refreshStale()
+    {
+        for(Map.Entry<String, OccupancySnapshot> snapshot: snapshots.entrySet())
+        {
+            try
+            {
+                syncTargetService.runAs(snapshot.getKey(), () -> {
+                    long version = jdbcTemplate.queryForObject(SELECT_VERSION, Long.class);
+                    return (version != snapshot.getValue().getVersion()) ? rebuild(version) : null;
+                });
+            }
+            catch (Exception e)
+            {
+                log.warn("{}: failed to check the occupancy snapshot", snapshot.getKey(), e);
+            }
+        }
+    }
+
+    // The version is read before the data, so a snapshot never claims a newer version than its data; a change committed
+    // in between only costs one more rebuild at the next check.
+    private synchronized OccupancySnapshot rebuild(long version)
+    {
+        double threshold = OccupancyService.OCCUPANCY_THRESHOLD;
+        List<OccupancyRow> hospitals = jdbcTemplate.query(SELECT_OCCUPANCY, (rs, rowNum) -> {
+            int generalBedCount = rs.getInt("general_bed_count");
+            int generalOccupied = rs.getInt("general_occupied");
+            int icuBedCount = rs.getInt("icu_bed_count");
+            int icuOccupied = rs.getInt("icu_occupied");
+            return new OccupancyRow(rs.getString("id"), rs.getString("name"), rs.getString("location"), generalBedCount, generalOccupied, icuBedCount, icuOccupied,
+                    generalOccupied > threshold * generalBedCount || icuOccupied > threshold * icuBedCount);
+        });
+        // Sorted here rather than in SQL, so that the order matches the binary search over ids regardless of collation.
+        hospitals.sort(Comparator.comparing(OccupancyRow::getId));
+
+        List<OccupancyRow> overThreshold = new ArrayList<>();
+        long digest = 0;
+        long generalBeds = 0;
+        long generalOccupied = 0;
+        long icuBeds = 0;
+        long icuOccupied = 0;
+        int generalOverThreshold = 0;
+        int icuOverThreshold = 0;
+        for(OccupancyRow hospital: hospitals)
+        {
+            if(hospital.isOverThreshold())
+            {
+                overThreshold.add(hospital);
+            }
+            generalBeds += hospital.getGeneralBedCount();
+            generalOccupied += hospital.getGeneralOccupied();
+            icuBeds += hospital.getIcuBedCount();
+            icuOccupied += hospital.getIcuOccupied();
+            generalOverThreshold += (hospital.getGeneralOccupied() > threshold * hospital.getGeneralBedCount()) ? 1 : 0;
+            icuOverThreshold += (hospital.getIcuOccupied() > threshold * hospital.getIcuBedCount()) ? 1 : 0;
+
+            long hash = RowHash.start();
+            hash = RowHash.mix(hash, hospital.getId());
+            hash = RowHash.mix(hash, String.valueOf(hospital.getName()));
+            hash = RowHash.mix(hash, String.valueOf(hospital.getLocation()));
+            hash = RowHash.combine(RowHash.combine(hash, hospital.getGeneralBedCount()), hospital.getGeneralOccupied());
+            hash = RowHash.combine(RowHash.combine(hash, hospital.getIcuBedCount()), hospital.getIcuOccupied());
+            digest = RowHash.combine(digest, RowHash.finish(hash));
+        }
+
+        List<BedTypeOccupancy> bedTypes = Arrays.asList(
+                new BedTypeOccupancy("General", generalBeds, generalOccupied, generalOverThreshold),
+                new BedTypeOccupancy("ICU", icuBeds, icuOccupied, icuOverThreshold)
+        );
+        OccupancySnapshot next = new OccupancySnapshot(String.format("\"%016x\"", RowHash.finish(digest)), version, System.currentTimeMillis(),
+                ids(hospitals), Collections.unmodifiableList(hospitals), ids(overThreshold), Collections.unmodifiableList(overThreshold), Collections.unmodifiableList(bedTypes));
+        snapshots.put(SyncTargetContext.getTenantKey(), next);
+        return next;
+    }
+
+    private static String[] ids(List<OccupancyRow> rows)
+    {
+        String[] ids = new String[rows.size()];
+        for(int i = 0; i < ids.length; i++)
+        {
+            ids[i] = rows.get(i).getId();
+        }
+        return ids;
+    }
+}
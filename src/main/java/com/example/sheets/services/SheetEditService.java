@@ -0,0 +1,154 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.SheetEdit;
+import com.example.sheets.dtos.TabSyncResult;
+import com.example.sheets.dtos.WindowCheckpoint;
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.utils.SyncTargetContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Collects edited rows per sync target and tab, de-duplicated, and applies them every sync.push.batch-interval-ms:
+// one batchGet per tab for all of its edited rows, then the same decode -> diff -> write stages as the hourly sync,
+// run as the target the edits came from. Tabs are applied in mapping order, so an edited hospital is written before
+// the patients that reference it. Edits are kept in memory only; anything lost (restart, overflow, failed batch) is
+// picked up by the hourly sync.
+@Slf4j
+@Service
+public class SheetEditService {
+
+    @Autowired
+    private TabSyncService tabSyncService;
+
+    @Autowired
+    private OccupancySnapshotService occupancySnapshotService;
+
+    @Autowired
+    private SyncTargetService syncTargetService;
+
+    @Autowired
+    private List<CompiledTabMapping<?>> tabMappings;
+
+    @Value("${sync.push.max-pending-rows}")
+    private int maxPendingRows;
+
+    @Value("${sheets.fetch.max-window-rows}")
+    private int maxWindowRows;
+
+    // Edited rows by tenant key, then by tab.
+    private Map<String, Map<String, BitSet>> pendingRows = new HashMap<>();
+
+    public boolean isSynced(String sheetName)
+    {
+        for(CompiledTabMapping<?> mapping: tabMappings)
+        {
+            if(mapping.getSheetName().equals(sheetName))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns false when the edit would take the tab over sync.push.max-pending-rows; only that edit is left to the
+    // hourly sync, the rows already pending are still applied.
+    public synchronized boolean record(SheetEdit edit)
+    {
+        BitSet rows = pendingRows.computeIfAbsent(edit.getTenant(), tenantKey -> new HashMap<>()).computeIfAbsent(edit.getSheet(), sheetName -> new BitSet());
+        BitSet added = new BitSet();
+        added.set(Math.max(2, edit.getStartRow()), edit.getLastRow() + 1);
+        added.andNot(rows);
+        if((long) rows.cardinality() + added.cardinality() > maxPendingRows)
+        {
+            log.warn("{}/{}: more than {} edited rows pending, leaving rows {}-{} to the hourly sync", edit.getTenant(), edit.getSheet(), maxPendingRows, edit.getStartRow(), edit.getLastRow());
+            return false;
+        }
+        rows.or(added);
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${sync.push.batch-interval-ms}")
+    public void applyPending()
+    {
+        Map<String, Map<String, BitSet>> batches;
+        synchronized(this)
+        {
+            if(pendingRows.isEmpty())
+            {
+                return;
+            }
+            batches = pendingRows;
+            pendingRows = new HashMap<>();
+        }
+
+        for(Map.Entry<String, Map<String, BitSet>> batch: batches.entrySet())
+        {
+            try
+            {
+                syncTargetService.runAs(batch.getKey(), () -> {
+                    apply(batch.getValue());
+                    return null;
+                });
+            }
+            catch (Exception e)
+            {
+                log.warn("{}: failed to apply edits, leaving them to the hourly sync", batch.getKey(), e);
+            }
+        }
+    }
+
+    private void apply(Map<String, BitSet> batch)
+    {
+        long rowsWritten = 0;
+
+        for(CompiledTabMapping<?> mapping: tabMappings)
+        {
+            BitSet rows = batch.get(mapping.getSheetName());
+            if(rows == null || rows.isEmpty())
+            {
+                continue;
+            }
+
+            try
+            {
+                TabSyncResult result = tabSyncService.syncRows(mapping, windows(rows));
+                for(String rejectedRow: result.getRejectedRows())
+                {
+                    log.warn("rejected edited {}", rejectedRow);
+                }
+                log.info("applied edits: {}", result);
+                rowsWritten += result.getRowsWritten().sum();
+            }
+            catch (Exception e)
+            {
+                log.warn("{}/{}: failed to apply {} edited rows, leaving them to the hourly sync", SyncTargetContext.getTenantKey(), mapping.getSheetName(), rows.cardinality(), e);
+            }
+        }
+
+        if(rowsWritten > 0)
+        {
+            occupancySnapshotService.refresh();
+        }
+    }
+
+    private List<WindowCheckpoint> windows(BitSet rows)
+    {
+        List<WindowCheckpoint> windows = new ArrayList<>();
+        for(int startingRow = rows.nextSetBit(0); startingRow >= 0; )
+        {
+            int endingRow = Math.min(rows.nextClearBit(startingRow), startingRow + maxWindowRows) - 1;
+            windows.add(new WindowCheckpoint(startingRow, endingRow, 0));
+            startingRow = rows.nextSetBit(endingRow + 1);
+        }
+        return windows;
+    }
+}
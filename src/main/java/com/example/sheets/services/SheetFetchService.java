@@ -0,0 +1,331 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.BlockDigest;
+import com.example.sheets.dtos.SyncWindow;
+import com.example.sheets.dtos.TabSyncResult;
+import com.example.sheets.dtos.WindowCheckpoint;
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.utils.RowBuffer;
+import com.example.sheets.utils.RowHash;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class SheetFetchService {
+
+    @Autowired
+    private SheetSource sheetSource;
+
+    @Autowired
+    private BlockDigestService blockDigestService;
+
+    @Autowired
+    private SyncCheckpointService syncCheckpointService;
+
+    @Value("${sheets.fetch.max-cells-per-request}")
+    private int maxCellsPerRequest;
+
+    @Value("${sheets.fetch.max-ranges-per-request}")
+    private int maxRangesPerRequest;
+
+    @Value("${sheets.fetch.min-window-rows}")
+    private int minWindowRows;
+
+    @Value("${sheets.fetch.max-window-rows}")
+    private int maxWindowRows;
+
+    @Value("${sheets.blocks.rows}")
+    private int blockRows;
+
+    @Value("${sheets.blocks.full-verify-every}")
+    private int fullVerifyEvery;
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class FetchPlan
+    {
+        private final String sheetName;
+        private final RowBuffer.ColumnType[] columnTypes;
+        private final int lastRow;
+        private final long[] signalDigests;
+        private final boolean[] fetchedBlocks;
+        private final Map<Integer, BlockDigest> storedBlocks;
+        private final List<WindowCheckpoint> windows = new ArrayList<>();
+        private final List<WindowCheckpoint> pendingWindows = new ArrayList<>();
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class FetchGroup
+    {
+        private final List<WindowCheckpoint> windows = new ArrayList<>();
+        private final List<String> ranges = new ArrayList<>();
+    }
+
+    // The first request reads the ID column and the probe columns over the whole tab. Their per-block digests
+    // are compared with the ones stored by the previous run, and only blocks whose signals changed (or whose
+    // turn it is to be re-verified) are planned for download, in windows sized from the number of rows to
+    // download. Signals only cover the ID and probe columns: an edit to any other column is picked up when its
+    // block is next verified, at most sheets.blocks.full-verify-every runs later. When an unfinished run left a
+    // checkpoint for the same ID column, windows it committed are not pending again as long as their rows' signals
+    // are unchanged.
+    public FetchPlan plan(CompiledTabMapping<?> mapping, String runId, TabSyncResult result) throws IOException
+    {
+        String sheetName = mapping.getSheetName();
+        char startingColumn = mapping.getStartingColumn();
+        RowBuffer.ColumnType[] columnTypes = mapping.getColumnTypes();
+        char probeStartingColumn = mapping.getProbeStartingColumn();
+        char probeEndingColumn = mapping.getProbeEndingColumn();
+        int columnCount = columnTypes.length;
+        char endingColumn = (char) (startingColumn + columnCount - 1);
+        RowBuffer.ColumnType[] probeTypes = new RowBuffer.ColumnType[probeEndingColumn - probeStartingColumn + 1];
+        Arrays.fill(probeTypes, RowBuffer.ColumnType.TEXT);
+
+        RowBuffer idList = new RowBuffer(1, RowBuffer.ColumnType.TEXT);
+        RowBuffer probeList = new RowBuffer(1, probeTypes);
+        batchGet(Arrays.asList(
+                String.format("%s!%c:%c", sheetName, startingColumn, startingColumn),
+                String.format("%s!%c:%c", sheetName, probeStartingColumn, probeEndingColumn)
+        ), Arrays.asList(idList, probeList), result);
+
+        int lastRow = idList.size();
+        int blockCount = Math.max(0, (lastRow - 1 + blockRows - 1) / blockRows);
+        long[] signalDigests = new long[blockCount];
+        long[] rowSignals = new long[Math.max(0, lastRow - 1)];
+        long idDigest = 0;
+        long emptyProbe = RowHash.start();
+        for(int column = 0; column < probeTypes.length; column++)
+        {
+            emptyProbe = RowHash.mix(emptyProbe, "");
+        }
+        for(int row = 2; row <= lastRow; row++)
+        {
+            String id = idList.getText(row - 1, 0);
+            long probeHash = (row - 1 < probeList.size()) ? probeList.getHash(row - 1) : emptyProbe;
+            long rowSignal = RowHash.finish(RowHash.mix(probeHash, id));
+            int block = (row - 2) / blockRows;
+            signalDigests[block] = RowHash.combine(signalDigests[block], rowSignal);
+            rowSignals[row - 2] = rowSignal;
+            idDigest = RowHash.combine(idDigest, RowHash.finish(RowHash.mix(RowHash.start(), id)));
+        }
+        Map<Integer, WindowCheckpoint> checkpoints = syncCheckpointService.begin(sheetName, runId, lastRow, RowHash.finish(idDigest));
+
+        long runCount = blockDigestService.getRunCount(sheetName);
+        FetchPlan plan = new FetchPlan(sheetName, columnTypes, lastRow, signalDigests, new boolean[blockCount], blockDigestService.getBlocks(sheetName));
+        List<int[]> segments = new ArrayList<>();
+        int rowsToFetch = 0;
+        for(int block = 0; block < blockCount; block++)
+        {
+            BlockDigest storedBlock = plan.getStoredBlocks().get(block);
+            int firstRow = 2 + block * blockRows;
+            int blockLastRow = Math.min(lastRow, firstRow + blockRows - 1);
+            plan.getFetchedBlocks()[block] = storedBlock == null
+                    || storedBlock.getSignalDigest() != signalDigests[block]
+                    || storedBlock.getRowCount() != blockLastRow - firstRow + 1
+                    || (runCount + block) % fullVerifyEvery == 0;
+
+            if(!plan.getFetchedBlocks()[block])
+            {
+                result.getBlocksSkipped().increment();
+                continue;
+            }
+
+            result.getBlocksFetched().increment();
+            rowsToFetch += blockLastRow - firstRow + 1;
+            if(!segments.isEmpty() && segments.get(segments.size() - 1)[1] == firstRow - 1)
+            {
+                segments.get(segments.size() - 1)[1] = blockLastRow;
+            }
+            else
+            {
+                segments.add(new int[]{firstRow, blockLastRow});
+            }
+        }
+
+        int rowsPerRequest = Math.max(1, maxCellsPerRequest / columnCount);
+        int windowRows = clamp((Math.min(rowsToFetch, rowsPerRequest) + maxRangesPerRequest - 1) / maxRangesPerRequest, minWindowRows, maxWindowRows);
+        for(int[] segment: segments)
+        {
+            int nextRow = segment[0];
+            while(nextRow <= segment[1])
+            {
+                int endingRow = Math.min(segment[1], nextRow + windowRows - 1);
+                long windowSignal = 0;
+                for(int row = nextRow; row <= endingRow; row++)
+                {
+                    windowSignal = RowHash.combine(windowSignal, rowSignals[row - 2]);
+                }
+
+                WindowCheckpoint window = new WindowCheckpoint(nextRow, endingRow, windowSignal);
+                plan.getWindows().add(window);
+                if(window.isCommittedIn(checkpoints))
+                {
+                    result.getWindowsResumed().increment();
+                    result.getRowsResumed().add(endingRow - nextRow + 1);
+                }
+                else
+                {
+                    plan.getPendingWindows().add(window);
+                }
+                nextRow = endingRow + 1;
+            }
+        }
+
+        return plan;
+    }
+
+    // A plan stored by the run that made it, for finalizing the tab in another job.
+    public FetchPlan restore(CompiledTabMapping<?> mapping, int lastRow, long[] signalDigests, boolean[] fetchedBlocks, List<WindowCheckpoint> windows)
+    {
+        FetchPlan plan = new FetchPlan(mapping.getSheetName(), mapping.getColumnTypes(), lastRow, signalDigests, fetchedBlocks, blockDigestService.getBlocks(mapping.getSheetName()));
+        plan.getWindows().addAll(windows);
+        return plan;
+    }
+
+    // Reads the ID column again for the deletes of a finalized tab, so that they go by the tab as it is now.
+    public void fetchIds(CompiledTabMapping<?> mapping, TabSyncResult result) throws IOException
+    {
+        char startingColumn = mapping.getStartingColumn();
+        RowBuffer idList = new RowBuffer(1, RowBuffer.ColumnType.TEXT);
+        batchGet(Collections.singletonList(String.format("%s!%c:%c", mapping.getSheetName(), startingColumn, startingColumn)), Collections.singletonList(idList), result);
+        for(int row = 1; row < idList.size(); row++)
+        {
+            String id = idList.getText(row, 0);
+            if(!id.isEmpty())
+            {
+                result.getIds().add(id);
+            }
+        }
+    }
+
+    // Groups windows so that every batchGet request carries close to maxCellsPerRequest cells.
+    public List<FetchGroup> group(CompiledTabMapping<?> mapping, List<WindowCheckpoint> windows)
+    {
+        char startingColumn = mapping.getStartingColumn();
+        int columnCount = mapping.getColumnCount();
+        char endingColumn = (char) (startingColumn + columnCount - 1);
+        List<FetchGroup> groups = new ArrayList<>();
+        FetchGroup group = new FetchGroup();
+        int cells = 0;
+        for(WindowCheckpoint window: windows)
+        {
+            int windowCells = (window.getEndingRow() - window.getStartingRow() + 1) * columnCount;
+            if(!group.getWindows().isEmpty() && (group.getWindows().size() == maxRangesPerRequest || cells + windowCells > maxCellsPerRequest))
+            {
+                groups.add(group);
+                group = new FetchGroup();
+                cells = 0;
+            }
+
+            for(int block = (window.getStartingRow() - 2) / blockRows; block <= (window.getEndingRow() - 2) / blockRows; block++)
+            {
+                window.getContentDigests().put(block, 0L);
+            }
+            group.getWindows().add(window);
+            group.getRanges().add(String.format("%s!%c%d:%c%d", mapping.getSheetName(), startingColumn, window.getStartingRow(), endingColumn, window.getEndingRow()));
+            cells += windowCells;
+        }
+        if(!group.getWindows().isEmpty())
+        {
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    // Each window's contribution to the content digests of the blocks it spans is kept on its checkpoint, which is
+    // committed together with the window's writes.
+    public List<SyncWindow> fetchGroup(RowBuffer.ColumnType[] columnTypes, FetchGroup group, TabSyncResult result) throws IOException
+    {
+        List<RowBuffer> buffers = new ArrayList<>();
+        for(WindowCheckpoint window: group.getWindows())
+        {
+            buffers.add(new RowBuffer(window.getStartingRow(), window.getEndingRow() - window.getStartingRow() + 1, columnTypes));
+        }
+        batchGet(group.getRanges(), buffers, result);
+
+        // Empty windows are passed on as well, so that they are checkpointed like any other.
+        List<SyncWindow> windows = new ArrayList<>();
+        for(int i = 0; i < buffers.size(); i++)
+        {
+            RowBuffer rows = buffers.get(i);
+            WindowCheckpoint checkpoint = group.getWindows().get(i);
+            int startingRow = rows.getStartingRow();
+            for(int j = 0; j < rows.size(); j++)
+            {
+                int block = (startingRow + j - 2) / blockRows;
+                long rowDigest = RowHash.finish(RowHash.combine(startingRow + j, RowHash.finish(rows.getHash(j))));
+                checkpoint.getContentDigests().merge(block, rowDigest, Long::sum);
+            }
+
+            if(!rows.isEmpty())
+            {
+                result.getWindows().increment();
+                result.getRowsRead().add(rows.size());
+            }
+            windows.add(new SyncWindow(startingRow, rows, checkpoint));
+        }
+        return windows;
+    }
+
+    // Block content digests are summed from the checkpoints of the planned windows, so every one of them must
+    // have committed, in this run or in the one it resumed.
+    public void complete(FetchPlan plan, TabSyncResult result)
+    {
+        long[] contentDigests = new long[plan.getFetchedBlocks().length];
+        Map<Integer, WindowCheckpoint> checkpoints = syncCheckpointService.getWindows(plan.getSheetName());
+        for(WindowCheckpoint window: plan.getWindows())
+        {
+            if(!window.isCommittedIn(checkpoints))
+            {
+                throw new IllegalStateException(String.format("%s rows %d-%d were not committed", plan.getSheetName(), window.getStartingRow(), window.getEndingRow()));
+            }
+            for(Map.Entry<Integer, Long> blockDigest: checkpoints.get(window.getStartingRow()).getContentDigests().entrySet())
+            {
+                contentDigests[blockDigest.getKey()] += blockDigest.getValue();
+            }
+        }
+
+        List<BlockDigest> updatedBlocks = new ArrayList<>();
+        long rootDigest = 0;
+        for(int block = 0; block < plan.getFetchedBlocks().length; block++)
+        {
+            BlockDigest blockDigest = plan.getStoredBlocks().get(block);
+            if(plan.getFetchedBlocks()[block])
+            {
+                int firstRow = 2 + block * blockRows;
+                int blockRowCount = Math.min(plan.getLastRow(), firstRow + blockRows - 1) - firstRow + 1;
+                long contentDigest = contentDigests[block];
+                if(blockDigest == null || blockDigest.getContentDigest() != contentDigest)
+                {
+                    result.getBlocksChanged().increment();
+                }
+                blockDigest = new BlockDigest(block, blockRowCount, plan.getSignalDigests()[block], contentDigest);
+                updatedBlocks.add(blockDigest);
+            }
+            rootDigest = RowHash.combine(RowHash.combine(rootDigest, blockDigest.getSignalDigest()), blockDigest.getContentDigest());
+        }
+
+        blockDigestService.save(plan.getSheetName(), plan.getLastRow(), RowHash.finish(rootDigest), plan.getFetchedBlocks().length, updatedBlocks);
+    }
+
+    private void batchGet(List<String> ranges, List<RowBuffer> buffers, TabSyncResult result) throws IOException
+    {
+        sheetSource.batchGet(ranges, buffers);
+        result.getHttpRequests().increment();
+    }
+
+    private static int clamp(int value, int min, int max)
+    {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.sheets.services;
+
+import com.example.sheets.utils.RowBuffer;
+
+import java.io.IOException;
+import java.util.List;
+
+public interface SheetSource {
+    // Decodes the rows of each requested A1 range into the buffer at the same index; a range with no values leaves
+    // its buffer empty.
+    void batchGet(List<String> ranges, List<RowBuffer> buffers) throws IOException;
+}
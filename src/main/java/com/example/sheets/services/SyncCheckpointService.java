@@ -0,0 +1,86 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.WindowCheckpoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Progress of an unfinished tab sync: the windows whose writes have committed, each with the signal digest it
+// was planned with and its contribution to the block content digests. A run that finds a checkpoint for the
+// same ID column resumes from it; any other run starts over.
+@Service
+public class SyncCheckpointService {
+
+    private static final String SELECT_CHECKPOINT = "SELECT run_id, row_count, id_digest FROM sync_checkpoints WHERE sheet_name = ? FOR UPDATE";
+    private static final String SELECT_WINDOWS = "SELECT starting_row, ending_row, signal_digest, block_index, content_digest FROM sync_checkpoint_windows WHERE sheet_name = ?";
+    private static final String UPDATE_RUN_ID = "UPDATE sync_checkpoints SET run_id = ? WHERE sheet_name = ?";
+    private static final String UPSERT_CHECKPOINT = "INSERT INTO sync_checkpoints (sheet_name, run_id, row_count, id_digest, started_at) VALUES (?, ?, ?, ?, now()) " +
+            "ON CONFLICT (sheet_name) DO UPDATE SET run_id = EXCLUDED.run_id, row_count = EXCLUDED.row_count, id_digest = EXCLUDED.id_digest, started_at = EXCLUDED.started_at";
+    private static final String UPSERT_WINDOW = "INSERT INTO sync_checkpoint_windows (sheet_name, starting_row, ending_row, signal_digest, block_index, content_digest) VALUES (?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (sheet_name, starting_row, block_index) DO UPDATE SET ending_row = EXCLUDED.ending_row, signal_digest = EXCLUDED.signal_digest, content_digest = EXCLUDED.content_digest";
+    private static final String DELETE_WINDOWS = "DELETE FROM sync_checkpoint_windows WHERE sheet_name = ?";
+    private static final String DELETE_CHECKPOINT = "DELETE FROM sync_checkpoints WHERE sheet_name = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Returns the committed windows by starting row, or an empty map when the run starts over.
+    @Transactional
+    public Map<Integer, WindowCheckpoint> begin(String sheetName, String runId, int rowCount, long idDigest)
+    {
+        List<Boolean> resumable = jdbcTemplate.query(SELECT_CHECKPOINT, (rs, i) -> rs.getInt("row_count") == rowCount && rs.getLong("id_digest") == idDigest, sheetName);
+        if(!resumable.isEmpty() && resumable.get(0))
+        {
+            jdbcTemplate.update(UPDATE_RUN_ID, runId, sheetName);
+            return getWindows(sheetName);
+        }
+
+        jdbcTemplate.update(DELETE_WINDOWS, sheetName);
+        jdbcTemplate.update(UPSERT_CHECKPOINT, sheetName, runId, rowCount, idDigest);
+        return new HashMap<>();
+    }
+
+    public Map<Integer, WindowCheckpoint> getWindows(String sheetName)
+    {
+        Map<Integer, WindowCheckpoint> windows = new HashMap<>();
+        jdbcTemplate.query(SELECT_WINDOWS, rs -> {
+            int startingRow = rs.getInt("starting_row");
+            WindowCheckpoint window = windows.get(startingRow);
+            if(window == null)
+            {
+                window = new WindowCheckpoint(startingRow, rs.getInt("ending_row"), rs.getLong("signal_digest"));
+                windows.put(startingRow, window);
+            }
+            window.getContentDigests().put(rs.getInt("block_index"), rs.getLong("content_digest"));
+        }, sheetName);
+        return windows;
+    }
+
+    // Joins the caller's transaction, so a window is checkpointed exactly when its writes commit.
+    @Transactional
+    public void commitWindow(String sheetName, WindowCheckpoint window)
+    {
+        List<Map.Entry<Integer, Long>> blocks = new ArrayList<>(window.getContentDigests().entrySet());
+        jdbcTemplate.batchUpdate(UPSERT_WINDOW, blocks, blocks.size(), (ps, block) -> {
+            ps.setString(1, sheetName);
+            ps.setInt(2, window.getStartingRow());
+            ps.setInt(3, window.getEndingRow());
+            ps.setLong(4, window.getSignalDigest());
+            ps.setInt(5, block.getKey());
+            ps.setLong(6, block.getValue());
+        });
+    }
+
+    @Transactional
+    public void finish(String sheetName)
+    {
+        jdbcTemplate.update(DELETE_WINDOWS, sheetName);
+        jdbcTemplate.update(DELETE_CHECKPOINT, sheetName);
+    }
+}
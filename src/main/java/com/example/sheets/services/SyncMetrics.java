@@ -0,0 +1,138 @@
+package com.example.sheets.services;
+
+import com.example.sheets.utils.SyncTargetContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Meters of the sync and alert hot paths, exported at /actuator/prometheus. They are looked up once per sync target
+// (and tab) and recorded once per Sheets request, window or batch, never per row.
+@Component
+public class SyncMetrics {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final Map<String, TargetMeters> targetMeters = new ConcurrentHashMap<>();
+
+    private final Map<String, TabMeters> tabMeters = new ConcurrentHashMap<>();
+
+    @Getter
+    public static class TargetMeters
+    {
+        private final Timer sheetsRequests;
+        private final Timer sheetsRequestsThrottled;
+        private final Timer sheetsRequestsFailed;
+        private final Timer sheetsQuotaWait;
+        private final Counter sheetsResponseBytes;
+        private final Timer emailSend;
+        private final Timer emailSendFailed;
+        private final Counter emailsSent;
+        private final Counter emailsFailed;
+
+        private TargetMeters(MeterRegistry registry, String tenantKey)
+        {
+            sheetsRequests = registry.timer("sheets.requests", "tenant", tenantKey, "outcome", "success");
+            sheetsRequestsThrottled = registry.timer("sheets.requests", "tenant", tenantKey, "outcome", "throttled");
+            sheetsRequestsFailed = registry.timer("sheets.requests", "tenant", tenantKey, "outcome", "error");
+            sheetsQuotaWait = registry.timer("sheets.quota.wait", "tenant", tenantKey);
+            sheetsResponseBytes = registry.counter("sheets.response.bytes", "tenant", tenantKey);
+            emailSend = registry.timer("alert.email.send", "tenant", tenantKey, "outcome", "success");
+            emailSendFailed = registry.timer("alert.email.send", "tenant", tenantKey, "outcome", "error");
+            emailsSent = registry.counter("alert.emails", "tenant", tenantKey, "outcome", "sent");
+            emailsFailed = registry.counter("alert.emails", "tenant", tenantKey, "outcome", "failed");
+        }
+    }
+
+    @Getter
+    public static class TabMeters
+    {
+        private final Counter rowsRead;
+        private final Counter rowsRejected;
+        private final Counter rowsSkipped;
+        private final Counter rowsInserted;
+        private final Counter rowsUpdated;
+        private final Counter rowsDeleted;
+        private final Timer rowHashes;
+        private final Timer findAllById;
+        private final Timer saveAll;
+        private final Timer upsert;
+        private final Timer deleteMissing;
+        private final Map<String, Timer> stages = new HashMap<>();
+
+        private TabMeters(MeterRegistry registry, String tenantKey, String sheetName)
+        {
+            rowsRead = rows(registry, tenantKey, sheetName, "read");
+            rowsRejected = rows(registry, tenantKey, sheetName, "rejected");
+            rowsSkipped = rows(registry, tenantKey, sheetName, "skipped");
+            rowsInserted = rows(registry, tenantKey, sheetName, "inserted");
+            rowsUpdated = rows(registry, tenantKey, sheetName, "updated");
+            rowsDeleted = rows(registry, tenantKey, sheetName, "deleted");
+            rowHashes = db(registry, tenantKey, sheetName, "row-hashes");
+            findAllById = db(registry, tenantKey, sheetName, "find-all-by-id");
+            saveAll = db(registry, tenantKey, sheetName, "save-all");
+            upsert = db(registry, tenantKey, sheetName, "upsert");
+            deleteMissing = db(registry, tenantKey, sheetName, "delete-missing");
+            for(String stage: new String[] {"fetch", "decode", "diff", "write"})
+            {
+                stages.put(stage, registry.timer("sync.stage", "tenant", tenantKey, "tab", sheetName, "stage", stage));
+            }
+        }
+
+        // Time spent by one pipeline stage on one item.
+        public void recordStage(String stage, long nanos)
+        {
+            Timer timer = stages.get(stage);
+            if(timer != null)
+            {
+                timer.record(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private static Counter rows(MeterRegistry registry, String tenantKey, String sheetName, String outcome)
+        {
+            return registry.counter("sync.rows", "tenant", tenantKey, "tab", sheetName, "outcome", outcome);
+        }
+
+        private static Timer db(MeterRegistry registry, String tenantKey, String sheetName, String operation)
+        {
+            return registry.timer("sync.db", "tenant", tenantKey, "tab", sheetName, "operation", operation);
+        }
+    }
+
+    public SyncMetrics()
+    {
+    }
+
+    // For use outside Spring, e.g. with a SimpleMeterRegistry.
+    public SyncMetrics(MeterRegistry registry)
+    {
+        this.registry = registry;
+    }
+
+    // Meters of the current sync target.
+    public TargetMeters target()
+    {
+        return targetMeters.computeIfAbsent(SyncTargetContext.getTenantKey(), tenantKey -> new TargetMeters(registry, tenantKey));
+    }
+
+    // Meters of a tab of the current sync target.
+    public TabMeters tab(String sheetName)
+    {
+        String tenantKey = SyncTargetContext.getTenantKey();
+        return tabMeters.computeIfAbsent(tenantKey + "/" + sheetName, key -> new TabMeters(registry, tenantKey, sheetName));
+    }
+
+    public static void recordSince(Timer timer, long startNanos)
+    {
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.ShardProgress;
+import com.example.sheets.dtos.TabSyncResult;
+import com.example.sheets.dtos.WindowCheckpoint;
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.utils.SyncTargetContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// State of a sync run that outlives the job that started it: the run's status, which fences out the shards of a
+// superseded run, and the plan and counters of each of its tabs, which the job finalizing the tab picks up on
+// whichever node the last shard of the tab finished.
+@Service
+public class SyncRunService {
+
+    private static final String SUPERSEDE = "UPDATE sync_runs SET status = 'SUPERSEDED', finished_at = now() WHERE tenant_key = ? AND status = 'RUNNING'";
+    private static final String INSERT_RUN = "INSERT INTO sync_runs (run_id, tenant_key) VALUES (?, ?)";
+    private static final String SELECT_RUNNING = "SELECT 1 FROM sync_runs WHERE run_id = ? AND status = 'RUNNING'";
+    private static final String LOCK_RUNNING = SELECT_RUNNING + " FOR SHARE";
+    private static final String FAIL_RUN = "UPDATE sync_runs SET status = 'FAILED', error = ?, finished_at = now() WHERE run_id = ? AND status = 'RUNNING' " +
+            "RETURNING (EXTRACT(EPOCH FROM finished_at - started_at) * 1000)::bigint";
+    private static final String SUCCEED_RUN = "UPDATE sync_runs SET status = 'SUCCEEDED', finished_at = now() WHERE run_id = ? AND status = 'RUNNING' " +
+            "AND (SELECT COUNT(*) FROM sync_run_tabs WHERE run_id = ? AND status = 'FINALIZED') = ? " +
+            "RETURNING (EXTRACT(EPOCH FROM finished_at - started_at) * 1000)::bigint";
+    private static final String CLAIM_PLANNING = "INSERT INTO sync_run_tabs (run_id, sheet_name) VALUES (?, ?) ON CONFLICT (run_id, sheet_name) DO NOTHING";
+    private static final String RELEASE_PLANNING = "DELETE FROM sync_run_tabs WHERE run_id = ? AND sheet_name = ? AND status = 'PLANNING'";
+    private static final String SAVE_PLAN = "UPDATE sync_run_tabs SET status = 'PLANNED', last_row = ?, signal_digests = ?, fetched_blocks = ?, starting_rows = ?, ending_rows = ?, window_signal_digests = ?, " +
+            "shards = ?, http_requests = ?, blocks_fetched = ?, blocks_skipped = ?, windows_resumed = ?, rows_resumed = ? WHERE run_id = ? AND sheet_name = ?";
+    private static final String SELECT_TAB_STATUSES = "SELECT sheet_name, status FROM sync_run_tabs WHERE run_id = ?";
+    private static final String LOCK_PLANNED_TAB = "SELECT t.status FROM sync_run_tabs t JOIN sync_runs r ON r.run_id = t.run_id " +
+            "WHERE t.run_id = ? AND t.sheet_name = ? AND r.status = 'RUNNING' FOR UPDATE OF t";
+    private static final String CLAIM_FINALIZE = "UPDATE sync_run_tabs SET status = 'FINALIZING' WHERE run_id = ? AND sheet_name = ?";
+    private static final String SELECT_PLAN = "SELECT last_row, signal_digests, fetched_blocks, starting_rows, ending_rows, window_signal_digests FROM sync_run_tabs WHERE run_id = ? AND sheet_name = ?";
+    private static final String SELECT_RESULT = "SELECT shards, http_requests, blocks_fetched, blocks_skipped, blocks_changed, windows_resumed, rows_resumed, rows_deleted, delete_aborted, " +
+            "(EXTRACT(EPOCH FROM COALESCE(finished_at, now()) - started_at) * 1000)::bigint AS elapsed_millis " +
+            "FROM sync_run_tabs WHERE run_id = ? AND sheet_name = ?";
+    private static final String FINISH_TAB = "UPDATE sync_run_tabs SET status = 'FINALIZED', finished_at = now(), http_requests = ?, blocks_changed = ?, rows_deleted = ?, delete_aborted = ? " +
+            "WHERE run_id = ? AND sheet_name = ?";
+    private static final String DELETE_STALE_TABS = "DELETE FROM sync_run_tabs WHERE started_at < now() - interval '1 day'";
+    private static final String DELETE_STALE_RUNS = "DELETE FROM sync_runs WHERE started_at < now() - interval '1 day'";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SyncShardService syncShardService;
+
+    @Autowired
+    private SheetFetchService sheetFetchService;
+
+    // Waits for the window transactions of the target's run still in progress to commit, and fences out the rest.
+    @Transactional
+    public void start(String runId)
+    {
+        String tenantKey = SyncTargetContext.getTenantKey();
+        jdbcTemplate.update(SUPERSEDE, tenantKey);
+        jdbcTemplate.update(INSERT_RUN, runId, tenantKey);
+    }
+
+    public boolean isRunning(String runId)
+    {
+        return !jdbcTemplate.queryForList(SELECT_RUNNING, Integer.class, runId).isEmpty();
+    }
+
+    // Must run in the window's write transaction: the run cannot be superseded until it commits.
+    public boolean lockRunning(String runId)
+    {
+        return !jdbcTemplate.queryForList(LOCK_RUNNING, Integer.class, runId).isEmpty();
+    }
+
+    // Returns how long the run took when this call ended it, or null when it had already ended.
+    public Long fail(String runId, String error)
+    {
+        List<Long> elapsedMillis = jdbcTemplate.queryForList(FAIL_RUN, Long.class, error, runId);
+        return elapsedMillis.isEmpty() ? null : elapsedMillis.get(0);
+    }
+
+    // Ends the run once all of its tabs are finalized; only the call that ends it gets its duration back.
+    public Long succeed(String runId, int tabCount)
+    {
+        List<Long> elapsedMillis = jdbcTemplate.queryForList(SUCCEED_RUN, Long.class, runId, runId, tabCount);
+        return elapsedMillis.isEmpty() ? null : elapsedMillis.get(0);
+    }
+
+    // Returns false when another job already plans the tab in this run.
+    public boolean claimPlanning(String runId, String sheetName)
+    {
+        return jdbcTemplate.update(CLAIM_PLANNING, runId, sheetName) > 0;
+    }
+
+    public void releasePlanning(String runId, String sheetName)
+    {
+        jdbcTemplate.update(RELEASE_PLANNING, runId, sheetName);
+    }
+
+    public void savePlan(String runId, SheetFetchService.FetchPlan plan, TabSyncResult result)
+    {
+        List<WindowCheckpoint> windows = plan.getWindows();
+        Integer[] startingRows = new Integer[windows.size()];
+        Integer[] endingRows = new Integer[windows.size()];
+        Long[] windowSignalDigests = new Long[windows.size()];
+        for(int i = 0; i < windows.size(); i++)
+        {
+            startingRows[i] = windows.get(i).getStartingRow();
+            endingRows[i] = windows.get(i).getEndingRow();
+            windowSignalDigests[i] = windows.get(i).getSignalDigest();
+        }
+        Long[] signalDigests = new Long[plan.getSignalDigests().length];
+        for(int i = 0; i < signalDigests.length; i++)
+        {
+            signalDigests[i] = plan.getSignalDigests()[i];
+        }
+        Boolean[] fetchedBlocks = new Boolean[plan.getFetchedBlocks().length];
+        for(int i = 0; i < fetchedBlocks.length; i++)
+        {
+            fetchedBlocks[i] = plan.getFetchedBlocks()[i];
+        }
+
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(SAVE_PLAN);
+            ps.setInt(1, plan.getLastRow());
+            ps.setArray(2, connection.createArrayOf("int8", signalDigests));
+            ps.setArray(3, connection.createArrayOf("bool", fetchedBlocks));
+            ps.setArray(4, connection.createArrayOf("int4", startingRows));
+            ps.setArray(5, connection.createArrayOf("int4", endingRows));
+            ps.setArray(6, connection.createArrayOf("int8", windowSignalDigests));
+            ps.setInt(7, result.getShards());
+            ps.setLong(8, result.getHttpRequests().sum());
+            ps.setLong(9, result.getBlocksFetched().sum());
+            ps.setLong(10, result.getBlocksSkipped().sum());
+            ps.setLong(11, result.getWindowsResumed().sum());
+            ps.setLong(12, result.getRowsResumed().sum());
+            ps.setString(13, runId);
+            ps.setString(14, plan.getSheetName());
+            return ps;
+        });
+    }
+
+    public Map<String, String> getTabStatuses(String runId)
+    {
+        Map<String, String> statuses = new HashMap<>();
+        jdbcTemplate.query(SELECT_TAB_STATUSES, rs -> {
+            statuses.put(rs.getString(1), rs.getString(2));
+        }, runId);
+        return statuses;
+    }
+
+    // The tab's row lock serializes its shards, so of the shards finishing at once exactly one sees all of them
+    // done and gets to finalize the tab.
+    @Transactional
+    public boolean claimFinalize(String runId, String sheetName)
+    {
+        List<String> status = jdbcTemplate.queryForList(LOCK_PLANNED_TAB, String.class, runId, sheetName);
+        if(status.isEmpty() || !"PLANNED".equals(status.get(0)))
+        {
+            return false;
+        }
+
+        ShardProgress progress = syncShardService.getProgress(runId, sheetName);
+        if(!progress.isDone())
+        {
+            return false;
+        }
+        jdbcTemplate.update(CLAIM_FINALIZE, runId, sheetName);
+        return true;
+    }
+
+    public SheetFetchService.FetchPlan getPlan(String runId, CompiledTabMapping<?> mapping)
+    {
+        return jdbcTemplate.queryForObject(SELECT_PLAN, (rs, i) -> {
+            Long[] signalDigests = (Long[]) rs.getArray("signal_digests").getArray();
+            Boolean[] fetchedBlocks = (Boolean[]) rs.getArray("fetched_blocks").getArray();
+            Integer[] startingRows = (Integer[]) rs.getArray("starting_rows").getArray();
+            Integer[] endingRows = (Integer[]) rs.getArray("ending_rows").getArray();
+            Long[] windowSignalDigests = (Long[]) rs.getArray("window_signal_digests").getArray();
+
+            long[] blockSignals = new long[signalDigests.length];
+            boolean[] blocksFetched = new boolean[fetchedBlocks.length];
+            for(int block = 0; block < blockSignals.length; block++)
+            {
+                blockSignals[block] = signalDigests[block];
+                blocksFetched[block] = fetchedBlocks[block];
+            }
+            List<WindowCheckpoint> windows = new ArrayList<>(startingRows.length);
+            for(int window = 0; window < startingRows.length; window++)
+            {
+                windows.add(new WindowCheckpoint(startingRows[window], endingRows[window], windowSignalDigests[window]));
+            }
+            return sheetFetchService.restore(mapping, rs.getInt("last_row"), blockSignals, blocksFetched, windows);
+        }, runId, mapping.getSheetName());
+    }
+
+    // The counters of the tab's planning and finalizing; the shards' own are added by SyncShardService.addTotals.
+    public TabSyncResult getResult(String runId, String sheetName)
+    {
+        return jdbcTemplate.queryForObject(SELECT_RESULT, (rs, i) -> {
+            TabSyncResult result = new TabSyncResult(sheetName);
+            result.setShards(rs.getInt("shards"));
+            result.getHttpRequests().add(rs.getInt("http_requests"));
+            result.getBlocksFetched().add(rs.getInt("blocks_fetched"));
+            result.getBlocksSkipped().add(rs.getInt("blocks_skipped"));
+            result.getBlocksChanged().add(rs.getInt("blocks_changed"));
+            result.getWindowsResumed().add(rs.getInt("windows_resumed"));
+            result.getRowsResumed().add(rs.getLong("rows_resumed"));
+            result.setRowsDeleted(rs.getLong("rows_deleted"));
+            result.setDeleteAborted(rs.getBoolean("delete_aborted"));
+            result.setElapsedMillis(rs.getLong("elapsed_millis"));
+            return result;
+        }, runId, sheetName);
+    }
+
+    public void finishTab(String runId, TabSyncResult result)
+    {
+        jdbcTemplate.update(FINISH_TAB, result.getHttpRequests().sum(), result.getBlocksChanged().sum(), result.getRowsDeleted(), result.isDeleteAborted(), runId, result.getSheetName());
+    }
+
+    public void deleteStale()
+    {
+        jdbcTemplate.update(DELETE_STALE_TABS);
+        jdbcTemplate.update(DELETE_STALE_RUNS);
+    }
+}
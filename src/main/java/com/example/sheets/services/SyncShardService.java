@@ -0,0 +1,141 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.ShardProgress;
+import com.example.sheets.dtos.TabSyncResult;
+import com.example.sheets.dtos.WindowCheckpoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Shared state of the shard jobs of one sync run: which windows each shard owns, how far it got and what it
+// counted. Shards may run on any node of the JobRunr cluster, so everything the coordinator needs to finalize a
+// tab goes through this table (and the window checkpoints).
+@Service
+public class SyncShardService {
+
+    private static final String INSERT_SHARD = "INSERT INTO sync_shards (run_id, sheet_name, shard_index, starting_rows, ending_rows, signal_digests) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_WINDOWS = "SELECT starting_rows, ending_rows, signal_digests FROM sync_shards WHERE run_id = ? AND sheet_name = ? AND shard_index = ?";
+    private static final String START_ATTEMPT = "UPDATE sync_shards s SET attempts = s.attempts + 1 FROM sync_runs r " +
+            "WHERE r.run_id = s.run_id AND r.status = 'RUNNING' AND s.run_id = ? AND s.sheet_name = ? AND s.shard_index = ? AND s.status = 'PENDING' RETURNING s.attempts";
+    private static final String SUCCEED = "UPDATE sync_shards SET status = 'SUCCEEDED', error = NULL, http_requests = ?, windows = ?, rows_read = ?, rows_skipped = ?, rows_written = ?, rows_rejected = ?, fetch_millis = ? " +
+            "WHERE run_id = ? AND sheet_name = ? AND shard_index = ?";
+    private static final String FAIL = "UPDATE sync_shards SET status = CASE WHEN attempts >= ? THEN 'FAILED' ELSE status END, error = ? WHERE run_id = ? AND sheet_name = ? AND shard_index = ? " +
+            "RETURNING status = 'FAILED'";
+    private static final String SELECT_PROGRESS = "SELECT COUNT(*), COUNT(*) FILTER (WHERE status = 'SUCCEEDED'), COUNT(*) FILTER (WHERE status = 'FAILED'), MAX(error) FILTER (WHERE status = 'FAILED') " +
+            "FROM sync_shards WHERE run_id = ? AND sheet_name = ?";
+    private static final String SELECT_TOTALS = "SELECT COALESCE(SUM(http_requests), 0), COALESCE(SUM(windows), 0), COALESCE(SUM(rows_read), 0), COALESCE(SUM(rows_skipped), 0), COALESCE(SUM(rows_written), 0), COALESCE(SUM(rows_rejected), 0), " +
+            "COALESCE(SUM(fetch_millis), 0) " +
+            "FROM sync_shards WHERE run_id = ? AND sheet_name = ?";
+    private static final String DELETE_RUN = "DELETE FROM sync_shards WHERE run_id = ?";
+    private static final String DELETE_STALE = "DELETE FROM sync_shards WHERE created_at < now() - interval '1 day'";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public void create(String runId, String sheetName, List<List<WindowCheckpoint>> shards)
+    {
+        jdbcTemplate.batchUpdate(INSERT_SHARD, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int shardIndex) throws SQLException
+            {
+                List<WindowCheckpoint> windows = shards.get(shardIndex);
+                Integer[] startingRows = new Integer[windows.size()];
+                Integer[] endingRows = new Integer[windows.size()];
+                Long[] signalDigests = new Long[windows.size()];
+                for(int i = 0; i < windows.size(); i++)
+                {
+                    startingRows[i] = windows.get(i).getStartingRow();
+                    endingRows[i] = windows.get(i).getEndingRow();
+                    signalDigests[i] = windows.get(i).getSignalDigest();
+                }
+
+                Connection connection = ps.getConnection();
+                ps.setString(1, runId);
+                ps.setString(2, sheetName);
+                ps.setInt(3, shardIndex);
+                ps.setArray(4, connection.createArrayOf("int4", startingRows));
+                ps.setArray(5, connection.createArrayOf("int4", endingRows));
+                ps.setArray(6, connection.createArrayOf("int8", signalDigests));
+            }
+
+            @Override
+            public int getBatchSize()
+            {
+                return shards.size();
+            }
+        });
+    }
+
+    public List<WindowCheckpoint> getWindows(String runId, String sheetName, int shardIndex)
+    {
+        return jdbcTemplate.queryForObject(SELECT_WINDOWS, (rs, i) -> {
+            Integer[] startingRows = (Integer[]) rs.getArray("starting_rows").getArray();
+            Integer[] endingRows = (Integer[]) rs.getArray("ending_rows").getArray();
+            Long[] signalDigests = (Long[]) rs.getArray("signal_digests").getArray();
+            List<WindowCheckpoint> windows = new ArrayList<>(startingRows.length);
+            for(int window = 0; window < startingRows.length; window++)
+            {
+                windows.add(new WindowCheckpoint(startingRows[window], endingRows[window], signalDigests[window]));
+            }
+            return windows;
+        }, runId, sheetName, shardIndex);
+    }
+
+    // Returns the attempt number, or 0 when the shard already finished or its run is no longer running, and this
+    // execution has nothing to do.
+    public int startAttempt(String runId, String sheetName, int shardIndex)
+    {
+        List<Integer> attempts = jdbcTemplate.queryForList(START_ATTEMPT, Integer.class, runId, sheetName, shardIndex);
+        return attempts.isEmpty() ? 0 : attempts.get(0);
+    }
+
+    public void succeed(String runId, int shardIndex, TabSyncResult result)
+    {
+        jdbcTemplate.update(SUCCEED, result.getHttpRequests().sum(), result.getWindows().sum(), result.getRowsRead().sum(), result.getRowsSkipped().sum(), result.getRowsWritten().sum(),
+                result.getRowsRejected().sum(), result.getFetchMillis(), runId, result.getSheetName(), shardIndex);
+    }
+
+    // The shard is only marked failed once it has used its last attempt; until then the JobRunr retry picks it up.
+    // Returns whether it was its last attempt.
+    public boolean fail(String runId, String sheetName, int shardIndex, int maxAttempts, Exception e)
+    {
+        List<Boolean> failed = jdbcTemplate.queryForList(FAIL, Boolean.class, maxAttempts, String.valueOf(e), runId, sheetName, shardIndex);
+        return !failed.isEmpty() && failed.get(0);
+    }
+
+    public ShardProgress getProgress(String runId, String sheetName)
+    {
+        return jdbcTemplate.queryForObject(SELECT_PROGRESS, (rs, i) -> new ShardProgress(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4)), runId, sheetName);
+    }
+
+    public void addTotals(String runId, TabSyncResult result)
+    {
+        jdbcTemplate.query(SELECT_TOTALS, rs -> {
+            result.getHttpRequests().add(rs.getLong(1));
+            result.getWindows().add(rs.getLong(2));
+            result.getRowsRead().add(rs.getLong(3));
+            result.getRowsSkipped().add(rs.getLong(4));
+            result.getRowsWritten().add(rs.getLong(5));
+            result.getRowsRejected().add(rs.getLong(6));
+            result.getFetchNanos().add(TimeUnit.MILLISECONDS.toNanos(rs.getLong(7)));
+        }, runId, result.getSheetName());
+    }
+
+    public void deleteRun(String runId)
+    {
+        jdbcTemplate.update(DELETE_RUN, runId);
+    }
+
+    public void deleteStale()
+    {
+        jdbcTemplate.update(DELETE_STALE);
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.SyncTarget;
+import com.example.sheets.dtos.TabSyncResult;
+import com.example.sheets.utils.SyncTargetContext;
+import lombok.extern.slf4j.Slf4j;
+import org.flywaydb.core.Flyway;
+import org.jobrunr.jobs.context.JobContext;
+import org.jobrunr.scheduling.JobScheduler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Spreadsheets synced in addition to google.sheets.id, one row of sync_targets each: its sheet ID, the schema its
+// tables live in, its schedule (5-field cron, like the recurring jobs) and its alert recipients.
+//
+// Every poll, the due targets that are not already running are started as `Sync target` jobs, oldest due first, up
+// to sync.targets.max-concurrent running at once; a target never runs twice concurrently, so a slow or large
+// target delays its own next run rather than the others. A target counts as running from its dispatch until the
+// Sync finalize job of its last tab (or the failure that ends its run) records the run in sync_targets.
+//
+// sync_targets lives in the default schema only; inside runAs() it is still found through the search_path.
+@Slf4j
+@Service
+public class SyncTargetService {
+
+    private static final long DISPATCH_LOCK_KEY = 0x73796e6374677473L;
+
+    private static final String TARGET_COLUMNS = "tenant_key, sheet_id, schema_name, cron, alert_email_to";
+    private static final String LOCK_DISPATCH = "SELECT pg_advisory_xact_lock(" + DISPATCH_LOCK_KEY + ")";
+    private static final String SELECT_ENABLED = "SELECT " + TARGET_COLUMNS + " FROM sync_targets WHERE enabled ORDER BY tenant_key";
+    private static final String SELECT_TARGET = "SELECT " + TARGET_COLUMNS + " FROM sync_targets WHERE tenant_key = ?";
+    private static final String COUNT_RUNNING = "SELECT COUNT(*) FROM sync_targets WHERE running_since > now() - ? * interval '1 minute'";
+    private static final String SELECT_DUE = "SELECT " + TARGET_COLUMNS + " FROM sync_targets " +
+            "WHERE enabled AND next_run_at <= now() AND (running_since IS NULL OR running_since <= now() - ? * interval '1 minute') " +
+            "ORDER BY next_run_at, tenant_key LIMIT ?";
+    private static final String DISPATCH = "UPDATE sync_targets SET running_since = now(), next_run_at = ? WHERE tenant_key = ?";
+    private static final String START = "UPDATE sync_targets SET running_since = now(), last_started_at = now() WHERE tenant_key = ?";
+    private static final String FINISH = "UPDATE sync_targets SET running_since = NULL, last_finished_at = now(), last_duration_ms = ?, last_sheets_requests = ?, " +
+            "last_rows_read = ?, last_rows_written = ?, last_rows_deleted = ?, last_rows_rejected = ?, last_error = ? WHERE tenant_key = ?";
+
+    private static final RowMapper<SyncTarget> TARGET_MAPPER = (rs, rowNum) -> new SyncTarget(rs.getString("tenant_key"), rs.getString("sheet_id"),
+            rs.getString("schema_name"), rs.getString("cron"), rs.getString("alert_email_to"));
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JobScheduler jobScheduler;
+
+    @Value("${sync.targets.migration-locations}")
+    private String[] migrationLocations;
+
+    @Value("${sync.targets.max-concurrent}")
+    private int maxConcurrent;
+
+    @Value("${sync.targets.stale-after-minutes}")
+    private long staleAfterMinutes;
+
+    private final Set<String> migratedSchemas = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, SyncTarget> targetsByKey = new ConcurrentHashMap<>();
+
+    public List<SyncTarget> getEnabledTargets()
+    {
+        List<SyncTarget> targets = jdbcTemplate.query(SELECT_ENABLED, TARGET_MAPPER);
+        for(SyncTarget target: targets)
+        {
+            targetsByKey.put(target.getTenantKey(), target);
+        }
+        return targets;
+    }
+
+    // Returns null for the default target, which has no row.
+    public SyncTarget getTarget(String tenantKey)
+    {
+        if(SyncTarget.DEFAULT_TENANT.equals(tenantKey))
+        {
+            return null;
+        }
+
+        SyncTarget target = targetsByKey.get(tenantKey);
+        if(target == null)
+        {
+            List<SyncTarget> targets = jdbcTemplate.query(SELECT_TARGET, TARGET_MAPPER, tenantKey);
+            if(targets.isEmpty())
+            {
+                throw new IllegalArgumentException("unknown sync target " + tenantKey);
+            }
+            target = targets.get(0);
+            targetsByKey.put(tenantKey, target);
+        }
+        return target;
+    }
+
+    public boolean exists(String tenantKey)
+    {
+        try
+        {
+            getTarget(tenantKey);
+            return true;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+    // Runs the task against the target's schema and spreadsheet, migrating the schema on first use on this node.
+    public <T> T runAs(String tenantKey, Callable<T> task) throws Exception
+    {
+        SyncTarget target = getTarget(tenantKey);
+        // Entered before migrating, so that connections Flyway has used are pointed back at a schema when reused.
+        SyncTarget previous = SyncTargetContext.enter(target);
+        try
+        {
+            if(target != null && !migratedSchemas.contains(target.getSchemaName()))
+            {
+                migrate(target.getSchemaName());
+            }
+            return task.call();
+        }
+        finally
+        {
+            SyncTargetContext.restore(previous);
+        }
+    }
+
+    // The default target followed by every enabled target.
+    public List<String> getTenantKeys()
+    {
+        List<String> tenantKeys = new ArrayList<>();
+        tenantKeys.add(SyncTarget.DEFAULT_TENANT);
+        for(SyncTarget target: getEnabledTargets())
+        {
+            tenantKeys.add(target.getTenantKey());
+        }
+        return tenantKeys;
+    }
+
+    // Runs the task once for the default target and once for every enabled target; a failing target is logged
+    // and does not stop the others.
+    public void forEachTarget(JobContext jobContext, Callable<?> task)
+    {
+        for(String tenantKey: getTenantKeys())
+        {
+            try
+            {
+                runAs(tenantKey, task);
+            }
+            catch (Exception e)
+            {
+                jobContext.logger().error(String.format("%s: %s", tenantKey, e));
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${sync.targets.poll-interval-ms}")
+    public void dispatchDue()
+    {
+        List<SyncTarget> dispatched = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute(LOCK_DISPATCH);
+            int running = jdbcTemplate.queryForObject(COUNT_RUNNING, Integer.class, staleAfterMinutes);
+            if(running >= maxConcurrent)
+            {
+                return new ArrayList<SyncTarget>();
+            }
+
+            List<SyncTarget> due = jdbcTemplate.query(SELECT_DUE, TARGET_MAPPER, staleAfterMinutes, maxConcurrent - running);
+            LocalDateTime now = LocalDateTime.now();
+            for(SyncTarget target: due)
+            {
+                jdbcTemplate.update(DISPATCH, nextRun(target, now), target.getTenantKey());
+            }
+            return due;
+        });
+
+        for(SyncTarget target: dispatched)
+        {
+            String tenantKey = target.getTenantKey();
+            targetsByKey.put(tenantKey, target);
+            jobScheduler.<JobService>enqueue(jobService -> jobService.syncTargetJob(JobContext.Null, tenantKey));
+            log.info("dispatched sync of {}", tenantKey);
+        }
+    }
+
+    public void start(String tenantKey)
+    {
+        jdbcTemplate.update(START, tenantKey);
+    }
+
+    // Records the run's totals as the target's last-run metrics; results is empty when the run failed.
+    public void finish(String tenantKey, long durationMillis, List<TabSyncResult> results, Exception error)
+    {
+        long sheetsRequests = 0;
+        long rowsRead = 0;
+        long rowsWritten = 0;
+        long rowsDeleted = 0;
+        long rowsRejected = 0;
+        for(TabSyncResult result: results)
+        {
+            sheetsRequests += result.getHttpRequests().sum();
+            rowsRead += result.getRowsRead().sum();
+            rowsWritten += result.getRowsWritten().sum();
+            rowsDeleted += result.getRowsDeleted();
+            rowsRejected += result.getRowsRejected().sum();
+        }
+        jdbcTemplate.update(FINISH, durationMillis, sheetsRequests, rowsRead, rowsWritten, rowsDeleted, rowsRejected, (error == null) ? null : String.valueOf(error), tenantKey);
+    }
+
+    private synchronized void migrate(String schemaName)
+    {
+        if(migratedSchemas.contains(schemaName))
+        {
+            return;
+        }
+
+        Flyway.configure()
+                .dataSource(dataSource)
+                .schemas(schemaName)
+                .locations(migrationLocations)
+                .baselineOnMigrate(true)
+                .outOfOrder(true)
+                .load()
+                .migrate();
+        migratedSchemas.add(schemaName);
+    }
+
+    private static LocalDateTime nextRun(SyncTarget target, LocalDateTime now)
+    {
+        return CronExpression.parse("0 " + target.getCron()).next(now);
+    }
+}
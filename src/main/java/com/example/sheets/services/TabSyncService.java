@@ -0,0 +1,583 @@
+package com.example.sheets.services;
+
+import com.example.sheets.dtos.SyncRunResult;
+import com.example.sheets.dtos.SyncWindow;
+import com.example.sheets.dtos.TabSyncResult;
+import com.example.sheets.dtos.WindowCheckpoint;
+import com.example.sheets.dtos.WriteCount;
+import com.example.sheets.exceptions.DeleteLimitExceededException;
+import com.example.sheets.exceptions.SyncRunFailedException;
+import com.example.sheets.exceptions.SyncRunSupersededException;
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.utils.RowBuffer;
+import com.example.sheets.utils.RowDiff;
+import com.example.sheets.utils.RowHash;
+import com.example.sheets.utils.StagedPipeline;
+import com.example.sheets.utils.SyncTargetContext;
+import org.jobrunr.jobs.context.JobContext;
+import org.jobrunr.scheduling.JobScheduler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Runs a sync run as a chain of JobRunr jobs on any node of the cluster: each mapped tab is planned, split into
+// row-range shards that run as jobs of their own, and finalized (block digests, deletes, lookup index) by a job that
+// the last of its shards enqueues. Tabs whose lookups are finalized are planned together; a tab that looks up another
+// one is planned only after that tab is finalized. The run's state between the jobs is kept by SyncRunService.
+@Service
+public class TabSyncService {
+
+    private static final WriteCount NOTHING_WRITTEN = new WriteCount(0, 0);
+    private static final String FINALIZED = "FINALIZED";
+
+    @Autowired
+    private SheetFetchService sheetFetchService;
+
+    @Autowired
+    private BulkWriteService bulkWriteService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private SyncCheckpointService syncCheckpointService;
+
+    @Autowired
+    private SyncShardService syncShardService;
+
+    @Autowired
+    private SyncRunService syncRunService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JobScheduler jobScheduler;
+
+    @Autowired
+    private SyncMetrics syncMetrics;
+
+    @Autowired
+    private List<CompiledTabMapping<?>> tabMappings;
+
+    @Value("${sync.write.mode}")
+    private BulkWriteService.WriteMode writeMode;
+
+    @Value("${sync.pipeline.fetch-parallelism}")
+    private int fetchParallelism;
+
+    @Value("${sync.pipeline.write-parallelism}")
+    private int writeParallelism;
+
+    @Value("${sync.pipeline.queue-capacity}")
+    private int pipelineQueueCapacity;
+
+    @Value("${sync.shards.rows-per-shard}")
+    private int rowsPerShard;
+
+    private final Map<String, CompiledTabMapping<?>> mappingsBySheetName = new HashMap<>();
+
+    // Lookup indexes by sync target and tab, since every target has its own tables.
+    private final Map<String, LookupIndex> lookupIndexes = new ConcurrentHashMap<>();
+
+    // Run whose data each lookup index was last loaded for on this node; shards reload it on their first use in a
+    // new run, since the tab it indexes may have been finalized on another node.
+    private final Map<String, String> lookupIndexRuns = new ConcurrentHashMap<>();
+
+    private final Set<String> indexedTabs = new HashSet<>();
+
+    @PostConstruct
+    public void init()
+    {
+        for(CompiledTabMapping<?> mapping: tabMappings)
+        {
+            for(String lookupTab: mapping.getLookupTabs())
+            {
+                if(!indexedTabs.contains(lookupTab))
+                {
+                    throw new IllegalStateException(mapping.getSheetName() + " looks up " + lookupTab + ", which is not an indexed tab declared before it");
+                }
+            }
+
+            mappingsBySheetName.put(mapping.getSheetName(), mapping);
+            if(mapping.isIndexed())
+            {
+                indexedTabs.add(mapping.getSheetName());
+            }
+        }
+    }
+
+    // Starts a run: a run of this target still in progress is superseded, and the tabs that look up no other tab
+    // are planned. The rest of the run happens in the shard jobs and in the finalize job of each tab, which the last
+    // of its shards to finish enqueues, so no job waits for another.
+    public String startRun(JobContext jobContext) throws Exception
+    {
+        String runId = UUID.randomUUID().toString();
+        syncShardService.deleteStale();
+        syncRunService.deleteStale();
+        syncRunService.start(runId);
+        planReadyTabs(jobContext, runId);
+        return runId;
+    }
+
+    // Runs one shard of a tab through the fetch -> decode -> diff -> write pipeline. Returns without doing anything
+    // when the shard already succeeded, e.g. when JobRunr runs it again after a node was lost mid-way, or when its
+    // run was superseded, also part-way through.
+    public void syncShard(JobContext jobContext, String runId, String sheetName, int shardIndex) throws Exception
+    {
+        int attempt = syncShardService.startAttempt(runId, sheetName, shardIndex);
+        if(attempt == 0)
+        {
+            jobContext.logger().info(String.format("%s shard %d already finished or its run is no longer running", sheetName, shardIndex));
+            checkTab(runId, sheetName);
+            return;
+        }
+
+        CompiledTabMapping<?> mapping = mappingsBySheetName.get(sheetName);
+        TabSyncResult shardResult = new TabSyncResult(sheetName);
+        List<String> stageStats;
+        try
+        {
+            stageStats = syncWindows(runId, mapping, syncShardService.getWindows(runId, sheetName, shardIndex), true, shardResult);
+        }
+        catch (SyncRunSupersededException e)
+        {
+            jobContext.logger().info(e.getMessage());
+            return;
+        }
+        catch (Exception e)
+        {
+            if(syncShardService.fail(runId, sheetName, shardIndex, JobService.SHARD_RETRIES + 1, e))
+            {
+                Long elapsedMillis = syncRunService.fail(runId, String.format("%s shard %d: %s", sheetName, shardIndex, e));
+                if(elapsedMillis != null)
+                {
+                    throw new SyncRunFailedException(runId, elapsedMillis, e);
+                }
+            }
+            throw e;
+        }
+        syncShardService.succeed(runId, shardIndex, shardResult);
+
+        for(String stats: stageStats)
+        {
+            jobContext.logger().info(stats);
+        }
+        for(String rejectedRow: shardResult.getRejectedRows())
+        {
+            jobContext.logger().warn("rejected " + rejectedRow);
+        }
+        jobContext.logger().info(shardResult.toString());
+        jobContext.saveMetadata("summary", shardResult.getSummary());
+        checkTab(runId, sheetName);
+    }
+
+    // Runs once per tab, after every shard committed its windows: block digests, deletes and lookup index. Then
+    // plans the tabs that were waiting for this one, and returns the run's results if this was its last tab.
+    public SyncRunResult finalizeTab(JobContext jobContext, String runId, String sheetName) throws Exception
+    {
+        if(!syncRunService.isRunning(runId))
+        {
+            jobContext.logger().info(String.format("%s: run %s is no longer running", sheetName, runId));
+            return null;
+        }
+
+        CompiledTabMapping<?> mapping = mappingsBySheetName.get(sheetName);
+        // A retry of a job that already committed the tab goes on with what follows.
+        if(!FINALIZED.equals(syncRunService.getTabStatuses(runId).get(sheetName)))
+        {
+            TabSyncResult syncResult = syncRunService.getResult(runId, sheetName);
+            sheetFetchService.complete(syncRunService.getPlan(runId, mapping), syncResult);
+            sheetFetchService.fetchIds(mapping, syncResult);
+
+            SyncMetrics.TabMeters meters = syncMetrics.tab(sheetName);
+            long deleteStart = System.nanoTime();
+            try
+            {
+                syncResult.setRowsDeleted(bulkWriteService.deleteMissing(mapping, syncResult.getIds()));
+                meters.getRowsDeleted().increment(syncResult.getRowsDeleted());
+            }
+            catch (DeleteLimitExceededException e)
+            {
+                jobContext.logger().warn(e.getMessage());
+                syncResult.setDeleteAborted(true);
+            }
+            finally
+            {
+                SyncMetrics.recordSince(meters.getDeleteMissing(), deleteStart);
+            }
+
+            transactionTemplate.execute(status -> {
+                syncCheckpointService.finish(sheetName);
+                syncRunService.finishTab(runId, syncResult);
+                return null;
+            });
+        }
+        jobContext.logger().info(tabResult(runId, sheetName).toString());
+
+        if(mapping.isIndexed())
+        {
+            String indexKey = lookupIndexKey(sheetName);
+            LookupIndex.Snapshot lookupIndex = lookupIndex(sheetName).load();
+            lookupIndexRuns.put(indexKey, runId);
+            jobContext.logger().info(String.format("%s lookup index v%d: %d rows", sheetName, lookupIndex.getVersion(), lookupIndex.getValuesByKey().size()));
+        }
+
+        planReadyTabs(jobContext, runId);
+        Long elapsedMillis = syncRunService.succeed(runId, tabMappings.size());
+        if(elapsedMillis == null)
+        {
+            return null;
+        }
+
+        syncShardService.deleteRun(runId);
+        List<TabSyncResult> results = new ArrayList<>();
+        for(CompiledTabMapping<?> tab: tabMappings)
+        {
+            results.add(tabResult(runId, tab.getSheetName()));
+        }
+        return new SyncRunResult(runId, elapsedMillis, results);
+    }
+
+    // Applies rows reported as edited outside of a sync run. They are not checkpointed, and lookups are reloaded
+    // for every batch so that a row can reference one written by the batch before it.
+    public TabSyncResult syncRows(CompiledTabMapping<?> mapping, List<WindowCheckpoint> windows) throws Exception
+    {
+        TabSyncResult syncResult = new TabSyncResult(mapping.getSheetName());
+        syncWindows(UUID.randomUUID().toString(), mapping, windows, false, syncResult);
+        return syncResult;
+    }
+
+    // Plans every tab of the run whose looked-up tabs are finalized and that no other job has planned.
+    private void planReadyTabs(JobContext jobContext, String runId) throws IOException
+    {
+        Map<String, String> tabStatuses = syncRunService.getTabStatuses(runId);
+        for(CompiledTabMapping<?> mapping: tabMappings)
+        {
+            String sheetName = mapping.getSheetName();
+            if(tabStatuses.containsKey(sheetName) || !Arrays.stream(mapping.getLookupTabs()).allMatch(lookupTab -> FINALIZED.equals(tabStatuses.get(lookupTab))))
+            {
+                continue;
+            }
+            if(!syncRunService.claimPlanning(runId, sheetName))
+            {
+                continue;
+            }
+
+            try
+            {
+                plan(jobContext, runId, mapping);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                syncRunService.releasePlanning(runId, sheetName);
+                throw e;
+            }
+        }
+    }
+
+    private void plan(JobContext jobContext, String runId, CompiledTabMapping<?> mapping) throws IOException
+    {
+        String sheetName = mapping.getSheetName();
+        TabSyncResult syncResult = new TabSyncResult(sheetName);
+        SheetFetchService.FetchPlan plan = sheetFetchService.plan(mapping, runId, syncResult);
+        if(syncResult.getWindowsResumed().sum() > 0)
+        {
+            jobContext.logger().info(String.format("%s resuming: %d rows already committed by an earlier run", sheetName, syncResult.getRowsResumed().sum()));
+        }
+
+        List<List<WindowCheckpoint>> shards = new ArrayList<>();
+        List<WindowCheckpoint> shard = new ArrayList<>();
+        int shardRows = 0;
+        for(WindowCheckpoint window: plan.getPendingWindows())
+        {
+            if(!shard.isEmpty() && shardRows >= rowsPerShard)
+            {
+                shards.add(shard);
+                shard = new ArrayList<>();
+                shardRows = 0;
+            }
+            shard.add(window);
+            shardRows += window.getEndingRow() - window.getStartingRow() + 1;
+        }
+        if(!shard.isEmpty())
+        {
+            shards.add(shard);
+        }
+        syncResult.setShards(shards.size());
+
+        transactionTemplate.execute(status -> {
+            syncShardService.create(runId, sheetName, shards);
+            syncRunService.savePlan(runId, plan, syncResult);
+            return null;
+        });
+        String tenantKey = SyncTargetContext.getTenantKey();
+        for(int i = 0; i < shards.size(); i++)
+        {
+            int shardIndex = i;
+            jobScheduler.<JobService>enqueue(jobService -> jobService.syncShardJob(JobContext.Null, tenantKey, runId, sheetName, shardIndex));
+        }
+        jobContext.logger().info(String.format("%s: %d rows pending in %d shards", sheetName, plan.getPendingWindows().stream().mapToInt(window -> window.getEndingRow() - window.getStartingRow() + 1).sum(), shards.size()));
+
+        if(shards.isEmpty())
+        {
+            checkTab(runId, sheetName);
+        }
+    }
+
+    // Enqueues the tab's finalize job once all of its shards have succeeded; called after every shard.
+    private void checkTab(String runId, String sheetName)
+    {
+        if(syncRunService.claimFinalize(runId, sheetName))
+        {
+            String tenantKey = SyncTargetContext.getTenantKey();
+            jobScheduler.<JobService>enqueue(jobService -> jobService.syncFinalizeJob(JobContext.Null, tenantKey, runId, sheetName));
+        }
+    }
+
+    private TabSyncResult tabResult(String runId, String sheetName)
+    {
+        TabSyncResult result = syncRunService.getResult(runId, sheetName);
+        syncShardService.addTotals(runId, result);
+        return result;
+    }
+
+    private <E> List<String> syncWindows(String runId, CompiledTabMapping<E> mapping, List<WindowCheckpoint> windows, boolean checkpointed, TabSyncResult syncResult) throws Exception
+    {
+        LookupIndex.Snapshot[] lookups = new LookupIndex.Snapshot[mapping.getLookupTabs().length];
+        for(int lookup = 0; lookup < lookups.length; lookup++)
+        {
+            lookups[lookup] = lookupSnapshot(mapping.getLookupTabs()[lookup], runId);
+        }
+
+        SyncMetrics.TabMeters meters = syncMetrics.tab(mapping.getSheetName());
+        long startTime = System.currentTimeMillis();
+        List<String> stageStats = new StagedPipeline<SheetFetchService.FetchGroup, SyncWindow>(mapping.getSheetName(), pipelineQueueCapacity, "fetch", fetchParallelism, group -> sheetFetchService.fetchGroup(mapping.getColumnTypes(), group, syncResult))
+                .then("decode", 1, window -> decode(mapping, window, lookups, syncResult, meters))
+                .then("diff", 1, window -> diff(mapping, window, syncResult, meters))
+                .then("write", writeParallelism, window -> write(runId, mapping, window, checkpointed, syncResult, meters))
+                .listener((stage, busyNanos) -> {
+                    meters.recordStage(stage, busyNanos);
+                    if(stage.equals("fetch"))
+                    {
+                        syncResult.getFetchNanos().add(busyNanos);
+                    }
+                })
+                .run(sheetFetchService.group(mapping, windows));
+        syncResult.setElapsedMillis(System.currentTimeMillis() - startTime);
+        return stageStats;
+    }
+
+    private LookupIndex.Snapshot lookupSnapshot(String sheetName, String runId)
+    {
+        String indexKey = lookupIndexKey(sheetName);
+        LookupIndex index = lookupIndex(sheetName);
+        synchronized(index)
+        {
+            if(!runId.equals(lookupIndexRuns.get(indexKey)))
+            {
+                index.load();
+                lookupIndexRuns.put(indexKey, runId);
+            }
+            return index.current();
+        }
+    }
+
+    // The index loads through the current sync target's connections, so it must only be used within that target.
+    private LookupIndex lookupIndex(String sheetName)
+    {
+        CompiledTabMapping<?> mapping = mappingsBySheetName.get(sheetName);
+        return lookupIndexes.computeIfAbsent(lookupIndexKey(sheetName), key -> new LookupIndex(() -> {
+            Map<String, String> valuesByKey = new HashMap<>();
+            jdbcTemplate.query(mapping.getIndexSql(), rs -> {
+                valuesByKey.put(rs.getString(1), rs.getString(2));
+            });
+            return valuesByKey;
+        }));
+    }
+
+    private static String lookupIndexKey(String sheetName)
+    {
+        return SyncTargetContext.getTenantKey() + "/" + sheetName;
+    }
+
+    // Rejects rows that failed to parse, have no key, reference an unknown row of a looked-up tab or repeat the key of
+    // an earlier row of the window (the first one is kept), and hashes the rest; resolved lookup keys are mixed into
+    // the hash so a row is rewritten when its reference moves.
+    private boolean decode(CompiledTabMapping<?> mapping, SyncWindow window, LookupIndex.Snapshot[] lookupIndexes, TabSyncResult syncResult, SyncMetrics.TabMeters meters)
+    {
+        RowBuffer rows = window.getRows();
+        int[] lookupColumns = mapping.getLookupColumns();
+        String[][] resolvedKeys = new String[lookupIndexes.length][rows.size()];
+        int[] decodedRows = new int[rows.size()];
+        List<String> ids = new ArrayList<>(rows.size());
+        long[] rowHashes = new long[rows.size()];
+        Map<String, Integer> firstRows = new HashMap<>();
+        int count = 0;
+        for(int i = 0; i < rows.size(); i++)
+        {
+            String error = rows.getError(i);
+            if(error == null && rows.getText(i, 0).isEmpty())
+            {
+                error = "missing id";
+            }
+
+            long hash = rows.getHash(i);
+            for(int lookup = 0; lookup < lookupIndexes.length && error == null; lookup++)
+            {
+                String value = rows.getText(i, lookupColumns[lookup]);
+                String key = lookupIndexes[lookup].resolve(value);
+                if(key == null)
+                {
+                    error = "unknown " + mapping.getLookupTabs()[lookup].toLowerCase() + " '" + value + "'";
+                }
+                else
+                {
+                    resolvedKeys[lookup][i] = key;
+                    hash = RowHash.mix(hash, key);
+                }
+            }
+
+            String id = rows.getText(i, 0);
+            if(error == null)
+            {
+                Integer firstRow = firstRows.putIfAbsent(id, window.getStartingRow() + i);
+                if(firstRow != null)
+                {
+                    error = "duplicate id '" + id + "', first in row " + firstRow;
+                }
+            }
+
+            if(error != null)
+            {
+                syncResult.addRejectedRow(window.getStartingRow() + i, error);
+                continue;
+            }
+
+            decodedRows[count] = i;
+            rowHashes[count] = RowHash.finish(hash);
+            ids.add(id);
+            count++;
+        }
+        meters.getRowsRead().increment(rows.size());
+        meters.getRowsRejected().increment(rows.size() - count);
+        window.setDecodedRows(Arrays.copyOf(decodedRows, count));
+        window.setIds(ids);
+        window.setRowHashes(rowHashes);
+        window.setResolvedKeys(resolvedKeys);
+        return true;
+    }
+
+    private boolean diff(CompiledTabMapping<?> mapping, SyncWindow window, TabSyncResult syncResult, SyncMetrics.TabMeters meters)
+    {
+        Map<String, Long> existingHashMap = new HashMap<>();
+        if(window.getIds().isEmpty())
+        {
+            window.setChangedRows(new int[0]);
+            window.setChangedHashes(Collections.emptyMap());
+            return true;
+        }
+        long queryStart = System.nanoTime();
+        namedParameterJdbcTemplate.query(mapping.getRowHashesSql(), Collections.singletonMap("ids", window.getIds()), rs -> {
+            long rowHash = rs.getLong(2);
+            existingHashMap.put(rs.getString(1), rs.wasNull() ? null : rowHash);
+        });
+        SyncMetrics.recordSince(meters.getRowHashes(), queryStart);
+
+        RowDiff rowDiff = RowDiff.of(window.getDecodedRows(), window.getIds(), window.getRowHashes(), existingHashMap);
+        syncResult.getRowsSkipped().add(window.getDecodedRows().length - rowDiff.getChangedRows().length);
+        meters.getRowsSkipped().increment(window.getDecodedRows().length - rowDiff.getChangedRows().length);
+        window.setChangedRows(rowDiff.getChangedRows());
+        window.setChangedHashes(rowDiff.getChangedHashes());
+        return true;
+    }
+
+    // Every window reaches this stage, changed or not, so that it is checkpointed in the same transaction as its
+    // writes. Checkpointed windows hold their run's row until they commit, so a newer run starts only after them.
+    private <E> boolean write(String runId, CompiledTabMapping<E> mapping, SyncWindow window, boolean checkpointed, TabSyncResult syncResult, SyncMetrics.TabMeters meters)
+    {
+        WriteCount writeCount = transactionTemplate.execute(status -> {
+            if(checkpointed && !syncRunService.lockRunning(runId))
+            {
+                throw new SyncRunSupersededException(runId);
+            }
+            WriteCount count = window.getChangedRows().length == 0 ? NOTHING_WRITTEN : writeChanged(mapping, window, meters);
+            if(checkpointed)
+            {
+                syncCheckpointService.commitWindow(mapping.getSheetName(), window.getCheckpoint());
+            }
+            return count;
+        });
+        syncResult.getRowsWritten().add(writeCount.getTotal());
+        meters.getRowsInserted().increment(writeCount.getInserted());
+        meters.getRowsUpdated().increment(writeCount.getUpdated());
+        return true;
+    }
+
+    private <E> WriteCount writeChanged(CompiledTabMapping<E> mapping, SyncWindow window, SyncMetrics.TabMeters meters)
+    {
+        RowBuffer rows = window.getRows();
+        List<E> entities = new ArrayList<>(window.getChangedRows().length);
+        for(int row: window.getChangedRows())
+        {
+            String id = rows.getText(row, 0);
+            entities.add(mapping.bind(rows, row, window.getResolvedKeys(), window.getChangedHashes().get(id)));
+        }
+
+        if(writeMode == BulkWriteService.WriteMode.COPY)
+        {
+            long upsertStart = System.nanoTime();
+            WriteCount writeCount = bulkWriteService.upsert(mapping, entities);
+            SyncMetrics.recordSince(meters.getUpsert(), upsertStart);
+            return writeCount;
+        }
+
+        long findStart = System.nanoTime();
+        Map<String, E> existingEntities = new HashMap<>();
+        for(E existing: mapping.getRepository().findAllById(window.getChangedHashes().keySet()))
+        {
+            existingEntities.put(mapping.getKey(existing), existing);
+        }
+        SyncMetrics.recordSince(meters.getFindAllById(), findStart);
+
+        List<E> entitiesToUpdate = new ArrayList<>();
+        List<E> entitiesToAdd = new ArrayList<>();
+        for(E entity: entities)
+        {
+            E existing = existingEntities.get(mapping.getKey(entity));
+            if(existing == null)
+            {
+                entitiesToAdd.add(entity);
+            }
+            else if(mapping.copyChanged(entity, existing))
+            {
+                entitiesToUpdate.add(existing);
+            }
+        }
+
+        long saveStart = System.nanoTime();
+        if(!entitiesToUpdate.isEmpty())
+        {
+            mapping.getRepository().saveAll(entitiesToUpdate);
+        }
+
+        if(!entitiesToAdd.isEmpty())
+        {
+            mapping.getRepository().saveAll(entitiesToAdd);
+        }
+        SyncMetrics.recordSince(meters.getSaveAll(), saveStart);
+
+        return new WriteCount(entitiesToAdd.size(), entitiesToUpdate.size());
+    }
+}
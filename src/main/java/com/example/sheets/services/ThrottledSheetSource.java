@@ -0,0 +1,325 @@
+package com.example.sheets.services;
+
+import com.example.sheets.utils.AdaptiveRateLimiter;
+import com.example.sheets.utils.FairPermits;
+import com.example.sheets.utils.RowBuffer;
+import com.example.sheets.utils.SyncTargetContext;
+import com.google.api.client.http.HttpResponseException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Wraps GoogleSheetSource with a client-side request budget tuned to the per-minute read quota. Throttled (429)
+// and transient server errors (5xx, I/O failures) are retried with full-jitter exponential backoff, honouring
+// Retry-After when the API sends it, and a read of ranges already in flight waits for that read instead of
+// spending another request.
+//
+// The budget is shared by all sync targets on this instance. At most sheets.fairness.max-in-flight requests wait
+// for or hold a slot of it at a time, and when more are queued the slots go round-robin across targets, so a target
+// with many shards in flight cannot starve the others.
+@Primary
+@Component
+public class ThrottledSheetSource implements SheetSource {
+
+    @Autowired
+    private GoogleSheetSource delegate;
+
+    @Autowired
+    private SyncMetrics syncMetrics;
+
+    @Value("${sheets.rate-limit.requests-per-minute}")
+    private double maxRequestsPerMinute;
+
+    @Value("${sheets.rate-limit.min-requests-per-minute}")
+    private double minRequestsPerMinute;
+
+    @Value("${sheets.rate-limit.additive-increase}")
+    private double additiveIncrease;
+
+    @Value("${sheets.rate-limit.decrease-factor}")
+    private double decreaseFactor;
+
+    @Value("${sheets.rate-limit.burst}")
+    private int burst;
+
+    @Value("${sheets.retry.max-attempts}")
+    private int maxAttempts;
+
+    @Value("${sheets.retry.base-delay-ms}")
+    private long baseDelayMillis;
+
+    @Value("${sheets.retry.max-delay-ms}")
+    private long maxDelayMillis;
+
+    @Value("${sheets.fairness.max-in-flight}")
+    private int maxInFlight;
+
+    private AdaptiveRateLimiter rateLimiter;
+
+    private FairPermits permits;
+
+    private final ConcurrentMap<String, CompletableFuture<List<RowBuffer>>> inFlight = new ConcurrentHashMap<>();
+
+    private static class Stats
+    {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong throttled = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final AtomicLong waitMillis = new AtomicLong();
+    }
+
+    private final ConcurrentMap<String, Stats> statsByTenant = new ConcurrentHashMap<>();
+
+    public ThrottledSheetSource()
+    {
+    }
+
+    // For driving the limiter outside Spring, e.g. against a GoogleSheetSource built on a mock transport.
+    public ThrottledSheetSource(GoogleSheetSource delegate, SyncMetrics syncMetrics, AdaptiveRateLimiter rateLimiter, FairPermits permits, int maxAttempts, long baseDelayMillis, long maxDelayMillis)
+    {
+        this.delegate = delegate;
+        this.syncMetrics = syncMetrics;
+        this.rateLimiter = rateLimiter;
+        this.permits = permits;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    @PostConstruct
+    public void init()
+    {
+        rateLimiter = new AdaptiveRateLimiter(minRequestsPerMinute, maxRequestsPerMinute, additiveIncrease, decreaseFactor, burst);
+        permits = new FairPermits(maxInFlight);
+    }
+
+    @Override
+    public void batchGet(List<String> ranges, List<RowBuffer> buffers) throws IOException
+    {
+        String key = key(delegate.getSheetId(), ranges, buffers);
+        CompletableFuture<List<RowBuffer>> read = new CompletableFuture<>();
+        CompletableFuture<List<RowBuffer>> existing = inFlight.putIfAbsent(key, read);
+        if(existing != null)
+        {
+            stats().coalesced.incrementAndGet();
+            List<RowBuffer> shared = await(existing);
+            for(int i = 0; i < buffers.size(); i++)
+            {
+                buffers.get(i).copyFrom(shared.get(i));
+            }
+            return;
+        }
+
+        try
+        {
+            executeWithRetry(ranges, buffers);
+            read.complete(buffers);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            read.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            inFlight.remove(key, read);
+        }
+    }
+
+    // Returns the current sync target's counters accumulated on this instance since the previous call and resets
+    // them.
+    public String drainStats()
+    {
+        Stats stats = stats();
+        return String.format("sheets requests=%d throttled=%d retries=%d coalesced=%d waited=%dms rate=%.1f/min",
+                stats.requests.getAndSet(0), stats.throttled.getAndSet(0), stats.retries.getAndSet(0), stats.coalesced.getAndSet(0), stats.waitMillis.getAndSet(0),
+                rateLimiter.getRatePerMinute());
+    }
+
+    private Stats stats()
+    {
+        return statsByTenant.computeIfAbsent(SyncTargetContext.getTenantKey(), tenantKey -> new Stats());
+    }
+
+    private void executeWithRetry(List<String> ranges, List<RowBuffer> buffers) throws IOException
+    {
+        Stats stats = stats();
+        SyncMetrics.TargetMeters meters = syncMetrics.target();
+        String tenantKey = SyncTargetContext.getTenantKey();
+        for(int attempt = 1; ; attempt++)
+        {
+            long waitStart = System.currentTimeMillis();
+            try
+            {
+                permits.acquire(tenantKey);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a Sheets request slot");
+            }
+
+            long retryAfterMillis = 0;
+            long requestStart = 0;
+            try
+            {
+                try
+                {
+                    rateLimiter.acquire();
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for the Sheets request budget");
+                }
+                long waitMillis = System.currentTimeMillis() - waitStart;
+                stats.waitMillis.addAndGet(waitMillis);
+                meters.getSheetsQuotaWait().record(waitMillis, TimeUnit.MILLISECONDS);
+
+                stats.requests.incrementAndGet();
+                requestStart = System.nanoTime();
+                delegate.batchGet(ranges, buffers);
+                SyncMetrics.recordSince(meters.getSheetsRequests(), requestStart);
+                rateLimiter.onSuccess();
+                return;
+            }
+            catch(HttpResponseException e)
+            {
+                if(e.getStatusCode() == 429)
+                {
+                    SyncMetrics.recordSince(meters.getSheetsRequestsThrottled(), requestStart);
+                    stats.throttled.incrementAndGet();
+                    rateLimiter.onThrottled();
+                }
+                else
+                {
+                    SyncMetrics.recordSince(meters.getSheetsRequestsFailed(), requestStart);
+                }
+                if(!isRetryable(e.getStatusCode()) || attempt >= maxAttempts)
+                {
+                    throw e;
+                }
+                retryAfterMillis = retryAfterMillis(e);
+            }
+            catch(InterruptedIOException e)
+            {
+                throw e;
+            }
+            catch(IOException e)
+            {
+                SyncMetrics.recordSince(meters.getSheetsRequestsFailed(), requestStart);
+                if(attempt >= maxAttempts)
+                {
+                    throw e;
+                }
+            }
+            finally
+            {
+                permits.release();
+            }
+
+            // Backing off outside of the slot, which another target can use meanwhile.
+            backOff(attempt, retryAfterMillis);
+
+            // A failed attempt may have decoded part of the response.
+            for(RowBuffer buffer: buffers)
+            {
+                buffer.clear();
+            }
+            stats.retries.incrementAndGet();
+        }
+    }
+
+    private void backOff(int attempt, long minimumMillis) throws InterruptedIOException
+    {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        long delay = Math.max(minimumMillis, ThreadLocalRandom.current().nextLong(ceiling + 1));
+        try
+        {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while backing off a Sheets request");
+        }
+    }
+
+    private static boolean isRetryable(int statusCode)
+    {
+        return statusCode == 429 || statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    private static long retryAfterMillis(HttpResponseException e)
+    {
+        String retryAfter = e.getHeaders() == null ? null : e.getHeaders().getRetryAfter();
+        if(retryAfter == null)
+        {
+            return 0;
+        }
+
+        try
+        {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        }
+        catch(NumberFormatException ignored)
+        {
+            return 0;
+        }
+    }
+
+    private static List<RowBuffer> await(CompletableFuture<List<RowBuffer>> read) throws IOException
+    {
+        try
+        {
+            return read.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a coalesced Sheets read");
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Ranges alone are not enough: a caller decoding the same ranges with other column types, or reading them from
+    // another target's spreadsheet, cannot share rows.
+    private static String key(String sheetId, List<String> ranges, List<RowBuffer> buffers)
+    {
+        List<String> parts = new ArrayList<>(ranges.size() + 1);
+        parts.add(sheetId);
+        for(int i = 0; i < ranges.size(); i++)
+        {
+            RowBuffer buffer = buffers.get(i);
+            StringBuilder part = new StringBuilder(ranges.get(i)).append(':');
+            for(int column = 0; column < buffer.getColumnCount(); column++)
+            {
+                part.append(buffer.getType(column).ordinal());
+            }
+            parts.add(part.toString());
+        }
+        return String.join("|", parts);
+    }
+}
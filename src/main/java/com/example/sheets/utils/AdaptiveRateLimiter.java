@@ -0,0 +1,76 @@
+package com.example.sheets.utils;
+
+import java.util.concurrent.TimeUnit;
+
+// Token bucket whose refill rate adapts AIMD-style: every successful request adds a fixed step to the rate (up to
+// the configured maximum), every throttled request multiplies it by the decrease factor (down to the minimum).
+// Callers block in acquire() until a token is available, so concurrent fetchers share one request budget.
+public class AdaptiveRateLimiter {
+
+    private final double minRatePerMinute;
+    private final double maxRatePerMinute;
+    private final double additiveIncrease;
+    private final double decreaseFactor;
+    private final double burst;
+
+    private double ratePerMinute;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public AdaptiveRateLimiter(double minRatePerMinute, double maxRatePerMinute, double additiveIncrease, double decreaseFactor, int burst)
+    {
+        this.minRatePerMinute = minRatePerMinute;
+        this.maxRatePerMinute = maxRatePerMinute;
+        this.additiveIncrease = additiveIncrease;
+        this.decreaseFactor = decreaseFactor;
+        this.burst = Math.max(1, burst);
+        this.ratePerMinute = maxRatePerMinute;
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public void acquire() throws InterruptedException
+    {
+        while(true)
+        {
+            long waitNanos;
+            synchronized(this)
+            {
+                refill();
+                if(tokens >= 1)
+                {
+                    tokens -= 1;
+                    return;
+                }
+                waitNanos = (long) ((1 - tokens) * TimeUnit.MINUTES.toNanos(1) / ratePerMinute);
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+    }
+
+    public synchronized void onSuccess()
+    {
+        refill();
+        ratePerMinute = Math.min(maxRatePerMinute, ratePerMinute + additiveIncrease);
+    }
+
+    // Also empties the bucket, so requests already queued behind the throttled one slow down immediately.
+    public synchronized void onThrottled()
+    {
+        refill();
+        ratePerMinute = Math.max(minRatePerMinute, ratePerMinute * decreaseFactor);
+        tokens = Math.min(tokens, 0);
+    }
+
+    public synchronized double getRatePerMinute()
+    {
+        return ratePerMinute;
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * ratePerMinute / TimeUnit.MINUTES.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.sheets.utils;
+
+public final class Csv {
+
+    private Csv()
+    {
+    }
+
+    public static StringBuilder appendNullable(StringBuilder csv, Object value)
+    {
+        return (value == null) ? csv : csv.append(value);
+    }
+
+    // Quoted so that an empty string stays distinct from NULL in COPY ... (FORMAT csv).
+    public static StringBuilder appendQuoted(StringBuilder csv, String value)
+    {
+        if(value == null)
+        {
+            return csv;
+        }
+
+        csv.append('"');
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if(c == '"')
+            {
+                csv.append('"');
+            }
+            csv.append(c);
+        }
+        return csv.append('"');
+    }
+}
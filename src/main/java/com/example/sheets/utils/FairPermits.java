@@ -0,0 +1,82 @@
+package com.example.sheets.utils;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A fixed number of permits shared by several keys (tenants). While permits are contended they are handed out
+// round-robin across the keys that are waiting, so a key with many waiting threads gets no more turns than a key
+// with one.
+public class FairPermits
+{
+    private static class Waiter
+    {
+        private boolean granted;
+    }
+
+    private int available;
+
+    // Keys in the order of their next turn; a key that is served moves to the back.
+    private final Map<String, ArrayDeque<Waiter>> waiting = new LinkedHashMap<>();
+
+    public FairPermits(int permits)
+    {
+        this.available = permits;
+    }
+
+    public synchronized void acquire(String key) throws InterruptedException
+    {
+        if(available > 0 && waiting.isEmpty())
+        {
+            available--;
+            return;
+        }
+
+        Waiter waiter = new Waiter();
+        waiting.computeIfAbsent(key, k -> new ArrayDeque<>()).addLast(waiter);
+        try
+        {
+            while(!waiter.granted)
+            {
+                wait();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            if(waiter.granted)
+            {
+                release();
+            }
+            else
+            {
+                ArrayDeque<Waiter> queue = waiting.get(key);
+                queue.remove(waiter);
+                if(queue.isEmpty())
+                {
+                    waiting.remove(key);
+                }
+            }
+            throw e;
+        }
+    }
+
+    public synchronized void release()
+    {
+        Iterator<Map.Entry<String, ArrayDeque<Waiter>>> next = waiting.entrySet().iterator();
+        if(!next.hasNext())
+        {
+            available++;
+            return;
+        }
+
+        Map.Entry<String, ArrayDeque<Waiter>> turn = next.next();
+        next.remove();
+        turn.getValue().removeFirst().granted = true;
+        if(!turn.getValue().isEmpty())
+        {
+            waiting.put(turn.getKey(), turn.getValue());
+        }
+        notifyAll();
+    }
+}
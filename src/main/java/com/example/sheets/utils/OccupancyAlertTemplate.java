@@ -0,0 +1,89 @@
+package com.example.sheets.utils;
+
+import com.example.sheets.dtos.EmailTableRow;
+
+import java.util.List;
+
+// The occupancy alert email. The markup is split into constant fragments once, and render() streams the rows
+// between them into a single pre-sized builder, escaping the text cells.
+public class OccupancyAlertTemplate
+{
+    private static final String CELL_STYLE = " style=\"border: 1px solid black; padding: 8px\"";
+    private static final String[] COLUMNS = {"Id", "Name", "Total General Beds", "General Beds Occupied", "Total ICU Beds", "ICU Beds Occupied"};
+
+    private static final String INTRO_START = "<p>Please find below the list of hospitals whose occupancy exceeded 90% as of ";
+    private static final String INTRO_END = ":</p>";
+    private static final String TABLE_START = header();
+    private static final String TABLE_END = "</tbody></table>";
+    private static final String ROW_START = "<tr><td" + CELL_STYLE + ">";
+    private static final String CELL_BREAK = "</td><td" + CELL_STYLE + ">";
+    private static final String ROW_END = "</td></tr>";
+
+    private static final int ESTIMATED_ROW_LENGTH = ROW_START.length() + 5 * CELL_BREAK.length() + ROW_END.length() + 64;
+
+    private OccupancyAlertTemplate()
+    {
+    }
+
+    public static String render(String asOf, List<EmailTableRow> rows)
+    {
+        StringBuilder out = new StringBuilder(INTRO_START.length() + TABLE_START.length() + rows.size() * ESTIMATED_ROW_LENGTH + 64);
+        out.append(INTRO_START);
+        escape(out, asOf);
+        out.append(INTRO_END).append(TABLE_START);
+        for(EmailTableRow row: rows)
+        {
+            out.append(ROW_START);
+            escape(out, row.getId());
+            out.append(CELL_BREAK);
+            escape(out, row.getName());
+            out.append(CELL_BREAK).append(row.getGeneralBedCount());
+            out.append(CELL_BREAK).append(row.getGeneralBedOccupiedCount());
+            out.append(CELL_BREAK).append(row.getIcuBedCount());
+            out.append(CELL_BREAK).append(row.getIcuBedOccupiedCount());
+            out.append(ROW_END);
+        }
+        out.append(TABLE_END);
+        return out.toString();
+    }
+
+    private static String header()
+    {
+        StringBuilder header = new StringBuilder("<table style=\"border-collapse: collapse\"><thead><tr>");
+        for(String column: COLUMNS)
+        {
+            header.append("<th").append(CELL_STYLE).append('>').append(column).append("</th>");
+        }
+        return header.append("</tr></thead><tbody>").toString();
+    }
+
+    private static void escape(StringBuilder out, String text)
+    {
+        if(text == null)
+        {
+            out.append("null");
+            return;
+        }
+        for(int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            switch(c)
+            {
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.sheets.utils;
+
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// A set of sheet IDs that stores every ASCII ID of up to 8 characters packed into a long in an open-addressing
+// table, so a tab with a million rows costs a few megabytes instead of a String, a backing array and a map node
+// per ID. IDs that do not fit (empty, longer than 8 characters, or non-ASCII) go to a plain HashSet.
+public class PackedIdSet extends AbstractSet<String> {
+
+    private static final int MAX_PACKED_LENGTH = 8;
+    private static final long EMPTY = 0;
+    private static final double MAX_LOAD = 0.75;
+
+    private long[] slots;
+    private int packedCount;
+    private final Set<String> overflow = new HashSet<>();
+
+    public PackedIdSet()
+    {
+        this(1024);
+    }
+
+    public PackedIdSet(int expectedSize)
+    {
+        slots = new long[capacityFor(expectedSize)];
+    }
+
+    // Characters are 1..127, so the leading byte is never zero and IDs of different lengths never collide.
+    // Returns EMPTY when the ID cannot be packed.
+    public static long pack(String id)
+    {
+        int length = id.length();
+        if(length == 0 || length > MAX_PACKED_LENGTH)
+        {
+            return EMPTY;
+        }
+
+        long packed = 0;
+        for(int i = 0; i < length; i++)
+        {
+            char c = id.charAt(i);
+            if(c == 0 || c > 127)
+            {
+                return EMPTY;
+            }
+            packed = (packed << 8) | c;
+        }
+        return packed;
+    }
+
+    public static String unpack(long packed)
+    {
+        char[] chars = new char[MAX_PACKED_LENGTH];
+        int start = MAX_PACKED_LENGTH;
+        for(long remaining = packed; remaining != 0; remaining >>>= 8)
+        {
+            chars[--start] = (char) (remaining & 0xff);
+        }
+        return new String(chars, start, MAX_PACKED_LENGTH - start);
+    }
+
+    @Override
+    public boolean add(String id)
+    {
+        long packed = pack(id);
+        if(packed == EMPTY)
+        {
+            return overflow.add(id);
+        }
+
+        if(packedCount + 1 > slots.length * MAX_LOAD)
+        {
+            resize(slots.length * 2);
+        }
+        if(!insert(slots, packed))
+        {
+            return false;
+        }
+        packedCount++;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        if(!(o instanceof String))
+        {
+            return false;
+        }
+
+        long packed = pack((String) o);
+        if(packed == EMPTY)
+        {
+            return overflow.contains(o);
+        }
+
+        int mask = slots.length - 1;
+        for(int index = slot(packed, mask); slots[index] != EMPTY; index = (index + 1) & mask)
+        {
+            if(slots[index] == packed)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size()
+    {
+        return packedCount + overflow.size();
+    }
+
+    @Override
+    public void clear()
+    {
+        slots = new long[capacityFor(0)];
+        packedCount = 0;
+        overflow.clear();
+    }
+
+    @Override
+    public Iterator<String> iterator()
+    {
+        return new Iterator<String>()
+        {
+            private final long[] table = slots;
+            private final Iterator<String> overflowIterator = overflow.iterator();
+            private int index = advance(0);
+
+            private int advance(int from)
+            {
+                while(from < table.length && table[from] == EMPTY)
+                {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return index < table.length || overflowIterator.hasNext();
+            }
+
+            @Override
+            public String next()
+            {
+                if(index < table.length)
+                {
+                    String id = unpack(table[index]);
+                    index = advance(index + 1);
+                    return id;
+                }
+                if(overflowIterator.hasNext())
+                {
+                    return overflowIterator.next();
+                }
+                throw new NoSuchElementException();
+            }
+        };
+    }
+
+    private static boolean insert(long[] table, long packed)
+    {
+        int mask = table.length - 1;
+        int index = slot(packed, mask);
+        while(table[index] != EMPTY)
+        {
+            if(table[index] == packed)
+            {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        table[index] = packed;
+        return true;
+    }
+
+    private void resize(int capacity)
+    {
+        long[] resized = new long[capacity];
+        for(long packed: slots)
+        {
+            if(packed != EMPTY)
+            {
+                insert(resized, packed);
+            }
+        }
+        slots = resized;
+    }
+
+    private static int slot(long packed, int mask)
+    {
+        return (int) RowHash.finish(packed) & mask;
+    }
+
+    private static int capacityFor(int expectedSize)
+    {
+        int capacity = 16;
+        while(capacity * MAX_LOAD < expectedSize)
+        {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.sheets.utils;
+
+import java.util.Arrays;
+
+// Column-oriented rows of one sheet range, filled by SheetResponseDecoder. Numbers and dates are kept as
+// primitives (dates as epoch days), so only text cells allocate. Each row also carries the RowHash accumulator
+// of its cell text and, when a cell could not be parsed, the reason the row is invalid.
+public class RowBuffer {
+
+    public enum ColumnType
+    {
+        TEXT,
+        INT,
+        DATE
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int startingRow;
+    private final ColumnType[] types;
+    private final String[][] text;
+    private final int[][] numbers;
+    private long[] hashes;
+    private String[] errors;
+    private int size;
+
+    public RowBuffer(int startingRow, ColumnType... types)
+    {
+        this(startingRow, INITIAL_CAPACITY, types);
+    }
+
+    public RowBuffer(int startingRow, int capacity, ColumnType... types)
+    {
+        this.startingRow = startingRow;
+        this.types = types;
+        this.text = new String[types.length][];
+        this.numbers = new int[types.length][];
+        int initialCapacity = Math.max(1, capacity);
+        for(int column = 0; column < types.length; column++)
+        {
+            if(types[column] == ColumnType.TEXT)
+            {
+                text[column] = new String[initialCapacity];
+            }
+            else
+            {
+                numbers[column] = new int[initialCapacity];
+            }
+        }
+        hashes = new long[initialCapacity];
+        errors = new String[initialCapacity];
+    }
+
+    public int getStartingRow()
+    {
+        return startingRow;
+    }
+
+    public int getColumnCount()
+    {
+        return types.length;
+    }
+
+    public ColumnType getType(int column)
+    {
+        return types[column];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public String getText(int row, int column)
+    {
+        return text[column][row];
+    }
+
+    public int getInt(int row, int column)
+    {
+        return numbers[column][row];
+    }
+
+    public java.sql.Date getDate(int row, int column)
+    {
+        return java.sql.Date.valueOf(java.time.LocalDate.ofEpochDay(numbers[column][row]));
+    }
+
+    // RowHash accumulator over the cell text, before RowHash.finish, so callers can mix in extra values.
+    public long getHash(int row)
+    {
+        return hashes[row];
+    }
+
+    public String getError(int row)
+    {
+        return errors[row];
+    }
+
+    public void clear()
+    {
+        for(String[] column: text)
+        {
+            if(column != null)
+            {
+                Arrays.fill(column, 0, size, null);
+            }
+        }
+        Arrays.fill(errors, 0, size, null);
+        size = 0;
+    }
+
+    // Appends copies of all rows of another buffer with the same column types.
+    public void copyFrom(RowBuffer source)
+    {
+        if(!Arrays.equals(types, source.types))
+        {
+            throw new IllegalArgumentException("column types differ");
+        }
+
+        for(int i = 0; i < source.size; i++)
+        {
+            int row = addRow();
+            for(int column = 0; column < types.length; column++)
+            {
+                if(text[column] != null)
+                {
+                    text[column][row] = source.text[column][i];
+                }
+                else
+                {
+                    numbers[column][row] = source.numbers[column][i];
+                }
+            }
+            hashes[row] = source.hashes[i];
+            errors[row] = source.errors[i];
+        }
+    }
+
+    // Appends an empty row and returns its index; the decoder then fills it cell by cell.
+    int addRow()
+    {
+        if(size == hashes.length)
+        {
+            int capacity = hashes.length * 2;
+            for(int column = 0; column < types.length; column++)
+            {
+                if(text[column] != null)
+                {
+                    text[column] = Arrays.copyOf(text[column], capacity);
+                }
+                else
+                {
+                    numbers[column] = Arrays.copyOf(numbers[column], capacity);
+                }
+            }
+            hashes = Arrays.copyOf(hashes, capacity);
+            errors = Arrays.copyOf(errors, capacity);
+        }
+        return size++;
+    }
+
+    void setText(int row, int column, String value)
+    {
+        text[column][row] = value;
+    }
+
+    void setNumber(int row, int column, int value)
+    {
+        numbers[column][row] = value;
+    }
+
+    void setHash(int row, long hash)
+    {
+        hashes[row] = hash;
+    }
+
+    void setError(int row, String error)
+    {
+        if(errors[row] == null)
+        {
+            errors[row] = error;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.sheets.utils;
+
+import lombok.Data;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The rows of a window that have to be written: those not stored yet, stored without a hash, or stored with a
+// different hash.
+@Data
+public class RowDiff
+{
+    private final int[] changedRows;
+    private final Map<String, Long> changedHashes;
+
+    // ids and rowHashes are parallel to decodedRows; existingHashes maps the stored ids to their hash, or null.
+    public static RowDiff of(int[] decodedRows, List<String> ids, long[] rowHashes, Map<String, Long> existingHashes)
+    {
+        int[] changedRows = new int[decodedRows.length];
+        Map<String, Long> changedHashes = new HashMap<>();
+        int count = 0;
+        for(int i = 0; i < decodedRows.length; i++)
+        {
+            String id = ids.get(i);
+            long rowHash = rowHashes[i];
+            Long existingHash = existingHashes.get(id);
+            if(existingHash == null || existingHash != rowHash)
+            {
+                changedRows[count++] = decodedRows[i];
+                changedHashes.put(id, rowHash);
+            }
+        }
+
+        int[] trimmed = new int[count];
+        System.arraycopy(changedRows, 0, trimmed, 0, count);
+        return new RowDiff(trimmed, changedHashes);
+    }
+}
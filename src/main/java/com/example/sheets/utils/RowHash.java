@@ -0,0 +1,59 @@
+package com.example.sheets.utils;
+
+public final class RowHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final char CELL_SEPARATOR = '\u001f';
+
+    private RowHash()
+    {
+    }
+
+    // A row hash is FNV-1a over the cell text with a separator between cells, so ["ab", "c"] and ["a", "bc"] differ,
+    // followed by a murmur3 finalizer: start(), mix() once per cell, then finish(). Missing trailing cells are mixed
+    // as empty text, as the Sheets API trims rows.
+    public static long start()
+    {
+        return FNV_OFFSET_BASIS;
+    }
+
+    public static long mix(long hash, String value)
+    {
+        for(int i = 0; i < value.length(); i++)
+        {
+            hash = mix(hash, value.charAt(i));
+        }
+        return (hash ^ CELL_SEPARATOR) * FNV_PRIME;
+    }
+
+    public static long mix(long hash, char[] value, int offset, int length)
+    {
+        for(int i = offset; i < offset + length; i++)
+        {
+            hash = mix(hash, value[i]);
+        }
+        return (hash ^ CELL_SEPARATOR) * FNV_PRIME;
+    }
+
+    private static long mix(long hash, char c)
+    {
+        hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+        return (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+
+    public static long combine(long digest, long value)
+    {
+        return digest * 0x9e3779b97f4a7c15L + value;
+    }
+
+    public static long finish(long hash)
+    {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
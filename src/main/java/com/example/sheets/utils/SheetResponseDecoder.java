@@ -0,0 +1,275 @@
+package com.example.sheets.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+// Decodes a values.batchGet response straight from the JSON token stream into one RowBuffer per requested range,
+// without building the ValueRange / List<List<Object>> object graph. Numeric and date cells are parsed from the
+// token characters in place; only text cells become Strings.
+public final class SheetResponseDecoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private SheetResponseDecoder()
+    {
+    }
+
+    public static void decode(InputStream content, List<RowBuffer> buffers) throws IOException
+    {
+        try (JsonParser parser = JSON_FACTORY.createParser(content))
+        {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while(parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if("valueRanges".equals(field) && token == JsonToken.START_ARRAY)
+                {
+                    int range = 0;
+                    while(parser.nextToken() == JsonToken.START_OBJECT)
+                    {
+                        if(range < buffers.size())
+                        {
+                            decodeValueRange(parser, buffers.get(range));
+                        }
+                        else
+                        {
+                            parser.skipChildren();
+                        }
+                        range++;
+                    }
+                }
+                else
+                {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void decodeValueRange(JsonParser parser, RowBuffer buffer) throws IOException
+    {
+        while(parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if("values".equals(field) && token == JsonToken.START_ARRAY)
+            {
+                while(parser.nextToken() == JsonToken.START_ARRAY)
+                {
+                    decodeRow(parser, buffer);
+                }
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    // Missing trailing cells are hashed as empty text, so a trimmed row hashes like a padded one.
+    private static void decodeRow(JsonParser parser, RowBuffer buffer) throws IOException
+    {
+        int row = buffer.addRow();
+        long hash = RowHash.start();
+        int column = 0;
+        JsonToken token;
+        while((token = parser.nextToken()) != JsonToken.END_ARRAY)
+        {
+            if(token == JsonToken.START_ARRAY || token == JsonToken.START_OBJECT)
+            {
+                parser.skipChildren();
+                continue;
+            }
+            if(column >= buffer.getColumnCount())
+            {
+                continue;
+            }
+
+            char[] chars = parser.getTextCharacters();
+            int offset = parser.getTextOffset();
+            int length = parser.getTextLength();
+            if(token == JsonToken.VALUE_NULL)
+            {
+                length = 0;
+            }
+            hash = RowHash.mix(hash, chars, offset, length);
+            decodeCell(buffer, row, column, chars, offset, length);
+            column++;
+        }
+
+        for(; column < buffer.getColumnCount(); column++)
+        {
+            hash = RowHash.mix(hash, "");
+            decodeCell(buffer, row, column, null, 0, 0);
+        }
+        buffer.setHash(row, hash);
+    }
+
+    private static void decodeCell(RowBuffer buffer, int row, int column, char[] chars, int offset, int length)
+    {
+        switch(buffer.getType(column))
+        {
+            case TEXT:
+                buffer.setText(row, column, (length == 0) ? "" : new String(chars, offset, length));
+                break;
+            case INT:
+                long value = parseInt(chars, offset, length);
+                if(value == Long.MIN_VALUE)
+                {
+                    buffer.setError(row, "invalid number in column " + (column + 1) + ": '" + cellText(chars, offset, length) + "'");
+                }
+                buffer.setNumber(row, column, (int) value);
+                break;
+            case DATE:
+                long epochDay = parseDate(chars, offset, length);
+                if(epochDay == Long.MIN_VALUE)
+                {
+                    buffer.setError(row, "invalid date in column " + (column + 1) + ": '" + cellText(chars, offset, length) + "'");
+                }
+                buffer.setNumber(row, column, (int) epochDay);
+                break;
+        }
+    }
+
+    // Returns Long.MIN_VALUE when the text is not an int. Accepts a whole-number decimal such as "12.0", which is
+    // how unformatted numeric cells can come back.
+    static long parseInt(char[] chars, int offset, int length)
+    {
+        int end = offset + length;
+        int i = offset;
+        boolean negative = i < end && chars[i] == '-';
+        if(negative || (i < end && chars[i] == '+'))
+        {
+            i++;
+        }
+
+        int start = i;
+        long value = 0;
+        for(; i < end && chars[i] != '.'; i++)
+        {
+            char c = chars[i];
+            if(c < '0' || c > '9' || i - start >= 10)
+            {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        if(i == start)
+        {
+            return Long.MIN_VALUE;
+        }
+        for(i++; i < end; i++)
+        {
+            if(chars[i] != '0')
+            {
+                return Long.MIN_VALUE;
+            }
+        }
+
+        value = negative ? -value : value;
+        return (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) ? Long.MIN_VALUE : value;
+    }
+
+    // Parses y-M-d (as SimpleDateFormat("yyyy-MM-dd") does for valid dates) into an epoch day, or Long.MIN_VALUE.
+    static long parseDate(char[] chars, int offset, int length)
+    {
+        int year = 0;
+        int month = 0;
+        int day = 0;
+        int part = 0;
+        int digits = 0;
+        for(int i = offset; i < offset + length; i++)
+        {
+            char c = chars[i];
+            if(c == '-' && digits > 0 && part < 2)
+            {
+                part++;
+                digits = 0;
+            }
+            else if(c >= '0' && c <= '9' && digits < 4)
+            {
+                int digit = c - '0';
+                if(part == 0)
+                {
+                    year = year * 10 + digit;
+                }
+                else if(part == 1)
+                {
+                    month = month * 10 + digit;
+                }
+                else
+                {
+                    day = day * 10 + digit;
+                }
+                digits++;
+            }
+            else
+            {
+                return Long.MIN_VALUE;
+            }
+        }
+
+        if(part != 2 || digits == 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month))
+        {
+            return Long.MIN_VALUE;
+        }
+        return epochDay(year, month, day);
+    }
+
+    private static int lengthOfMonth(int year, int month)
+    {
+        switch(month)
+        {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isLeapYear(long year)
+    {
+        return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    // Same arithmetic as LocalDate.toEpochDay, for non-negative years.
+    private static long epochDay(long year, long month, long day)
+    {
+        long total = 365 * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if(month > 2)
+        {
+            total--;
+            if(!isLeapYear(year))
+            {
+                total--;
+            }
+        }
+        return total - 719528;
+    }
+
+    private static String cellText(char[] chars, int offset, int length)
+    {
+        return (length == 0) ? "" : new String(chars, offset, length);
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException
+    {
+        if(actual != expected)
+        {
+            throw new IOException("Unexpected " + actual + " at " + parser.getCurrentLocation() + ", expected " + expected);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.sheets.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Runs a source stage that expands each input into items, followed by a chain of stages that each process
+// items in place. Stages are connected by bounded queues, so a slow stage blocks the ones before it instead
+// of letting windows pile up in memory. The first failure stops every stage and is rethrown by run().
+public class StagedPipeline<S, T> {
+
+    public interface Source<S, T>
+    {
+        List<T> expand(S input) throws Exception;
+    }
+
+    // Returns false to drop the item instead of passing it to the next stage.
+    public interface Stage<T>
+    {
+        boolean process(T item) throws Exception;
+    }
+
+    // Told how long a stage spent on each item, from the worker thread that processed it.
+    public interface StageListener
+    {
+        void onItem(String stage, long busyNanos);
+    }
+
+    private static final Object END = new Object();
+    private static final long POLL_MILLIS = 100;
+
+    private final String name;
+    private final int queueCapacity;
+    private final List<StageRunner> stages = new ArrayList<>();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private StageListener listener;
+
+    private class StageRunner
+    {
+        private final String name;
+        private final int parallelism;
+        private final Source<Object, Object> source;
+        private final BlockingQueue<Object> input;
+        private final AtomicInteger runningWorkers;
+        private final AtomicLong itemsIn = new AtomicLong();
+        private final AtomicLong itemsOut = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+        private StageRunner(String name, int parallelism, Source<Object, Object> source, BlockingQueue<Object> input)
+        {
+            this.name = name;
+            this.parallelism = parallelism;
+            this.source = source;
+            this.input = input;
+            this.runningWorkers = new AtomicInteger(parallelism);
+        }
+
+        private void work(StageRunner next)
+        {
+            try
+            {
+                while(failure.get() == null)
+                {
+                    Object item = input.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if(item == null)
+                    {
+                        continue;
+                    }
+                    if(item == END)
+                    {
+                        break;
+                    }
+
+                    maxQueueDepth.accumulateAndGet(input.size() + 1, Math::max);
+                    itemsIn.incrementAndGet();
+                    long start = System.nanoTime();
+                    List<Object> outputs = source.expand(item);
+                    long itemNanos = System.nanoTime() - start;
+                    busyNanos.addAndGet(itemNanos);
+                    if(listener != null)
+                    {
+                        listener.onItem(name, itemNanos);
+                    }
+
+                    for(Object output: outputs)
+                    {
+                        itemsOut.incrementAndGet();
+                        if(next != null && !offer(next.input, output))
+                        {
+                            return;
+                        }
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+            }
+            catch (Exception e)
+            {
+                failure.compareAndSet(null, e);
+            }
+            finally
+            {
+                if(runningWorkers.decrementAndGet() == 0 && next != null)
+                {
+                    for(int i = 0; i < next.parallelism; i++)
+                    {
+                        if(!offer(next.input, END))
+                        {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        private String stats(long elapsedNanos)
+        {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%s %s x%d: %d in, %d out, busy %d ms, %.1f items/s, max queue depth %d%s",
+                    StagedPipeline.this.name, name, parallelism, itemsIn.get(), itemsOut.get(), TimeUnit.NANOSECONDS.toMillis(busyNanos.get()),
+                    (seconds == 0) ? 0 : itemsIn.get() / seconds, maxQueueDepth.get(), (input instanceof ArrayBlockingQueue) ? "/" + queueCapacity : "");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public StagedPipeline(String name, int queueCapacity, String sourceName, int sourceParallelism, Source<S, T> source)
+    {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        stages.add(new StageRunner(sourceName, sourceParallelism, (Source<Object, Object>) source, new LinkedBlockingQueue<>()));
+    }
+
+    @SuppressWarnings("unchecked")
+    public StagedPipeline<S, T> then(String stageName, int parallelism, Stage<T> stage)
+    {
+        Source<Object, Object> step = item -> stage.process((T) item) ? Collections.singletonList(item) : Collections.emptyList();
+        stages.add(new StageRunner(stageName, parallelism, step, new ArrayBlockingQueue<>(queueCapacity)));
+        return this;
+    }
+
+    public StagedPipeline<S, T> listener(StageListener listener)
+    {
+        this.listener = listener;
+        return this;
+    }
+
+    public List<String> run(List<S> inputs) throws Exception
+    {
+        StageRunner first = stages.get(0);
+        first.input.addAll(inputs);
+        for(int i = 0; i < first.parallelism; i++)
+        {
+            first.input.add(END);
+        }
+
+        int workers = stages.stream().mapToInt(stage -> stage.parallelism).sum();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        CountDownLatch finished = new CountDownLatch(workers);
+        long start = System.nanoTime();
+        try
+        {
+            for(int i = 0; i < stages.size(); i++)
+            {
+                StageRunner stage = stages.get(i);
+                StageRunner next = (i + 1 < stages.size()) ? stages.get(i + 1) : null;
+                for(int j = 0; j < stage.parallelism; j++)
+                {
+                    executor.execute(() -> {
+                        try
+                        {
+                            stage.work(next);
+                        }
+                        finally
+                        {
+                            finished.countDown();
+                        }
+                    });
+                }
+            }
+            finished.await();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        if(failure.get() != null)
+        {
+            throw failure.get();
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        List<String> stats = new ArrayList<>();
+        for(StageRunner stage: stages)
+        {
+            stats.add(stage.stats(elapsedNanos));
+        }
+        return stats;
+    }
+
+    private boolean offer(BlockingQueue<Object> queue, Object item)
+    {
+        try
+        {
+            while(!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS))
+            {
+                if(failure.get() != null)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.sheets.utils;
+
+import com.example.sheets.dtos.SyncTarget;
+
+// The sync target the current thread works for; unset means the default target. It is inherited by threads
+// started from a thread that has it set, which covers the executors StagedPipeline creates per run.
+public class SyncTargetContext
+{
+    private static final InheritableThreadLocal<SyncTarget> current = new InheritableThreadLocal<>();
+
+    // Set once any target other than the default has been entered; until then pooled connections are known to
+    // still have the default search_path.
+    private static volatile boolean entered;
+
+    private SyncTargetContext()
+    {
+    }
+
+    public static SyncTarget get()
+    {
+        return current.get();
+    }
+
+    public static String getTenantKey()
+    {
+        SyncTarget target = current.get();
+        return (target == null) ? SyncTarget.DEFAULT_TENANT : target.getTenantKey();
+    }
+
+    // Returns the previous target, to be passed to restore().
+    public static SyncTarget enter(SyncTarget target)
+    {
+        entered = true;
+        SyncTarget previous = current.get();
+        current.set(target);
+        return previous;
+    }
+
+    public static void restore(SyncTarget previous)
+    {
+        if(previous == null)
+        {
+            current.remove();
+        }
+        else
+        {
+            current.set(previous);
+        }
+    }
+
+    public static boolean isEntered()
+    {
+        return entered;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.sheets.utils;
+
+import com.example.sheets.dtos.SyncTarget;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Points every connection handed out at the current sync target's schema, so the unqualified table names used
+// throughout the sync resolve to that target's tables. The default schema stays on the path after the target's,
+// for tables that only exist there: JobRunr's and the control tables of db/migration/control.
+public class SyncTargetDataSource extends DelegatingDataSource
+{
+    private final String defaultSearchPath;
+
+    public SyncTargetDataSource(DataSource targetDataSource, String defaultSchema)
+    {
+        super(targetDataSource);
+        this.defaultSearchPath = quote(defaultSchema);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException
+    {
+        return prepare(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException
+    {
+        return prepare(super.getConnection(username, password));
+    }
+
+    private Connection prepare(Connection connection) throws SQLException
+    {
+        if(!SyncTargetContext.isEntered())
+        {
+            return connection;
+        }
+
+        SyncTarget target = SyncTargetContext.get();
+        String searchPath = (target == null) ? defaultSearchPath : quote(target.getSchemaName()) + ", " + defaultSearchPath;
+        try (Statement statement = connection.createStatement())
+        {
+            statement.execute("SET search_path TO " + searchPath);
+        }
+        catch (SQLException e)
+        {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    private static String quote(String schema)
+    {
+        return "\"" + schema.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,23 @@
+CREATE TABLE IF NOT EXISTS sync_targets
+(
+    tenant_key character varying(50) NOT NULL,
+    sheet_id character varying(100) NOT NULL,
+    schema_name character varying(63) NOT NULL,
+    cron character varying(50) NOT NULL DEFAULT '0 * * * *',
+    alert_email_to text,
+    enabled boolean NOT NULL DEFAULT true,
+    next_run_at timestamp NOT NULL DEFAULT now(),
+    running_since timestamp,
+    last_started_at timestamp,
+    last_finished_at timestamp,
+    last_duration_ms bigint,
+    last_sheets_requests bigint,
+    last_rows_read bigint,
+    last_rows_written bigint,
+    last_rows_deleted bigint,
+    last_rows_rejected bigint,
+    last_error text,
+    CONSTRAINT sync_targets_pkey PRIMARY KEY (tenant_key),
+    CONSTRAINT sync_targets_schema_name_key UNIQUE (schema_name),
+    CONSTRAINT sync_targets_schema_name_check CHECK (schema_name ~ '^[a-z_][a-z0-9_]*$' AND schema_name NOT IN ('public', 'pg_catalog', 'information_schema'))
+);
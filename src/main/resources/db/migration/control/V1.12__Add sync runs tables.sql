@@ -0,0 +1,37 @@
+-- At most one run is RUNNING; starting a run marks the previous one SUPERSEDED, after which its shards stop.
+CREATE TABLE IF NOT EXISTS sync_runs
+(
+    run_id character varying(36) NOT NULL,
+    status character varying(10) NOT NULL DEFAULT 'RUNNING',
+    error text,
+    started_at timestamp NOT NULL DEFAULT now(),
+    finished_at timestamp,
+    CONSTRAINT sync_runs_pkey PRIMARY KEY (run_id)
+);
+
+-- The plan of each tab of a run, kept until the job that finalizes the tab (on any node) picks it up. The plan
+-- columns are NULL while the tab is PLANNING.
+CREATE TABLE IF NOT EXISTS sync_run_tabs
+(
+    run_id character varying(36) NOT NULL,
+    sheet_name character varying(50) NOT NULL,
+    status character varying(10) NOT NULL DEFAULT 'PLANNING',
+    last_row integer,
+    signal_digests bigint[],
+    fetched_blocks boolean[],
+    starting_rows integer[],
+    ending_rows integer[],
+    window_signal_digests bigint[],
+    shards integer NOT NULL DEFAULT 0,
+    http_requests integer NOT NULL DEFAULT 0,
+    blocks_fetched integer NOT NULL DEFAULT 0,
+    blocks_skipped integer NOT NULL DEFAULT 0,
+    blocks_changed integer NOT NULL DEFAULT 0,
+    windows_resumed integer NOT NULL DEFAULT 0,
+    rows_resumed bigint NOT NULL DEFAULT 0,
+    rows_deleted bigint NOT NULL DEFAULT 0,
+    delete_aborted boolean NOT NULL DEFAULT false,
+    started_at timestamp NOT NULL DEFAULT now(),
+    finished_at timestamp,
+    CONSTRAINT sync_run_tabs_pkey PRIMARY KEY (run_id, sheet_name)
+);
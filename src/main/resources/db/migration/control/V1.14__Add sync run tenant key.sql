@@ -0,0 +1,4 @@
+-- Runs of every target share this table; at most one run per target is RUNNING.
+ALTER TABLE sync_runs ADD COLUMN IF NOT EXISTS tenant_key character varying(50) NOT NULL DEFAULT 'default';
+
+CREATE INDEX IF NOT EXISTS sync_runs_running_idx ON sync_runs (tenant_key) WHERE status = 'RUNNING';
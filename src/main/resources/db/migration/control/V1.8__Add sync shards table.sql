@@ -0,0 +1,21 @@
+CREATE TABLE IF NOT EXISTS sync_shards
+(
+    run_id character varying(36) NOT NULL,
+    sheet_name character varying(50) NOT NULL,
+    shard_index integer NOT NULL,
+    starting_rows integer[] NOT NULL,
+    ending_rows integer[] NOT NULL,
+    signal_digests bigint[] NOT NULL,
+    status character varying(10) NOT NULL DEFAULT 'PENDING',
+    attempts integer NOT NULL DEFAULT 0,
+    error text,
+    http_requests integer NOT NULL DEFAULT 0,
+    windows integer NOT NULL DEFAULT 0,
+    rows_read bigint NOT NULL DEFAULT 0,
+    rows_skipped bigint NOT NULL DEFAULT 0,
+    rows_written bigint NOT NULL DEFAULT 0,
+    rows_rejected bigint NOT NULL DEFAULT 0,
+    fetch_millis bigint NOT NULL DEFAULT 0,
+    created_at timestamp NOT NULL DEFAULT now(),
+    CONSTRAINT sync_shards_pkey PRIMARY KEY (run_id, sheet_name, shard_index)
+);
@@ -0,0 +1,91 @@
+CREATE TABLE IF NOT EXISTS occupancy_latest
+(
+    hospital_id character varying(8) NOT NULL,
+    general_bed_count smallint NOT NULL,
+    general_occupied integer NOT NULL,
+    icu_bed_count smallint NOT NULL,
+    icu_occupied integer NOT NULL,
+    recorded_at timestamp NOT NULL,
+    CONSTRAINT occupancy_latest_pkey PRIMARY KEY (hospital_id)
+);
+
+-- Only rows whose values differ from occupancy_latest; NULL counts mark a hospital removed from the sheet.
+CREATE TABLE IF NOT EXISTS occupancy_changes
+(
+    hospital_id character varying(8) NOT NULL,
+    recorded_at timestamp NOT NULL,
+    general_bed_count smallint,
+    general_occupied integer,
+    icu_bed_count smallint,
+    icu_occupied integer
+) PARTITION BY RANGE (recorded_at);
+
+CREATE INDEX IF NOT EXISTS occupancy_changes_recorded_at_idx ON occupancy_changes (recorded_at);
+
+-- general_occupied and icu_occupied are the values at the end of the hour.
+CREATE TABLE IF NOT EXISTS occupancy_hourly
+(
+    hour timestamp NOT NULL,
+    hospital_id character varying(8) NOT NULL,
+    general_bed_count smallint NOT NULL,
+    general_occupied integer NOT NULL,
+    general_occupied_max integer NOT NULL,
+    icu_bed_count smallint NOT NULL,
+    icu_occupied integer NOT NULL,
+    icu_occupied_max integer NOT NULL,
+    over_threshold boolean NOT NULL,
+    CONSTRAINT occupancy_hourly_pkey PRIMARY KEY (hour, hospital_id)
+) PARTITION BY RANGE (hour);
+
+CREATE TABLE IF NOT EXISTS occupancy_daily
+(
+    day date NOT NULL,
+    hospital_id character varying(8) NOT NULL,
+    general_bed_count smallint NOT NULL,
+    general_occupied_max integer NOT NULL,
+    icu_bed_count smallint NOT NULL,
+    icu_occupied_max integer NOT NULL,
+    hours_over_threshold smallint NOT NULL,
+    over_threshold boolean NOT NULL,
+    CONSTRAINT occupancy_daily_pkey PRIMARY KEY (hospital_id, day)
+);
+
+CREATE INDEX IF NOT EXISTS occupancy_daily_over_threshold_idx ON occupancy_daily (hospital_id, day) WHERE over_threshold;
+
+CREATE TABLE IF NOT EXISTS occupancy_rollups
+(
+    name character varying(10) NOT NULL,
+    rolled_up_to timestamp NOT NULL,
+    CONSTRAINT occupancy_rollups_pkey PRIMARY KEY (name)
+);
+
+-- Creates the partition of parent covering the day or month (unit) that contains instant, unless it exists.
+CREATE OR REPLACE FUNCTION create_occupancy_partition(parent text, unit text, instant timestamp) RETURNS void AS $$
+DECLARE
+    starts_at timestamp := date_trunc(unit, instant);
+BEGIN
+    -- CREATE TABLE IF NOT EXISTS alone fails when two instances create the same partition at once.
+    PERFORM pg_advisory_xact_lock(hashtext(parent));
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                   parent || '_' || to_char(starts_at, CASE unit WHEN 'day' THEN 'YYYYMMDD' ELSE 'YYYYMM' END),
+                   parent, starts_at, starts_at + ('1 ' || unit)::interval);
+END
+$$ LANGUAGE plpgsql;
+
+-- Drops the partitions of parent that end at or before older_than and returns how many were dropped.
+CREATE OR REPLACE FUNCTION drop_occupancy_partitions(parent text, older_than timestamp) RETURNS integer AS $$
+DECLARE
+    expired record;
+    dropped integer := 0;
+BEGIN
+    FOR expired IN
+        SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = parent::regclass
+          AND CAST(substring(pg_get_expr(c.relpartbound, c.oid) FROM 'TO \(''([^'']+)''\)') AS timestamp) <= older_than
+    LOOP
+        EXECUTE format('DROP TABLE %I', expired.relname);
+        dropped := dropped + 1;
+    END LOOP;
+    RETURN dropped;
+END
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,11 @@
+-- Moved after every committed change to hospitals or hospital_occupancy, so that every instance can tell with one
+-- cheap read whether its in-memory occupancy snapshot is stale.
+CREATE TABLE IF NOT EXISTS occupancy_version
+(
+    id boolean NOT NULL DEFAULT true,
+    version bigint NOT NULL DEFAULT 0,
+    CONSTRAINT occupancy_version_pkey PRIMARY KEY (id),
+    CONSTRAINT occupancy_version_single_row CHECK (id)
+);
+
+INSERT INTO occupancy_version (id, version) VALUES (true, 0) ON CONFLICT (id) DO NOTHING;
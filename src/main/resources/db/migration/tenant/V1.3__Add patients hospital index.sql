@@ -0,0 +1 @@
+CREATE INDEX IF NOT EXISTS patients_hospital_id_bed_type_idx ON patients (hospital_id, bed_type);
@@ -0,0 +1,25 @@
+CREATE TABLE IF NOT EXISTS hospital_occupancy
+(
+    hospital_id character varying(8) NOT NULL,
+    general_occupied integer NOT NULL DEFAULT 0,
+    icu_occupied integer NOT NULL DEFAULT 0,
+    over_threshold boolean NOT NULL DEFAULT false,
+    dirty boolean NOT NULL DEFAULT true,
+    CONSTRAINT hospital_occupancy_pkey PRIMARY KEY (hospital_id)
+);
+
+CREATE INDEX IF NOT EXISTS hospital_occupancy_dirty_idx ON hospital_occupancy (hospital_id) WHERE dirty;
+
+INSERT INTO hospital_occupancy (hospital_id, general_occupied, icu_occupied, over_threshold, dirty)
+SELECT c.hospital_id, c.general_occupied, c.icu_occupied,
+       COALESCE(c.general_occupied > 0.9 * h.general_bed_count OR c.icu_occupied > 0.9 * h.icu_bed_count, false),
+       false
+FROM (
+    SELECT hospital_id,
+           COUNT(*) FILTER (WHERE bed_type = 'General') AS general_occupied,
+           COUNT(*) FILTER (WHERE bed_type = 'ICU') AS icu_occupied
+    FROM patients
+    GROUP BY hospital_id
+) c
+LEFT JOIN hospitals h ON h.id = c.hospital_id
+ON CONFLICT (hospital_id) DO NOTHING;
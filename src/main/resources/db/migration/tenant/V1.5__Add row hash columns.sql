@@ -0,0 +1,3 @@
+ALTER TABLE hospitals ADD COLUMN IF NOT EXISTS row_hash bigint;
+
+ALTER TABLE patients ADD COLUMN IF NOT EXISTS row_hash bigint;
@@ -0,0 +1,18 @@
+CREATE TABLE IF NOT EXISTS sheet_digests
+(
+    sheet_name character varying(50) NOT NULL,
+    row_count integer NOT NULL,
+    root_digest bigint NOT NULL,
+    run_count bigint NOT NULL DEFAULT 0,
+    CONSTRAINT sheet_digests_pkey PRIMARY KEY (sheet_name)
+);
+
+CREATE TABLE IF NOT EXISTS sheet_block_digests
+(
+    sheet_name character varying(50) NOT NULL,
+    block_index integer NOT NULL,
+    row_count integer NOT NULL,
+    signal_digest bigint NOT NULL,
+    content_digest bigint NOT NULL,
+    CONSTRAINT sheet_block_digests_pkey PRIMARY KEY (sheet_name, block_index)
+);
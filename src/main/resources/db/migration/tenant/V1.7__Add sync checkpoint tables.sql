@@ -0,0 +1,20 @@
+CREATE TABLE IF NOT EXISTS sync_checkpoints
+(
+    sheet_name character varying(50) NOT NULL,
+    run_id character varying(36) NOT NULL,
+    row_count integer NOT NULL,
+    id_digest bigint NOT NULL,
+    started_at timestamp NOT NULL DEFAULT now(),
+    CONSTRAINT sync_checkpoints_pkey PRIMARY KEY (sheet_name)
+);
+
+CREATE TABLE IF NOT EXISTS sync_checkpoint_windows
+(
+    sheet_name character varying(50) NOT NULL,
+    starting_row integer NOT NULL,
+    ending_row integer NOT NULL,
+    signal_digest bigint NOT NULL,
+    block_index integer NOT NULL,
+    content_digest bigint NOT NULL,
+    CONSTRAINT sync_checkpoint_windows_pkey PRIMARY KEY (sheet_name, starting_row, block_index)
+);
@@ -0,0 +1,16 @@
+CREATE TABLE IF NOT EXISTS alert_outbox
+(
+    id bigserial NOT NULL,
+    recipients text NOT NULL,
+    subject text NOT NULL,
+    body text NOT NULL,
+    status character varying(10) NOT NULL DEFAULT 'PENDING',
+    attempts integer NOT NULL DEFAULT 0,
+    next_attempt_at timestamp NOT NULL DEFAULT now(),
+    error text,
+    created_at timestamp NOT NULL DEFAULT now(),
+    sent_at timestamp,
+    CONSTRAINT alert_outbox_pkey PRIMARY KEY (id)
+);
+
+CREATE INDEX IF NOT EXISTS alert_outbox_pending_idx ON alert_outbox (next_attempt_at) WHERE status = 'PENDING';
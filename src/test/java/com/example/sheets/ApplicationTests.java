@@ -0,0 +1,56 @@
+package com.example.sheets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Starts the whole application on an empty database: Flyway, JPA, JobRunr's storage and the Actuator endpoints.
+@AutoConfigureMetrics
+@ActiveProfiles("test")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ApplicationTests
+{
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry)
+    {
+        String url = TestPostgres.newDatabase();
+        registry.add("spring.datasource.url", () -> url);
+    }
+
+    @Test
+    void appliesEveryMigration() throws Exception
+    {
+        int migrations = new PathMatchingResourcePatternResolver().getResources("classpath:db/migration/*/*.sql").length;
+        assertEquals(migrations, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM flyway_schema_history WHERE success AND version IS NOT NULL", Integer.class));
+    }
+
+    @Test
+    void exposesHealthAndPrometheus()
+    {
+        ResponseEntity<String> health = restTemplate.getForEntity("/actuator/health", String.class);
+        assertEquals(HttpStatus.OK, health.getStatusCode());
+        assertTrue(health.getBody().contains("\"UP\""), health.getBody());
+
+        ResponseEntity<String> prometheus = restTemplate.getForEntity("/actuator/prometheus", String.class);
+        assertEquals(HttpStatus.OK, prometheus.getStatusCode());
+        assertTrue(prometheus.getBody().contains("application=\"sheets-data-sync\""));
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.sheets;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One embedded Postgres per test JVM, started on first use. Every caller gets an empty database of its own, so that
+// test classes (and their cached application contexts) never see each other's rows.
+public final class TestPostgres
+{
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private static EmbeddedPostgres postgres;
+
+    private TestPostgres()
+    {
+    }
+
+    // Creates an empty database and returns its JDBC URL; user and password are both "postgres".
+    public static synchronized String newDatabase()
+    {
+        try
+        {
+            if(postgres == null)
+            {
+                postgres = EmbeddedPostgres.builder().start();
+                Runtime.getRuntime().addShutdownHook(new Thread(TestPostgres::stop));
+            }
+
+            String name = "test_" + DATABASES.incrementAndGet();
+            try (Connection connection = postgres.getPostgresDatabase().getConnection(); Statement statement = connection.createStatement())
+            {
+                statement.execute("CREATE DATABASE " + name);
+            }
+            return postgres.getJdbcUrl("postgres", name);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        catch (SQLException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static synchronized void stop()
+    {
+        try
+        {
+            postgres.close();
+        }
+        catch (IOException e)
+        {
+            // the JVM is exiting anyway
+        }
+    }
+}
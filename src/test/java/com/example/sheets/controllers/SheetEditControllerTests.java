@@ -0,0 +1,123 @@
+package com.example.sheets.controllers;
+
+import com.example.sheets.TestPostgres;
+import com.example.sheets.services.GoogleSheetSource;
+import com.example.sheets.services.SheetEditService;
+import com.example.sheets.utils.RowBuffer;
+import com.example.sheets.utils.SheetResponseDecoder;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ActiveProfiles("test")
+@SpringBootTest(properties = {"sync.push.token=secret", "sync.push.max-pending-rows=3", "sync.push.batch-interval-ms=3600000"})
+@AutoConfigureMockMvc
+class SheetEditControllerTests
+{
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SheetEditService sheetEditService;
+
+    @MockBean
+    private GoogleSheetSource googleSheetSource;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry)
+    {
+        String url = TestPostgres.newDatabase();
+        registry.add("spring.datasource.url", () -> url);
+    }
+
+    // Rows 2-3 are queued; 4-6 would take the tab over the limit of 3, so only that edit is dropped.
+    @Test
+    void appliesPostedEditsAndDropsOnlyTheEditThatOverflows() throws Exception
+    {
+        respond("Hospital!A2:E3", "{\"valueRanges\": [{\"values\": [" +
+                "[\"H1\", \"One\", \"North\", \"10\", \"2\"], " +
+                "[\"H2\", \"Two\", \"South\", \"5\", \"1\"]" +
+                "]}]}");
+
+        postEdits("[{\"sheet\": \"Hospital\", \"startRow\": 2, \"endRow\": 3}]")
+                .andExpect(status().isAccepted());
+        postEdits("[{\"sheet\": \"Hospital\", \"startRow\": 4, \"endRow\": 6}, {\"sheet\": \"Hospital\", \"startRow\": 3}]")
+                .andExpect(status().isAccepted())
+                .andExpect(content().string("1 of 2 edits left to the hourly sync"));
+
+        sheetEditService.applyPending();
+
+        assertEquals(Arrays.asList("H1 One North", "H2 Two South"), jdbcTemplate.queryForList("SELECT id || ' ' || name || ' ' || location FROM hospitals ORDER BY id", String.class));
+    }
+
+    // The target's schema gets the target's tables only; the control tables stay in the default schema.
+    @Test
+    void appliesEditsAsTheTargetTheyName() throws Exception
+    {
+        jdbcTemplate.update("INSERT INTO sync_targets (tenant_key, sheet_id, schema_name, enabled) VALUES ('north', 'north-sheet', 'north', false)");
+        respond("Hospital!A2:E2", "{\"valueRanges\": [{\"values\": [[\"N1\", \"Hill\", \"North\", \"3\", \"0\"]]}]}");
+
+        postEdits("[{\"tenant\": \"north\", \"sheet\": \"Hospital\", \"startRow\": 2}]")
+                .andExpect(status().isAccepted());
+
+        sheetEditService.applyPending();
+
+        assertEquals(Collections.singletonList("N1 Hill North"), jdbcTemplate.queryForList("SELECT id || ' ' || name || ' ' || location FROM north.hospitals", String.class));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM public.hospitals WHERE id = 'N1'", Integer.class));
+        assertEquals(Collections.emptyList(), jdbcTemplate.queryForList("SELECT table_name FROM information_schema.tables WHERE table_schema = 'north' " +
+                "AND table_name IN ('sync_targets', 'sync_runs', 'sync_run_tabs', 'sync_shards')", String.class));
+    }
+
+    @Test
+    void rejectsEditsWithoutTheTokenOrForUnknownTargetsAndTabs() throws Exception
+    {
+        mockMvc.perform(post("/sync/edits").contentType(MediaType.APPLICATION_JSON).content("[{\"sheet\": \"Hospital\", \"startRow\": 2}]"))
+                .andExpect(status().isUnauthorized());
+        postEdits("[{\"tenant\": \"south\", \"sheet\": \"Hospital\", \"startRow\": 2}]")
+                .andExpect(status().isBadRequest());
+        postEdits("[{\"sheet\": \"Nurses\", \"startRow\": 2}]")
+                .andExpect(status().isBadRequest());
+        postEdits("[{\"sheet\": \"Hospital\", \"startRow\": 5, \"endRow\": 4}]")
+                .andExpect(status().isBadRequest());
+    }
+
+    private ResultActions postEdits(String json) throws Exception
+    {
+        return mockMvc.perform(post("/sync/edits").header("X-Sync-Token", "secret").contentType(MediaType.APPLICATION_JSON).content(json));
+    }
+
+    private void respond(String range, String json) throws Exception
+    {
+        doAnswer(invocation -> {
+            List<RowBuffer> buffers = invocation.getArgument(1);
+            SheetResponseDecoder.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), buffers);
+            return null;
+        }).when(googleSheetSource).batchGet(eq(Collections.singletonList(range)), anyList());
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.sheets.dtos;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class OccupancySnapshotTests
+{
+    private final OccupancySnapshot snapshot = snapshot("H1", "H2", "H3", "H5", "H8");
+
+    @Test
+    void pagesFollowEachOtherWithoutGapsOrRepeats()
+    {
+        List<String> seen = new ArrayList<>();
+        String after = null;
+        do
+        {
+            OccupancyPage page = snapshot.page(after, 2);
+            seen.addAll(ids(page));
+            after = page.getNext();
+        }
+        while(after != null);
+
+        assertEquals(Arrays.asList("H1", "H2", "H3", "H5", "H8"), seen);
+    }
+
+    @Test
+    void pageStartsAfterTheGivenIdEvenIfItIsGone()
+    {
+        OccupancyPage page = snapshot.page("H4", 10);
+        assertEquals(Arrays.asList("H5", "H8"), ids(page));
+        assertNull(page.getNext());
+
+        page = snapshot.page("H0", 1);
+        assertEquals(Collections.singletonList("H1"), ids(page));
+        assertEquals("H1", page.getNext());
+    }
+
+    @Test
+    void pageAfterTheLastIdIsEmpty()
+    {
+        OccupancyPage page = snapshot.page("H8", 2);
+        assertEquals(Collections.emptyList(), ids(page));
+        assertNull(page.getNext());
+
+        assertNull(snapshot.page("H9", 2).getNext());
+    }
+
+    @Test
+    void overThresholdHospitalsArePagedOnTheirOwn()
+    {
+        OccupancyPage page = snapshot.overThresholdPage(null, 1);
+        assertEquals(Collections.singletonList("H2"), ids(page));
+        assertEquals("H2", page.getNext());
+
+        page = snapshot.overThresholdPage(page.getNext(), 1);
+        assertEquals(Collections.singletonList("H5"), ids(page));
+        assertNull(page.getNext());
+    }
+
+    @Test
+    void getFindsHospitalsById()
+    {
+        assertEquals("H5", snapshot.get("H5").getId());
+        assertNull(snapshot.get("H4"));
+    }
+
+    // Every other hospital is over the threshold.
+    private static OccupancySnapshot snapshot(String... ids)
+    {
+        List<OccupancyRow> hospitals = new ArrayList<>();
+        List<OccupancyRow> overThreshold = new ArrayList<>();
+        for(int i = 0; i < ids.length; i++)
+        {
+            boolean over = i % 2 == 1;
+            OccupancyRow hospital = new OccupancyRow(ids[i], "Hospital " + ids[i], "North", 10, over ? 10 : 1, 2, 0, over);
+            hospitals.add(hospital);
+            if(over)
+            {
+                overThreshold.add(hospital);
+            }
+        }
+        return new OccupancySnapshot("\"0\"", 1, 0, ids, hospitals, overThreshold.stream().map(OccupancyRow::getId).toArray(String[]::new), overThreshold,
+                Collections.emptyList());
+    }
+
+    private static List<String> ids(OccupancyPage page)
+    {
+        return page.getItems().stream().map(OccupancyRow::getId).collect(Collectors.toList());
+    }
+}
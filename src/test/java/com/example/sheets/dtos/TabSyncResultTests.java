@@ -0,0 +1,48 @@
+package com.example.sheets.dtos;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TabSyncResultTests
+{
+    private static final int THREADS = 8;
+    private static final int UPDATES = 10_000;
+
+    @Test
+    void concurrentRejectionsAreAllCountedButOnlyTheFirstAreReported() throws Exception
+    {
+        TabSyncResult result = new TabSyncResult("Patient");
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try
+        {
+            List<Future<?>> workers = new ArrayList<>();
+            for(int thread = 0; thread < THREADS; thread++)
+            {
+                workers.add(executor.submit(() -> {
+                    for(int i = 0; i < UPDATES; i++)
+                    {
+                        result.addRejectedRow(i, "missing id");
+                    }
+                }));
+            }
+            for(Future<?> worker: workers)
+            {
+                worker.get();
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertEquals((long) THREADS * UPDATES, result.getRowsRejected().sum());
+        assertEquals(100, result.getRejectedRows().size());
+    }
+}
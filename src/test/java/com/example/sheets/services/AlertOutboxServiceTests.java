@@ -0,0 +1,130 @@
+package com.example.sheets.services;
+
+import com.example.sheets.TestPostgres;
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.mail.Address;
+import javax.mail.internet.MimeMessage;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@ActiveProfiles("test")
+@SpringBootTest(properties = {"spring.mail.port=3025", "alert.outbox.max-attempts=2", "alert.outbox.poll-interval-ms=86400000", "alert.outbox.retry-base-delay-ms=0"})
+class AlertOutboxServiceTests
+{
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP)
+            .withConfiguration(GreenMailConfiguration.aConfig().withDisabledAuthentication());
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private AlertOutboxService alertOutboxService;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry)
+    {
+        String url = TestPostgres.newDatabase();
+        registry.add("spring.datasource.url", () -> url);
+    }
+
+    @BeforeEach
+    void emptyOutbox()
+    {
+        jdbcTemplate.update("DELETE FROM alert_outbox");
+    }
+
+    // One message for all recipients, sent over SMTP, and the row marked SENT.
+    @Test
+    void deliversQueuedAlerts() throws Exception
+    {
+        alertOutboxService.enqueue("ward@example.com, admin@example.com", "Occupancy alert", "<p>H1 is over the limit</p>");
+        alertOutboxService.deliverPending();
+
+        MimeMessage[] received = greenMail.getReceivedMessages();
+        assertEquals(2, received.length);
+        assertEquals("Occupancy alert", received[0].getSubject());
+        assertEquals("sync@example.com", received[0].getFrom()[0].toString());
+        assertEquals(new HashSet<>(Arrays.asList("ward@example.com", "admin@example.com")), recipients(received[0]));
+        assertEquals(received[0].getMessageID(), received[1].getMessageID());
+
+        Map<String, Object> alert = alert();
+        assertEquals("SENT", alert.get("status"));
+        assertEquals(1, alert.get("attempts"));
+        assertNotNull(alert.get("sent_at"));
+    }
+
+    // A failed delivery stays PENDING with its error until the last attempt, which leaves it FAILED.
+    @Test
+    void retriesFailedDeliveriesUpToMaxAttempts()
+    {
+        greenMail.stop();
+        alertOutboxService.enqueue("ward@example.com", "Occupancy alert", "body");
+
+        alertOutboxService.deliverPending();
+        Map<String, Object> alert = alert();
+        assertEquals("PENDING", alert.get("status"));
+        assertEquals(1, alert.get("attempts"));
+        assertNotNull(alert.get("error"));
+        assertNull(alert.get("sent_at"));
+
+        alertOutboxService.deliverPending();
+        alert = alert();
+        assertEquals("FAILED", alert.get("status"));
+        assertEquals(2, alert.get("attempts"));
+
+        greenMail.start();
+        alertOutboxService.deliverPending();
+        assertEquals(0, greenMail.getReceivedMessages().length);
+        assertEquals("FAILED", alert().get("status"));
+    }
+
+    @Test
+    void retryAfterAFailureIsDelivered()
+    {
+        greenMail.stop();
+        alertOutboxService.enqueue("ward@example.com", "Occupancy alert", "body");
+        alertOutboxService.deliverPending();
+        assertEquals("PENDING", alert().get("status"));
+
+        greenMail.start();
+        alertOutboxService.deliverPending();
+        assertEquals(1, greenMail.getReceivedMessages().length);
+        Map<String, Object> alert = alert();
+        assertEquals("SENT", alert.get("status"));
+        assertEquals(2, alert.get("attempts"));
+        assertNull(alert.get("error"));
+    }
+
+    private Map<String, Object> alert()
+    {
+        return jdbcTemplate.queryForMap("SELECT status, attempts, error, sent_at FROM alert_outbox");
+    }
+
+    private static HashSet<String> recipients(MimeMessage message) throws Exception
+    {
+        HashSet<String> recipients = new HashSet<>();
+        for(Address address: message.getRecipients(MimeMessage.RecipientType.TO))
+        {
+            recipients.add(address.toString());
+        }
+        return recipients;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.sheets.services;
+
+import com.example.sheets.TestPostgres;
+import com.example.sheets.exceptions.DeleteLimitExceededException;
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.models.db.Patient;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@ActiveProfiles("test")
+@SpringBootTest(properties = "sync.delete.max-shrink-percent=20")
+class BulkWriteServiceTests
+{
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private BulkWriteService bulkWriteService;
+
+    @Autowired
+    private OccupancyService occupancyService;
+
+    @Autowired
+    private CompiledTabMapping<Patient> patientMapping;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry)
+    {
+        String url = TestPostgres.newDatabase();
+        registry.add("spring.datasource.url", () -> url);
+    }
+
+    @Test
+    void deletesMissingRowsOnlyUpToTheShrinkLimit()
+    {
+        jdbcTemplate.update("INSERT INTO hospitals (id, name, location, general_bed_count, icu_bed_count) VALUES ('H1', 'One', 'North', 100, 10)");
+        List<Patient> patients = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for(int i = 0; i < 10; i++)
+        {
+            patients.add(new Patient("P" + i, "Patient " + i, Date.valueOf("1980-01-01"), "Flu", "General", "H1", (long) i));
+            ids.add("P" + i);
+        }
+        bulkWriteService.upsert(patientMapping, patients);
+
+        DeleteLimitExceededException refused = assertThrows(DeleteLimitExceededException.class, () -> bulkWriteService.deleteMissing(patientMapping, ids.subList(0, 7)));
+        assertEquals(3, refused.getDeleteCount());
+        assertEquals(10, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM patients", Integer.class));
+
+        assertEquals(0, bulkWriteService.deleteMissing(patientMapping, ids));
+        assertEquals(2, bulkWriteService.deleteMissing(patientMapping, ids.subList(0, 8)));
+        assertEquals(8, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM patients", Integer.class));
+        assertEquals(0, occupancyService.recount(false));
+    }
+}
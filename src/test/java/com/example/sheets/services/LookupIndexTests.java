@@ -0,0 +1,56 @@
+package com.example.sheets.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class LookupIndexTests
+{
+    @Test
+    void lowestKeyWinsForADuplicateValue()
+    {
+        Map<String, String> namesById = new LinkedHashMap<>();
+        namesById.put("H3", "City Hospital");
+        namesById.put("H10", "City Hospital");
+        namesById.put("H2", "City Hospital");
+        namesById.put("H1", "Hillside");
+
+        LookupIndex.Snapshot snapshot = new LookupIndex(() -> namesById).current();
+
+        assertEquals("H10", snapshot.resolve("City Hospital"));
+        assertEquals("H1", snapshot.resolve("Hillside"));
+        assertNull(snapshot.resolve("Riverside"));
+    }
+
+    @Test
+    void loadPublishesANewSnapshotAndLeavesTheOldOneAlone()
+    {
+        AtomicInteger loads = new AtomicInteger();
+        Map<String, String> namesById = new LinkedHashMap<>();
+        namesById.put("H1", "Hillside");
+        LookupIndex index = new LookupIndex(() -> {
+            loads.incrementAndGet();
+            return new LinkedHashMap<>(namesById);
+        });
+
+        LookupIndex.Snapshot first = index.current();
+        assertSame(first, index.current());
+        assertEquals(1, loads.get());
+
+        namesById.put("H1", "Riverside");
+        LookupIndex.Snapshot second = index.load();
+
+        assertEquals(first.getVersion() + 1, second.getVersion());
+        assertSame(second, index.current());
+        assertEquals("H1", second.resolve("Riverside"));
+        assertNull(second.resolve("Hillside"));
+        assertEquals("H1", first.resolve("Hillside"));
+        assertEquals("Hillside", first.getValuesByKey().get("H1"));
+    }
+}
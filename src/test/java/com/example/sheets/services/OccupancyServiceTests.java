@@ -0,0 +1,102 @@
+package com.example.sheets.services;
+
+import com.example.sheets.TestPostgres;
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.models.db.Patient;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ActiveProfiles("test")
+@SpringBootTest
+class OccupancyServiceTests
+{
+    private static final int PATIENTS = 200;
+    private static final int WRITERS = 6;
+    private static final int ROUNDS = 15;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private BulkWriteService bulkWriteService;
+
+    @Autowired
+    private OccupancyService occupancyService;
+
+    @Autowired
+    private CompiledTabMapping<Patient> patientMapping;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry)
+    {
+        String url = TestPostgres.newDatabase();
+        registry.add("spring.datasource.url", () -> url);
+    }
+
+    // Every writer moves the same patients between beds and hospitals at once, like pushed edits next to the hourly
+    // run; the counters must still match a recount afterwards.
+    @Test
+    void concurrentUpsertsOfTheSamePatientsKeepCountersExact() throws Exception
+    {
+        jdbcTemplate.update("INSERT INTO hospitals (id, name, location, general_bed_count, icu_bed_count) VALUES " +
+                "('H1', 'One', 'North', 100, 10), ('H2', 'Two', 'South', 100, 10), ('H3', 'Three', 'East', 100, 10)");
+
+        CyclicBarrier barrier = new CyclicBarrier(WRITERS);
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try
+        {
+            List<Future<?>> writers = new ArrayList<>();
+            for(int writer = 0; writer < WRITERS; writer++)
+            {
+                Random random = new Random(writer);
+                writers.add(executor.submit(() -> {
+                    for(int round = 0; round < ROUNDS; round++)
+                    {
+                        barrier.await();
+                        bulkWriteService.upsert(patientMapping, patients(random));
+                    }
+                    return null;
+                }));
+            }
+            for(Future<?> writer: writers)
+            {
+                writer.get();
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, occupancyService.recount(false));
+        assertEquals(PATIENTS, jdbcTemplate.queryForObject("SELECT SUM(general_occupied + icu_occupied) FROM hospital_occupancy", Integer.class));
+    }
+
+    private static List<Patient> patients(Random random)
+    {
+        List<Patient> patients = new ArrayList<>(PATIENTS);
+        for(int i = 0; i < PATIENTS; i++)
+        {
+            String bedType = random.nextBoolean() ? "General" : "ICU";
+            String hospitalId = "H" + (1 + random.nextInt(3));
+            patients.add(new Patient(String.format("P%04d", i), "Patient " + i, Date.valueOf("1980-01-01"), "Flu", bedType, hospitalId, random.nextLong()));
+        }
+        return patients;
+    }
+}
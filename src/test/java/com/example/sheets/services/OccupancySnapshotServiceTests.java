@@ -0,0 +1,56 @@
+package com.example.sheets.services;
+
+import com.example.sheets.TestPostgres;
+import com.example.sheets.dtos.OccupancySnapshot;
+import com.example.sheets.dtos.SyncTarget;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+@ActiveProfiles("test")
+@SpringBootTest(properties = "occupancy.snapshot.check-interval-ms=86400000")
+class OccupancySnapshotServiceTests
+{
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private OccupancySnapshotService occupancySnapshotService;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry)
+    {
+        String url = TestPostgres.newDatabase();
+        registry.add("spring.datasource.url", () -> url);
+    }
+
+    // Another instance's sync changes the data and moves the version; this instance must notice on its next check.
+    @Test
+    void rebuildsWhenAnotherInstanceMovedTheVersion() throws Exception
+    {
+        jdbcTemplate.update("INSERT INTO hospitals (id, name, location, general_bed_count, icu_bed_count) VALUES ('H1', 'One', 'North', 10, 2)");
+        OccupancySnapshot before = occupancySnapshotService.current(SyncTarget.DEFAULT_TENANT);
+        assertEquals(1, before.getHospitals().size());
+
+        occupancySnapshotService.refreshStale();
+        assertSame(before, occupancySnapshotService.current(SyncTarget.DEFAULT_TENANT));
+
+        jdbcTemplate.update("INSERT INTO hospitals (id, name, location, general_bed_count, icu_bed_count) VALUES ('H2', 'Two', 'South', 10, 2)");
+        jdbcTemplate.update("UPDATE occupancy_version SET version = version + 1");
+        assertSame(before, occupancySnapshotService.current(SyncTarget.DEFAULT_TENANT));
+
+        occupancySnapshotService.refreshStale();
+        OccupancySnapshot after = occupancySnapshotService.current(SyncTarget.DEFAULT_TENANT);
+        assertEquals(2, after.getHospitals().size());
+        assertEquals(before.getVersion() + 1, after.getVersion());
+        assertNotEquals(before.getEtag(), after.getEtag());
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.sheets.services;
+
+import com.example.sheets.TestPostgres;
+import com.example.sheets.dtos.BlockDigest;
+import com.example.sheets.dtos.TabSyncResult;
+import com.example.sheets.dtos.WindowCheckpoint;
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.models.db.Hospital;
+import com.example.sheets.utils.RowBuffer;
+import com.example.sheets.utils.SheetResponseDecoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+
+// Blocks of 2 rows, each fully verified every 3 runs, over a tab of 6 rows: blocks 0-2 hold rows 2-3, 4-5 and 6-7.
+@ActiveProfiles("test")
+@SpringBootTest(properties = {"sheets.blocks.rows=2", "sheets.blocks.full-verify-every=3"})
+class SheetFetchServiceTests
+{
+    @Autowired
+    private SheetFetchService sheetFetchService;
+
+    @Autowired
+    private BlockDigestService blockDigestService;
+
+    @Autowired
+    private CompiledTabMapping<Hospital> hospitalMapping;
+
+    @MockBean
+    private GoogleSheetSource googleSheetSource;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry)
+    {
+        String url = TestPostgres.newDatabase();
+        registry.add("spring.datasource.url", () -> url);
+    }
+
+    @Test
+    void downloadsOnlyBlocksWhoseSignalChangedOrWhoseTurnItIsToBeVerified() throws Exception
+    {
+        FakeSheetSource sheet = new FakeSheetSource(
+                Arrays.asList("id", "name", "location", "general_bed_count", "icu_bed_count"),
+                Arrays.asList("H1", "One", "North", "10", "2"),
+                Arrays.asList("H2", "Two", "South", "5", "1"),
+                Arrays.asList("H3", "Three", "East", "8", "0"),
+                Arrays.asList("H4", "Four", "West", "4", "4"),
+                Arrays.asList("H5", "Five", "North", "6", "1"),
+                Arrays.asList("H6", "Six", "South", "9", "3"));
+        doAnswer(invocation -> {
+            sheet.batchGet(invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(googleSheetSource).batchGet(anyList(), anyList());
+
+        // No digests are stored yet, so every block is downloaded.
+        assertPlan(new boolean[]{true, true, true}, Arrays.asList("2-7"));
+
+        // A probe column edited in block 0 is caught by its signal; the name edited in block 1 is not, and block 2
+        // is verified because it is its turn.
+        sheet.set(2, 3, "11");
+        sheet.set(4, 1, "Four Renamed");
+        assertPlan(new boolean[]{true, false, true}, Arrays.asList("2-3", "6-7"));
+
+        // Block 1's turn to be verified comes a run later, which picks up the edited name.
+        assertPlan(new boolean[]{false, true, false}, Arrays.asList("4-5"));
+    }
+
+    // Plans a run and stores the signals it saw, as finalizing the tab would.
+    private void assertPlan(boolean[] fetchedBlocks, List<String> pendingRows) throws Exception
+    {
+        TabSyncResult result = new TabSyncResult(hospitalMapping.getSheetName());
+        SheetFetchService.FetchPlan plan = sheetFetchService.plan(hospitalMapping, UUID.randomUUID().toString(), result);
+
+        assertArrayEquals(fetchedBlocks, plan.getFetchedBlocks());
+        List<String> rows = new ArrayList<>();
+        for(WindowCheckpoint window: plan.getPendingWindows())
+        {
+            rows.add(window.getStartingRow() + "-" + window.getEndingRow());
+        }
+        assertEquals(pendingRows, rows);
+
+        List<BlockDigest> blocks = new ArrayList<>();
+        for(int block = 0; block < plan.getSignalDigests().length; block++)
+        {
+            blocks.add(new BlockDigest(block, 2, plan.getSignalDigests()[block], 0));
+        }
+        blockDigestService.save(plan.getSheetName(), plan.getLastRow(), 0, blocks.size(), blocks);
+    }
+
+    // A tab held in memory, answering ranges like Hospital!A:A and Hospital!A2:E3 the way the Sheets API does.
+    private static class FakeSheetSource implements SheetSource
+    {
+        private static final Pattern RANGE = Pattern.compile("[^!]+!([A-Z])(\\d*):([A-Z])(\\d*)");
+
+        private final List<List<String>> rows = new ArrayList<>();
+
+        @SafeVarargs
+        FakeSheetSource(List<String>... rows)
+        {
+            for(List<String> row: rows)
+            {
+                this.rows.add(new ArrayList<>(row));
+            }
+        }
+
+        void set(int row, int column, String value)
+        {
+            rows.get(row - 1).set(column, value);
+        }
+
+        @Override
+        public void batchGet(List<String> ranges, List<RowBuffer> buffers) throws IOException
+        {
+            List<Map<String, Object>> valueRanges = new ArrayList<>();
+            for(String range: ranges)
+            {
+                Matcher matcher = RANGE.matcher(range);
+                if(!matcher.matches())
+                {
+                    throw new IllegalArgumentException(range);
+                }
+                int firstColumn = matcher.group(1).charAt(0) - 'A';
+                int lastColumn = matcher.group(3).charAt(0) - 'A';
+                int firstRow = matcher.group(2).isEmpty() ? 1 : Integer.parseInt(matcher.group(2));
+                int lastRow = matcher.group(4).isEmpty() ? rows.size() : Math.min(rows.size(), Integer.parseInt(matcher.group(4)));
+
+                List<List<String>> values = new ArrayList<>();
+                for(int row = firstRow; row <= lastRow; row++)
+                {
+                    values.add(rows.get(row - 1).subList(firstColumn, lastColumn + 1));
+                }
+                valueRanges.add(Collections.singletonMap("values", values));
+            }
+            byte[] json = new ObjectMapper().writeValueAsBytes(Collections.singletonMap("valueRanges", valueRanges));
+            SheetResponseDecoder.decode(new ByteArrayInputStream(json), buffers);
+        }
+    }
+}
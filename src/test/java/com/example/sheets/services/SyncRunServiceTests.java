@@ -0,0 +1,128 @@
+package com.example.sheets.services;
+
+import com.example.sheets.TestPostgres;
+import com.example.sheets.dtos.TabSyncResult;
+import com.example.sheets.dtos.WindowCheckpoint;
+import com.example.sheets.mappings.CompiledTabMapping;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ActiveProfiles("test")
+@SpringBootTest
+class SyncRunServiceTests
+{
+    private static final String SHEET = "Patient";
+
+    @Autowired
+    private SyncRunService syncRunService;
+
+    @Autowired
+    private SyncShardService syncShardService;
+
+    @Autowired
+    private List<CompiledTabMapping<?>> tabMappings;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry)
+    {
+        String url = TestPostgres.newDatabase();
+        registry.add("spring.datasource.url", () -> url);
+    }
+
+    @Test
+    void onlyTheLastShardToFinishClaimsTheFinalize()
+    {
+        String runId = startRunWithShards(2);
+
+        assertEquals(1, syncShardService.startAttempt(runId, SHEET, 0));
+        syncShardService.succeed(runId, 0, new TabSyncResult(SHEET));
+        assertFalse(syncRunService.claimFinalize(runId, SHEET));
+
+        assertEquals(1, syncShardService.startAttempt(runId, SHEET, 1));
+        syncShardService.succeed(runId, 1, new TabSyncResult(SHEET));
+        assertTrue(syncRunService.claimFinalize(runId, SHEET));
+        assertFalse(syncRunService.claimFinalize(runId, SHEET));
+        assertEquals(0, syncShardService.startAttempt(runId, SHEET, 1));
+    }
+
+    @Test
+    void aNewRunFencesOutTheShardsOfTheOldOne()
+    {
+        String oldRunId = startRunWithShards(2);
+        assertEquals(1, syncShardService.startAttempt(oldRunId, SHEET, 0));
+
+        String newRunId = startRunWithShards(1);
+        assertFalse(syncRunService.isRunning(oldRunId));
+        assertFalse(syncRunService.lockRunning(oldRunId));
+        assertEquals(0, syncShardService.startAttempt(oldRunId, SHEET, 1));
+        syncShardService.succeed(oldRunId, 0, new TabSyncResult(SHEET));
+        syncShardService.succeed(oldRunId, 1, new TabSyncResult(SHEET));
+        assertFalse(syncRunService.claimFinalize(oldRunId, SHEET));
+
+        assertTrue(syncRunService.lockRunning(newRunId));
+        assertEquals(1, syncShardService.startAttempt(newRunId, SHEET, 0));
+    }
+
+    @Test
+    void aRunEndsOnce()
+    {
+        String runId = startRunWithShards(1);
+        assertNull(syncRunService.succeed(runId, 2));
+        assertNotNull(syncRunService.fail(runId, "shard 0 failed"));
+        assertNull(syncRunService.fail(runId, "shard 0 failed"));
+        assertFalse(syncRunService.isRunning(runId));
+    }
+
+    @Test
+    void keepsThePlanForTheFinalizeJob()
+    {
+        String runId = startRunWithShards(1);
+        SheetFetchService.FetchPlan plan = syncRunService.getPlan(runId, patientMapping());
+        assertEquals(41, plan.getLastRow());
+        assertEquals(Arrays.asList(7L, -8L), Arrays.asList(plan.getSignalDigests()[0], plan.getSignalDigests()[1]));
+        assertTrue(plan.getFetchedBlocks()[0]);
+        assertFalse(plan.getFetchedBlocks()[1]);
+        assertEquals(Collections.singletonList(new WindowCheckpoint(2, 21, 99L)), plan.getWindows());
+
+        TabSyncResult result = syncRunService.getResult(runId, SHEET);
+        assertEquals(1, result.getShards());
+        assertEquals(3, result.getHttpRequests().sum());
+    }
+
+    private CompiledTabMapping<?> patientMapping()
+    {
+        return tabMappings.stream().filter(mapping -> SHEET.equals(mapping.getSheetName())).findFirst().get();
+    }
+
+    private String startRunWithShards(int shards)
+    {
+        String runId = UUID.randomUUID().toString();
+        syncRunService.start(runId);
+        assertTrue(syncRunService.claimPlanning(runId, SHEET));
+        assertFalse(syncRunService.claimPlanning(runId, SHEET));
+
+        SheetFetchService.FetchPlan plan = new SheetFetchService.FetchPlan(SHEET, null, 41, new long[] {7, -8}, new boolean[] {true, false}, Collections.emptyMap());
+        plan.getWindows().add(new WindowCheckpoint(2, 21, 99L));
+        TabSyncResult result = new TabSyncResult(SHEET);
+        result.setShards(shards);
+        result.getHttpRequests().add(3);
+        syncRunService.savePlan(runId, plan, result);
+        syncShardService.create(runId, SHEET, Collections.nCopies(shards, plan.getWindows()));
+        return runId;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.sheets.services;
+
+import com.example.sheets.TestPostgres;
+import com.example.sheets.dtos.TabSyncResult;
+import com.example.sheets.dtos.WindowCheckpoint;
+import com.example.sheets.mappings.CompiledTabMapping;
+import com.example.sheets.models.db.Hospital;
+import com.example.sheets.utils.RowBuffer;
+import com.example.sheets.utils.SheetResponseDecoder;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+
+@ActiveProfiles("test")
+@SpringBootTest
+class TabSyncServiceTests
+{
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TabSyncService tabSyncService;
+
+    @Autowired
+    private CompiledTabMapping<Hospital> hospitalMapping;
+
+    @MockBean
+    private GoogleSheetSource googleSheetSource;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry)
+    {
+        String url = TestPostgres.newDatabase();
+        registry.add("spring.datasource.url", () -> url);
+    }
+
+    // Which of two rows with the same id would be written is up to the upsert, so the later one is rejected instead.
+    @Test
+    void rejectsRowsRepeatingAnIdOfTheWindow() throws Exception
+    {
+        respond("{\"valueRanges\": [{\"values\": [" +
+                "[\"H1\", \"One\", \"North\", \"10\", \"2\"], " +
+                "[\"H2\", \"Two\", \"South\", \"5\", \"1\"], " +
+                "[\"H1\", \"One again\", \"East\", \"7\", \"1\"]" +
+                "]}]}");
+
+        TabSyncResult result = tabSyncService.syncRows(hospitalMapping, Collections.singletonList(new WindowCheckpoint(2, 4, 0)));
+
+        assertEquals(1, result.getRowsRejected().sum());
+        assertEquals(Collections.singletonList("Hospital row 4: duplicate id 'H1', first in row 2"), result.getRejectedRows());
+        assertEquals(2, result.getRowsWritten().sum());
+        assertEquals(Arrays.asList("H1 One North", "H2 Two South"), jdbcTemplate.queryForList("SELECT id || ' ' || name || ' ' || location FROM hospitals ORDER BY id", String.class));
+    }
+
+    private void respond(String json) throws Exception
+    {
+        doAnswer(invocation -> {
+            List<RowBuffer> buffers = invocation.getArgument(1);
+            SheetResponseDecoder.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), buffers);
+            return null;
+        }).when(googleSheetSource).batchGet(anyList(), anyList());
+    }
+}
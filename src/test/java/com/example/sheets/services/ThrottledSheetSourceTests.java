@@ -0,0 +1,218 @@
+package com.example.sheets.services;
+
+import com.example.sheets.utils.AdaptiveRateLimiter;
+import com.example.sheets.utils.FairPermits;
+import com.example.sheets.utils.RowBuffer;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.sheets.v4.Sheets;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Drives ThrottledSheetSource through a real Sheets client on a mock transport that answers with scripted statuses.
+class ThrottledSheetSourceTests
+{
+    private static final String VALUES = "{\"valueRanges\": [{\"values\": [[\"H1\"], [\"H2\"]]}]}";
+
+    private final ScriptedTransport transport = new ScriptedTransport();
+
+    private AdaptiveRateLimiter rateLimiter;
+
+    private ThrottledSheetSource sheetSource;
+
+    @BeforeEach
+    void setUp()
+    {
+        SyncMetrics syncMetrics = new SyncMetrics();
+        ReflectionTestUtils.setField(syncMetrics, "registry", new SimpleMeterRegistry());
+        Sheets sheets = new Sheets.Builder(transport, JacksonFactory.getDefaultInstance(), null).setApplicationName("test").build();
+        rateLimiter = new AdaptiveRateLimiter(60, 600, 10, 0.5, 100);
+        sheetSource = new ThrottledSheetSource(new GoogleSheetSource(sheets, syncMetrics, "sheet"), syncMetrics, rateLimiter, new FairPermits(4), 3, 1, 5);
+    }
+
+    @Test
+    void retriesThrottledRequestsNoSoonerThanRetryAfter() throws Exception
+    {
+        transport.respond(429, "1", "{}");
+        transport.respond(200, null, VALUES);
+
+        long start = System.nanoTime();
+        RowBuffer ids = read();
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+        assertEquals(2, transport.requests.get());
+        assertEquals(2, ids.size());
+        assertEquals("H2", ids.getText(1, 0));
+    }
+
+    @Test
+    void retriesServerErrorsUntilMaxAttempts() throws Exception
+    {
+        transport.respond(503, null, "{}");
+        transport.respond(500, null, "{}");
+        transport.respond(200, null, VALUES);
+        assertEquals(2, read().size());
+        assertEquals(3, transport.requests.get());
+
+        transport.respond(502, null, "{}");
+        transport.respond(503, null, "{}");
+        transport.respond(504, null, "{}");
+        HttpResponseException e = assertThrows(HttpResponseException.class, this::read);
+        assertEquals(504, e.getStatusCode());
+        assertEquals(6, transport.requests.get());
+    }
+
+    @Test
+    void doesNotRetryClientErrors()
+    {
+        transport.respond(400, null, "{}");
+        HttpResponseException e = assertThrows(HttpResponseException.class, this::read);
+        assertEquals(400, e.getStatusCode());
+        assertEquals(1, transport.requests.get());
+    }
+
+    // Each 429 halves the rate; each success adds 10 requests per minute back. Server errors leave it alone.
+    @Test
+    void backsOffMultiplicativelyAndRecoversAdditively() throws Exception
+    {
+        transport.respond(429, null, "{}");
+        transport.respond(429, null, "{}");
+        transport.respond(200, null, VALUES);
+        read();
+        assertEquals(160, rateLimiter.getRatePerMinute());
+
+        transport.respond(503, null, "{}");
+        transport.respond(200, null, VALUES);
+        read();
+        assertEquals(170, rateLimiter.getRatePerMinute());
+    }
+
+    @Test
+    void coalescesReadsOfRangesAlreadyInFlight() throws Exception
+    {
+        transport.respond(200, null, VALUES);
+        transport.blockNextRequest();
+
+        RowBuffer[] results = new RowBuffer[2];
+        Thread first = new Thread(() -> results[0] = readQuietly());
+        first.start();
+        assertTrue(transport.requestStarted.await(10, TimeUnit.SECONDS));
+
+        Thread second = new Thread(() -> results[1] = readQuietly());
+        second.start();
+        // Parked on the first read's future rather than sending a request of its own.
+        while(second.getState() != Thread.State.WAITING)
+        {
+            assertTrue(second.isAlive());
+            Thread.sleep(1);
+        }
+
+        transport.releaseRequest.countDown();
+        first.join(10_000);
+        second.join(10_000);
+
+        assertEquals(1, transport.requests.get());
+        assertEquals(2, results[0].size());
+        assertEquals(2, results[1].size());
+        assertEquals("H2", results[1].getText(1, 0));
+        assertTrue(sheetSource.drainStats().contains("coalesced=1"));
+    }
+
+    private RowBuffer read() throws Exception
+    {
+        RowBuffer ids = new RowBuffer(1, RowBuffer.ColumnType.TEXT);
+        sheetSource.batchGet(Collections.singletonList("Hospital!A:A"), Collections.singletonList(ids));
+        return ids;
+    }
+
+    private RowBuffer readQuietly()
+    {
+        try
+        {
+            return read();
+        }
+        catch(Exception e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Answers each request with the next scripted response; can hold a request until the test releases it.
+    private static class ScriptedTransport extends MockHttpTransport
+    {
+        private final Queue<MockLowLevelHttpResponse> responses = new ArrayDeque<>();
+        private final AtomicInteger requests = new AtomicInteger();
+        private final CountDownLatch requestStarted = new CountDownLatch(1);
+        private final CountDownLatch releaseRequest = new CountDownLatch(1);
+        private volatile boolean blocking;
+
+        synchronized void respond(int statusCode, String retryAfter, String content)
+        {
+            MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+                    .setStatusCode(statusCode)
+                    .setContentType("application/json")
+                    .setContent(content);
+            if(retryAfter != null)
+            {
+                response.addHeader("Retry-After", retryAfter);
+            }
+            responses.add(response);
+        }
+
+        void blockNextRequest()
+        {
+            blocking = true;
+        }
+
+        @Override
+        public LowLevelHttpRequest buildRequest(String method, String url)
+        {
+            return new MockLowLevelHttpRequest(url)
+            {
+                @Override
+                public LowLevelHttpResponse execute() throws IOException
+                {
+                    requests.incrementAndGet();
+                    if(blocking)
+                    {
+                        blocking = false;
+                        requestStarted.countDown();
+                        try
+                        {
+                            releaseRequest.await();
+                        }
+                        catch(InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+                    }
+                    synchronized(ScriptedTransport.this)
+                    {
+                        return responses.remove();
+                    }
+                }
+            };
+        }
+    }
+}
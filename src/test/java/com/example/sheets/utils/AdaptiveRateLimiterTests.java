@@ -0,0 +1,65 @@
+package com.example.sheets.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveRateLimiterTests
+{
+    @Test
+    void halvesOnThrottlingAndRecoversStepByStep()
+    {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(6, 60, 1, 0.5, 5);
+        assertEquals(60, limiter.getRatePerMinute());
+
+        limiter.onThrottled();
+        assertEquals(30, limiter.getRatePerMinute());
+        limiter.onThrottled();
+        limiter.onThrottled();
+        assertEquals(7.5, limiter.getRatePerMinute());
+        limiter.onThrottled();
+        assertEquals(6, limiter.getRatePerMinute());
+
+        limiter.onSuccess();
+        limiter.onSuccess();
+        assertEquals(8, limiter.getRatePerMinute());
+        for(int i = 0; i < 100; i++)
+        {
+            limiter.onSuccess();
+        }
+        assertEquals(60, limiter.getRatePerMinute());
+    }
+
+    // 600 requests per minute is one every 100 ms once the burst is spent; lower bounds only, so a slow machine
+    // cannot fail it.
+    @Test
+    void allowsABurstThenWaitsForTheRate()
+    {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(60, 600, 1, 0.5, 3);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            long start = System.nanoTime();
+            for(int i = 0; i < 5; i++)
+            {
+                limiter.acquire();
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+        });
+    }
+
+    @Test
+    void throttlingEmptiesTheBucket()
+    {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(60, 600, 1, 0.5, 10);
+        limiter.onThrottled();
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            long start = System.nanoTime();
+            limiter.acquire();
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+        });
+    }
+}
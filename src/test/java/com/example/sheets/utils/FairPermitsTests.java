@@ -0,0 +1,105 @@
+package com.example.sheets.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FairPermitsTests
+{
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Test
+    void uncontendedPermitsDoNotBlock()
+    {
+        FairPermits permits = new FairPermits(2);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            permits.acquire("a");
+            permits.acquire("b");
+            permits.release();
+            permits.acquire("a");
+        });
+    }
+
+    // Three waiters of tenant a queue up before the one of tenant b; b still gets the second turn.
+    @Test
+    void contendedPermitsGoRoundRobinAcrossKeys() throws Exception
+    {
+        FairPermits permits = new FairPermits(1);
+        permits.acquire("holder");
+
+        List<String> turns = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> waiters = new ArrayList<>();
+        for(String key: Arrays.asList("a", "a", "a", "b"))
+        {
+            Thread waiter = new Thread(() -> {
+                try
+                {
+                    permits.acquire(key);
+                    turns.add(key);
+                    permits.release();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            waiter.start();
+            awaitWaiting(waiter);
+            waiters.add(waiter);
+        }
+
+        permits.release();
+        for(Thread waiter: waiters)
+        {
+            waiter.join(TIMEOUT.toMillis());
+        }
+        assertEquals(Arrays.asList("a", "b", "a", "a"), turns);
+    }
+
+    @Test
+    void interruptedWaiterGivesUpItsPlace() throws Exception
+    {
+        FairPermits permits = new FairPermits(1);
+        permits.acquire("holder");
+
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        Thread waiter = new Thread(() -> {
+            try
+            {
+                permits.acquire("a");
+            }
+            catch (Throwable e)
+            {
+                failures.add(e);
+            }
+        });
+        waiter.start();
+        awaitWaiting(waiter);
+        waiter.interrupt();
+        waiter.join(TIMEOUT.toMillis());
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0) instanceof InterruptedException);
+
+        permits.release();
+        assertTimeoutPreemptively(TIMEOUT, () -> permits.acquire("b"));
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while(thread.getState() != Thread.State.WAITING)
+        {
+            assertTrue(System.nanoTime() < deadline, thread.getName() + " did not start waiting");
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.sheets.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PackedIdSetTests
+{
+    @Test
+    void packsShortAsciiIds()
+    {
+        for(String id: Arrays.asList("H", "P0000001", "H00042", "a-b_c"))
+        {
+            assertNotEquals(0, PackedIdSet.pack(id));
+            assertEquals(id, PackedIdSet.unpack(PackedIdSet.pack(id)));
+        }
+        assertNotEquals(PackedIdSet.pack("1"), PackedIdSet.pack("01"));
+        assertEquals(0, PackedIdSet.pack(""));
+        assertEquals(0, PackedIdSet.pack("123456789"));
+        assertEquals(0, PackedIdSet.pack("Hé"));
+    }
+
+    @Test
+    void keepsIdsThatDoNotPackInTheOverflowSet()
+    {
+        PackedIdSet ids = new PackedIdSet();
+        Set<String> expected = new HashSet<>(Arrays.asList("H1", "", "P000000001", "Hôpital", "H2"));
+        for(String id: expected)
+        {
+            assertTrue(ids.add(id));
+        }
+        for(String id: expected)
+        {
+            assertFalse(ids.add(id));
+            assertTrue(ids.contains(id));
+        }
+
+        assertEquals(expected.size(), ids.size());
+        assertEquals(expected, new HashSet<>(ids));
+        assertFalse(ids.contains("P000000002"));
+        assertFalse(ids.contains("H3"));
+        assertFalse(ids.contains(42));
+    }
+
+    @Test
+    void growsPastItsExpectedSize()
+    {
+        PackedIdSet ids = new PackedIdSet(0);
+        Set<String> expected = new HashSet<>();
+        for(int i = 0; i < 100_000; i++)
+        {
+            String id = String.format("P%07d", i);
+            expected.add(id);
+            assertTrue(ids.add(id));
+        }
+        assertFalse(ids.add("P0000000"));
+
+        assertEquals(expected.size(), ids.size());
+        for(String id: expected)
+        {
+            assertTrue(ids.contains(id));
+        }
+        assertFalse(ids.contains("P0100000"));
+        assertEquals(expected, new HashSet<>(ids));
+
+        ids.clear();
+        assertEquals(0, ids.size());
+        assertFalse(ids.iterator().hasNext());
+        assertTrue(ids.add("P0000000"));
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.sheets.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RowDiffTests
+{
+    @Test
+    void keepsNewUnhashedAndChangedRows()
+    {
+        Map<String, Long> existingHashes = new HashMap<>();
+        existingHashes.put("P1", 11L);
+        existingHashes.put("P2", 99L);
+        existingHashes.put("P3", null);
+
+        RowDiff diff = RowDiff.of(new int[] {0, 2, 3, 5}, Arrays.asList("P1", "P2", "P3", "P4"), new long[] {11, 12, 13, 14}, existingHashes);
+
+        assertArrayEquals(new int[] {2, 3, 5}, diff.getChangedRows());
+        Map<String, Long> changedHashes = new HashMap<>();
+        changedHashes.put("P2", 12L);
+        changedHashes.put("P3", 13L);
+        changedHashes.put("P4", 14L);
+        assertEquals(changedHashes, diff.getChangedHashes());
+    }
+
+    @Test
+    void unchangedWindowHasNothingToWrite()
+    {
+        Map<String, Long> existingHashes = new HashMap<>();
+        existingHashes.put("P1", -1L);
+        existingHashes.put("P2", Long.MIN_VALUE);
+
+        RowDiff diff = RowDiff.of(new int[] {0, 1}, Arrays.asList("P1", "P2"), new long[] {-1, Long.MIN_VALUE}, existingHashes);
+
+        assertEquals(0, diff.getChangedRows().length);
+        assertEquals(0, diff.getChangedHashes().size());
+    }
+}
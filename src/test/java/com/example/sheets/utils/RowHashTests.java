@@ -0,0 +1,51 @@
+package com.example.sheets.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class RowHashTests
+{
+    @Test
+    void sameCellsHashTheSame()
+    {
+        assertEquals(hash("H1", "One", "North"), hash("H1", "One", "North"));
+        assertNotEquals(hash("H1", "One", "North"), hash("H1", "One", "South"));
+        assertNotEquals(hash("H1", "One"), hash("One", "H1"));
+    }
+
+    @Test
+    void cellBoundariesCount()
+    {
+        assertNotEquals(hash("ab", "c"), hash("a", "bc"));
+        assertNotEquals(hash("abc"), hash("abc", ""));
+        assertNotEquals(hash("", ""), hash(""));
+    }
+
+    @Test
+    void charArraysHashLikeStrings()
+    {
+        char[] chars = "[Hôpital Ω]".toCharArray();
+        assertEquals(RowHash.mix(RowHash.start(), "Hôpital Ω"), RowHash.mix(RowHash.start(), chars, 1, chars.length - 2));
+        assertNotEquals(hash("Ā"), hash("\u0001"));
+    }
+
+    @Test
+    void combineDependsOnOrder()
+    {
+        long first = hash("a");
+        long second = hash("b");
+        assertNotEquals(RowHash.combine(RowHash.combine(0, first), second), RowHash.combine(RowHash.combine(0, second), first));
+    }
+
+    private static long hash(String... cells)
+    {
+        long hash = RowHash.start();
+        for(String cell: cells)
+        {
+            hash = RowHash.mix(hash, cell);
+        }
+        return RowHash.finish(hash);
+    }
+}
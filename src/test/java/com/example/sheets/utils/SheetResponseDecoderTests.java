@@ -0,0 +1,83 @@
+package com.example.sheets.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SheetResponseDecoderTests
+{
+    private static final long INVALID = Long.MIN_VALUE;
+
+    @Test
+    void parsesInts()
+    {
+        assertEquals(0, parseInt("0"));
+        assertEquals(12, parseInt("12"));
+        assertEquals(-7, parseInt("-7"));
+        assertEquals(3, parseInt("+3"));
+        assertEquals(12, parseInt("12.0"));
+        assertEquals(12, parseInt("12."));
+        assertEquals(Integer.MAX_VALUE, parseInt("2147483647"));
+        assertEquals(Integer.MIN_VALUE, parseInt("-2147483648"));
+        assertEquals(42, SheetResponseDecoder.parseInt("[42]".toCharArray(), 1, 2));
+    }
+
+    @Test
+    void rejectsWhatIsNotAnInt()
+    {
+        assertEquals(INVALID, parseInt(""));
+        assertEquals(INVALID, parseInt("-"));
+        assertEquals(INVALID, parseInt(".0"));
+        assertEquals(INVALID, parseInt("12.5"));
+        assertEquals(INVALID, parseInt("1e3"));
+        assertEquals(INVALID, parseInt(" 1"));
+        assertEquals(INVALID, parseInt("twelve"));
+        assertEquals(INVALID, parseInt("2147483648"));
+        assertEquals(INVALID, parseInt("-2147483649"));
+        assertEquals(INVALID, parseInt("12345678901"));
+    }
+
+    @Test
+    void parsesDatesLikeLocalDate()
+    {
+        assertEquals(0, parseDate("1970-01-01"));
+        assertEquals(LocalDate.of(2024, 2, 29).toEpochDay(), parseDate("2024-02-29"));
+        assertEquals(LocalDate.of(2000, 2, 29).toEpochDay(), parseDate("2000-02-29"));
+        assertEquals(LocalDate.of(2024, 1, 5).toEpochDay(), parseDate("2024-1-5"));
+        assertEquals(LocalDate.of(1, 1, 1).toEpochDay(), parseDate("1-1-1"));
+
+        for(LocalDate date = LocalDate.of(1896, 1, 1); date.getYear() < 2104; date = date.plusDays(13))
+        {
+            assertEquals(date.toEpochDay(), parseDate(date.toString()), date.toString());
+        }
+    }
+
+    @Test
+    void rejectsWhatIsNotADate()
+    {
+        assertEquals(INVALID, parseDate(""));
+        assertEquals(INVALID, parseDate("2023-02-29"));
+        assertEquals(INVALID, parseDate("1900-02-29"));
+        assertEquals(INVALID, parseDate("2024-04-31"));
+        assertEquals(INVALID, parseDate("2024-13-01"));
+        assertEquals(INVALID, parseDate("2024-00-10"));
+        assertEquals(INVALID, parseDate("2024-01-00"));
+        assertEquals(INVALID, parseDate("2024-01"));
+        assertEquals(INVALID, parseDate("2024-01-01-"));
+        assertEquals(INVALID, parseDate("2024--01"));
+        assertEquals(INVALID, parseDate("20240101"));
+        assertEquals(INVALID, parseDate("01/02/2024"));
+    }
+
+    private static long parseInt(String text)
+    {
+        return SheetResponseDecoder.parseInt(text.toCharArray(), 0, text.length());
+    }
+
+    private static long parseDate(String text)
+    {
+        return SheetResponseDecoder.parseDate(text.toCharArray(), 0, text.length());
+    }
+}